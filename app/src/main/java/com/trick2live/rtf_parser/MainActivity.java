@@ -5,9 +5,11 @@ import android.support.v7.app.AppCompatActivity;
 import android.widget.TextView;
 
 
+import com.trick2live.parser.rtf.exception.ExtractionCancelledException;
 import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
 import com.trick2live.parser.rtf.exception.UnsupportedMimeTypeException;
 import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+import com.trick2live.parser.rtf.parser.rtf.CancellationToken;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -16,12 +18,15 @@ import java.nio.charset.StandardCharsets;
 
 public class MainActivity extends AppCompatActivity {
 
+    // stops the extraction when the activity goes away
+    private final CancellationToken cancellation = new CancellationToken();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        TextView textView = findViewById(R.id.text);
+        final TextView textView = findViewById(R.id.text);
         String demo = "{\\rtf1\\ansi\\deff0\n" +
                 "{\\colortbl;\\red0\\green0\\blue0;\\red255\\green0\\blue0;}\n" +
                 "This line is the default color\\line\n" +
@@ -31,19 +36,39 @@ public class MainActivity extends AppCompatActivity {
                 "This line is the default color\n" +
                 "}";
 
-        InputStream stream = new ByteArrayInputStream(demo.getBytes(StandardCharsets.UTF_8));
-        PlainTextExtractor extractor = new PlainTextExtractor();
-        try {
-
-            String text = extractor.extract(
-                    new BufferedInputStream(stream),
-                    "application/rtf"
-            );
-            textView.setText(text);
-        } catch (UnsupportedMimeTypeException e) {
-            e.printStackTrace();
-        } catch (PlainTextExtractorException e) {
-            e.printStackTrace();
-        }
+        final InputStream stream = new ByteArrayInputStream(demo.getBytes(StandardCharsets.UTF_8));
+        final PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setCancellationToken(cancellation);
+
+        // extract off the UI thread: large documents take a while
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String text = extractor.extract(
+                            new BufferedInputStream(stream),
+                            "application/rtf"
+                    );
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            textView.setText(text);
+                        }
+                    });
+                } catch (ExtractionCancelledException e) {
+                    // the activity is gone, nobody wants the text
+                } catch (UnsupportedMimeTypeException e) {
+                    e.printStackTrace();
+                } catch (PlainTextExtractorException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "rtf-extract").start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        cancellation.cancel();
+        super.onDestroy();
     }
 }
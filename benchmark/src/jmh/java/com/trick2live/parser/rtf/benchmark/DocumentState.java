@@ -0,0 +1,28 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The document a benchmark runs on, in each of the sizes.
+ */
+@State(Scope.Benchmark)
+public class DocumentState {
+
+    @Param({Documents.SMALL, Documents.MEDIUM, Documents.HUGE})
+    public String size;
+
+    public byte[] document;
+    // the document as a string, one char per byte
+    public String text;
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        document = Documents.get(size);
+        text = new String(document, "ISO-8859-1");
+    }
+}
@@ -0,0 +1,29 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import javax.swing.text.rtf.RTFEditorKit;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The library against the JDK's {@link RTFEditorKit} on the same
+ * documents. Sample time mode reports the latency percentiles next to the
+ * mean; the <code>gc</code> profiler adds the allocation of each.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EditorKitBenchmark {
+
+    @Benchmark
+    public String rtfPlainTextExtractor(DocumentState state) throws Exception {
+        return ComparisonRunner.extractWithLibrary(state.document);
+    }
+
+    @Benchmark
+    public String rtfEditorKit(DocumentState state) throws Exception {
+        return ComparisonRunner.extractWithEditorKit(state.document);
+    }
+}
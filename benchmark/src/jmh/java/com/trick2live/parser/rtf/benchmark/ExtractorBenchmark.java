@@ -0,0 +1,42 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
+import com.trick2live.parser.rtf.exception.UnsupportedMimeTypeException;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+import com.trick2live.parser.rtf.parser.rtf.RTFPlainTextExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end extraction, through {@link RTFPlainTextExtractor} directly
+ * and through the {@link PlainTextExtractor} facade with a string input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExtractorBenchmark {
+
+    @Benchmark
+    public int rtfPlainTextExtractor(DocumentState state, Megabytes megabytes)
+            throws PlainTextExtractorException {
+        StringWriter output = new StringWriter();
+        new RTFPlainTextExtractor().extract(
+                new ByteArrayInputStream(state.document), output, null);
+        megabytes.add(state.document.length);
+        return output.getBuffer().length();
+    }
+
+    @Benchmark
+    public String plainTextExtractor(DocumentState state, Megabytes megabytes)
+            throws PlainTextExtractorException, UnsupportedMimeTypeException {
+        String text = new PlainTextExtractor().extract(
+                state.text, "application/rtf", "ISO-8859-1");
+        megabytes.add(state.document.length);
+        return text;
+    }
+}
@@ -0,0 +1,35 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import com.trick2live.parser.rtf.parser.rtf.RTFParserConstants;
+import com.trick2live.parser.rtf.parser.rtf.RTFParserTokenManager;
+import com.trick2live.parser.rtf.parser.rtf.SimpleCharStream;
+import com.trick2live.parser.rtf.parser.rtf.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing alone: {@link RTFParserTokenManager#getNextToken()} until the end
+ * of input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LexerBenchmark {
+
+    @Benchmark
+    public int getNextToken(DocumentState state, Megabytes megabytes) {
+        RTFParserTokenManager tokens = new RTFParserTokenManager(
+                new SimpleCharStream(new ByteArrayInputStream(state.document), 1, 1));
+        int count = 0;
+        for (Token t = tokens.getNextToken(); t.kind != RTFParserConstants.EOF;
+             t = tokens.getNextToken()) {
+            count++;
+        }
+        megabytes.add(state.document.length);
+        return count;
+    }
+}
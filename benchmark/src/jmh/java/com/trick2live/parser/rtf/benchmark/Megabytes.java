@@ -0,0 +1,27 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the input processed, which JMH reports as a rate next to the
+ * operations: MB/s in throughput mode with seconds as the time unit.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Megabytes {
+
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+    }
+
+    public void add(int bytes) {
+        megabytes += bytes / (1024.0 * 1024.0);
+    }
+}
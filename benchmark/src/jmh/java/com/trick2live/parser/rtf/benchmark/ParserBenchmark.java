@@ -0,0 +1,32 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import com.trick2live.parser.rtf.parser.rtf.ParseException;
+import com.trick2live.parser.rtf.parser.rtf.RTFParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing and parsing: {@link RTFParser#parse()} with a delegate that does
+ * nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+
+    private final NullDelegate delegate = new NullDelegate();
+
+    @Benchmark
+    public long parse(DocumentState state, Megabytes megabytes) throws ParseException {
+        RTFParser parser = new RTFParser(new ByteArrayInputStream(state.document));
+        parser.setNewLine("\n");
+        parser.setDelegate(delegate);
+        parser.parse();
+        megabytes.add(state.document.length);
+        return parser.getTokenCount();
+    }
+}
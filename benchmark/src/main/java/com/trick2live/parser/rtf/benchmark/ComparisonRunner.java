@@ -0,0 +1,241 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import com.trick2live.parser.rtf.parser.rtf.RTFPlainTextExtractor;
+
+import javax.swing.text.Document;
+import javax.swing.text.rtf.RTFEditorKit;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs {@link RTFPlainTextExtractor} and the JDK's {@link RTFEditorKit} over
+ * the same generated corpus and compares them: throughput, latency
+ * percentiles, bytes allocated per input byte, and how much of the text
+ * they agree on.
+ *
+ * <p>The JDK kit is the baseline: because both run in the same JVM on the
+ * same machine, the ratios between them are stable across machines where
+ * absolute numbers are not. Given a thresholds file, the run fails (exits
+ * with status 1) if the library is slower relative to the kit, allocates
+ * more, or disagrees with it more than the file allows.</p>
+ *
+ * <pre>
+ * ComparisonRunner [thresholds.properties]
+ * </pre>
+ *
+ * <p>System properties <code>documents</code> (default 200) and
+ * <code>maxSize</code> (default 1 MB) shape the corpus; sizes are spread
+ * logarithmically from 1 KB. Each extractor runs over it
+ * <code>rounds</code> times (default 3) and the fastest round counts.</p>
+ */
+public class ComparisonRunner {
+
+    /** the minimum ratio of library to kit throughput */
+    public static final String MIN_SPEEDUP = "min.speedup";
+    /** the maximum bytes the library allocates per input byte */
+    public static final String MAX_ALLOC_PER_BYTE = "max.alloc.per.byte";
+    /** the minimum share of words, over the whole corpus, both extract */
+    public static final String MIN_WORD_OVERLAP = "min.word.overlap";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The measurements of one extractor over the corpus.
+     */
+    static final class Run {
+        final String name;
+        final long[] nanos;
+        long bytes;
+        long allocated;
+        long totalNanos;
+
+        Run(String name, int documents) {
+            this.name = name;
+            this.nanos = new long[documents];
+        }
+
+        double megabytesPerSecond() {
+            return bytes / (1024.0 * 1024.0) / (totalNanos / 1e9);
+        }
+
+        double allocatedPerByte() {
+            return (double) allocated / bytes;
+        }
+
+        double percentileMillis(double p) {
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, i)] / 1e6;
+        }
+
+        String report() {
+            return String.format(Locale.ROOT,
+                    "%-22s %9.2f MB/s   p50 %8.3f ms   p99 %8.3f ms   %7.2f B alloc/B",
+                    name, megabytesPerSecond(), percentileMillis(0.5),
+                    percentileMillis(0.99), allocatedPerByte());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int documents = Integer.getInteger("documents", 200);
+        int maxSize = Integer.getInteger("maxSize", 1 << 20);
+        int rounds = Integer.getInteger("rounds", 3);
+        byte[][] corpus = new byte[documents][];
+        for (int i = 0; i < documents; i++) {
+            double f = documents == 1 ? 1 : (double) i / (documents - 1);
+            int size = (int) (1024 * Math.pow(maxSize / 1024.0, f));
+            corpus[i] = new RTFCorpusGenerator(i).generate(size);
+        }
+
+        // warm both up, and collect the texts for the diff
+        String[] library = new String[documents];
+        String[] kit = new String[documents];
+        for (int i = 0; i < documents; i++) {
+            library[i] = extractWithLibrary(corpus[i]);
+            kit[i] = extractWithEditorKit(corpus[i]);
+        }
+        // the best of a few alternating rounds, so that a collection or
+        // a compilation in one of them does not decide the comparison
+        Run libraryRun = null;
+        Run kitRun = null;
+        for (int round = 0; round < rounds; round++) {
+            libraryRun = faster(libraryRun, measure("RTFPlainTextExtractor", corpus, true));
+            kitRun = faster(kitRun, measure("RTFEditorKit", corpus, false));
+        }
+
+        System.out.println(libraryRun.report());
+        System.out.println(kitRun.report());
+        double speedup = libraryRun.megabytesPerSecond() / kitRun.megabytesPerSecond();
+        System.out.println(String.format(Locale.ROOT, "speedup %.2fx", speedup));
+
+        int identical = 0;
+        long common = 0;
+        long total = 0;
+        double worstOverlap = 1;
+        int worst = -1;
+        for (int i = 0; i < documents; i++) {
+            String[] a = words(library[i]);
+            String[] b = words(kit[i]);
+            if (Arrays.equals(a, b)) {
+                identical++;
+            }
+            int shared = commonWords(a, b);
+            int longer = Math.max(a.length, b.length);
+            common += shared;
+            total += longer;
+            double overlap = longer == 0 ? 1 : (double) shared / longer;
+            if (overlap < worstOverlap) {
+                worstOverlap = overlap;
+                worst = i;
+            }
+        }
+        double wordOverlap = total == 0 ? 1 : (double) common / total;
+        System.out.println(String.format(Locale.ROOT,
+                "text: %d/%d identical after whitespace normalization, "
+                        + "word overlap %.4f, worst %.4f (document %d)",
+                identical, documents, wordOverlap, worstOverlap, worst));
+
+        if (args.length > 0) {
+            Properties thresholds = new Properties();
+            InputStream in = new FileInputStream(args[0]);
+            try {
+                thresholds.load(in);
+            } finally {
+                in.close();
+            }
+            boolean failed = false;
+            failed |= check(thresholds, MIN_SPEEDUP, speedup, true);
+            failed |= check(thresholds, MAX_ALLOC_PER_BYTE, libraryRun.allocatedPerByte(), false);
+            failed |= check(thresholds, MIN_WORD_OVERLAP, wordOverlap, true);
+            if (failed) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static Run measure(String name, byte[][] corpus, boolean library)
+            throws Exception {
+        Run run = new Run(name, corpus.length);
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < corpus.length; i++) {
+            long start = System.nanoTime();
+            if (library) {
+                extractWithLibrary(corpus[i]);
+            } else {
+                extractWithEditorKit(corpus[i]);
+            }
+            run.nanos[i] = System.nanoTime() - start;
+            run.totalNanos += run.nanos[i];
+            run.bytes += corpus[i].length;
+        }
+        run.allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+        return run;
+    }
+
+    private static Run faster(Run best, Run run) {
+        return best == null || run.totalNanos < best.totalNanos ? run : best;
+    }
+
+    static String extractWithLibrary(byte[] document) throws Exception {
+        StringWriter output = new StringWriter();
+        new RTFPlainTextExtractor().extract(new ByteArrayInputStream(document), output, null);
+        return output.toString();
+    }
+
+    static String extractWithEditorKit(byte[] document) throws Exception {
+        RTFEditorKit kit = new RTFEditorKit();
+        Document text = kit.createDefaultDocument();
+        kit.read(new ByteArrayInputStream(document), text, 0);
+        return text.getText(0, text.getLength());
+    }
+
+    private static String[] words(String text) {
+        String trimmed = text.trim();
+        return trimmed.length() == 0 ? new String[0] : trimmed.split("\\s+");
+    }
+
+    /**
+     * @return the number of words of <code>b</code> also found in
+     * <code>a</code>, counting repeats but ignoring order
+     */
+    private static int commonWords(String[] a, String[] b) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String word : a) {
+            Integer n = counts.get(word);
+            counts.put(word, n == null ? 1 : n + 1);
+        }
+        int common = 0;
+        for (String word : b) {
+            Integer n = counts.get(word);
+            if (n != null && n > 0) {
+                counts.put(word, n - 1);
+                common++;
+            }
+        }
+        return common;
+    }
+
+    private static boolean check(Properties thresholds, String key, double value,
+                                 boolean atLeast) {
+        String limit = thresholds.getProperty(key);
+        if (limit == null) {
+            return false;
+        }
+        double bound = Double.parseDouble(limit.trim());
+        boolean ok = atLeast ? value >= bound : value <= bound;
+        System.out.println(String.format(Locale.ROOT, "%-20s %10.4f %s %s  %s",
+                key, value, atLeast ? ">=" : "<=", limit.trim(), ok ? "ok" : "FAILED"));
+        return !ok;
+    }
+}
@@ -0,0 +1,55 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The benchmark inputs: RTF documents with the default mix of
+ * {@link RTFCorpusGenerator} in three sizes, generated the same way on
+ * every run.
+ */
+public final class Documents {
+
+    /** about 2 KB: a short letter */
+    public static final String SMALL = "small";
+    /** about 256 KB: a long report */
+    public static final String MEDIUM = "medium";
+    /** about 16 MB: a long document with many tables and pictures */
+    public static final String HUGE = "huge";
+
+    private static final Map<String, byte[]> documents = new HashMap<String, byte[]>();
+
+    private Documents() {
+    }
+
+    /**
+     * Returns a document, generating it on first use.
+     *
+     * @param size one of <code>SMALL</code>, <code>MEDIUM</code> and
+     * <code>HUGE</code>
+     * @return the document bytes; don't modify them
+     */
+    public static synchronized byte[] get(String size) {
+        byte[] document = documents.get(size);
+        if (document == null) {
+            document = generate(sizeOf(size));
+            documents.put(size, document);
+        }
+        return document;
+    }
+
+    static int sizeOf(String size) {
+        if (SMALL.equals(size)) {
+            return 2 << 10;
+        } else if (MEDIUM.equals(size)) {
+            return 256 << 10;
+        } else if (HUGE.equals(size)) {
+            return 16 << 20;
+        }
+        throw new IllegalArgumentException("Unknown document size: " + size);
+    }
+
+    private static byte[] generate(int size) {
+        return new RTFCorpusGenerator(size).generate(size);
+    }
+}
@@ -0,0 +1,35 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import com.trick2live.parser.rtf.parser.rtf.RTFParserDelegate;
+
+import java.util.List;
+
+/**
+ * A delegate that ignores everything, so a benchmark measures the parser
+ * alone. (The parser's own default delegate prints the text.)
+ */
+public class NullDelegate implements RTFParserDelegate {
+    public void text(String text, String style, int context) {
+    }
+
+    public void controlSymbol(String controlSymbol, int context) {
+    }
+
+    public void controlWord(String controlWord, int value, int context) {
+    }
+
+    public void openGroup(int depth) {
+    }
+
+    public void closeGroup(int depth) {
+    }
+
+    public void styleList(List styles) {
+    }
+
+    public void startDocument() {
+    }
+
+    public void endDocument() {
+    }
+}
@@ -0,0 +1,563 @@
+package com.trick2live.parser.rtf.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates synthetic RTF documents for benchmarks and soak tests. The
+ * output depends only on the seed, the settings and the requested size, so
+ * runs are reproducible without shipping real documents.
+ *
+ * <p>A document is a header (font table, color table, stylesheet, list
+ * table, info group) followed by body blocks of the kinds below, picked at
+ * random in proportion to their weights:</p>
+ * <ul>
+ * <li><code>PROSE</code>: paragraphs with formatting groups, style and
+ * font references, special characters and escapes</li>
+ * <li><code>TABLES</code>: table rows with <code>\cell</code> and
+ * <code>\row</code></li>
+ * <li><code>UNICODE</code>: <code>&#92;u</code> characters with
+ * <code>&#92;uc</code> fallbacks of zero to two bytes</li>
+ * <li><code>DBCS</code>: double-byte text as <code>\'hh</code> pairs</li>
+ * <li><code>NESTING</code>: deeply nested groups</li>
+ * <li><code>PICTURES</code>: <code>\pict</code> groups with hex
+ * payloads</li>
+ * <li><code>IGNORABLE</code>: <code>\*</code> destinations, fields and
+ * bookmarks</li>
+ * </ul>
+ *
+ * <p>Documents are produced block by block, so any size, including several
+ * gigabytes, can be streamed with {@link #open(long)} or
+ * {@link #write(OutputStream, long)} in constant memory. Every document
+ * parses with the strict parser.</p>
+ */
+public class RTFCorpusGenerator {
+
+    public static final int PROSE = 0;
+    public static final int TABLES = 1;
+    public static final int UNICODE = 2;
+    public static final int DBCS = 3;
+    public static final int NESTING = 4;
+    public static final int PICTURES = 5;
+    public static final int IGNORABLE = 6;
+    private static final int BLOCK_KINDS = 7;
+
+    private static final String[] WORDS = {
+            "the", "parser", "reads", "a", "document", "and", "writes", "its",
+            "text", "to", "output", "while", "tables", "fonts", "styles", "are",
+            "skipped", "quickly", "every", "paragraph", "contains", "several",
+            "words", "of", "varying", "length", "caf\\'e9", "na\\'efve",
+            "r\\'e9sum\\'e9", "stra\\'dfe"
+    };
+
+    private static final String[] SPECIALS = {
+            "\\~", "\\-", "\\_", "\\{", "\\}", "\\\\", "\\tab ", "\\line ",
+            "\\emdash ", "\\endash ", "\\emspace ", "\\enspace ", "\\bullet ",
+            "\\lquote ", "\\rquote ", "\\ldblquote ", "\\rdblquote ",
+            "\\ltrmark ", "\\rtlmark ", "\\zwj ", "\\zwnj ", "\\|", "\\:",
+            "\\\r\n", "\\\n"
+    };
+
+    private static final String[] FORMATS = {
+            "\\b ", "\\i ", "\\ul ", "\\strike ", "\\super ", "\\sub ",
+            "\\fs28 ", "\\cf2 ", "\\highlight3 ", "\\caps "
+    };
+
+    private long seed;
+    private final int[] weights = {40, 10, 10, 5, 5, 5, 10};
+    private String charset = "ansi";
+    private int fontCount = 8;
+    private int styleCount = 8;
+    private int maxDepth = 32;
+    private int pictureBytes = 16 << 10;
+
+    /**
+     * Creates a generator with seed <code>0</code> and the default mix.
+     */
+    public RTFCorpusGenerator() {
+    }
+
+    public RTFCorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getWeight(int kind) {
+        return weights[kind];
+    }
+
+    /**
+     * Sets how often a kind of block is picked, relative to the others. A
+     * weight of <code>0</code> leaves the kind out.
+     *
+     * @param kind one of the block kinds, such as <code>PROSE</code>
+     * @param weight the weight, not negative
+     */
+    public void setWeight(int kind, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must not be negative");
+        }
+        weights[kind] = weight;
+    }
+
+    /**
+     * Sets all weights to <code>0</code> but the given kind's, so only
+     * blocks of that kind are generated.
+     *
+     * @param kind one of the block kinds
+     */
+    public void setOnly(int kind) {
+        for (int i = 0; i < BLOCK_KINDS; i++) {
+            weights[i] = i == kind ? 1 : 0;
+        }
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @param charset the document charset control word: <code>ansi</code>,
+     * <code>mac</code>, <code>pc</code> or <code>pca</code>
+     */
+    public void setCharset(String charset) {
+        this.charset = charset;
+    }
+
+    public int getFontCount() {
+        return fontCount;
+    }
+
+    /**
+     * @param fontCount the number of fonts in the font table, at least 3
+     */
+    public void setFontCount(int fontCount) {
+        this.fontCount = Math.max(3, fontCount);
+    }
+
+    public int getStyleCount() {
+        return styleCount;
+    }
+
+    /**
+     * @param styleCount the number of styles in the stylesheet, at least 1
+     */
+    public void setStyleCount(int styleCount) {
+        this.styleCount = Math.max(1, styleCount);
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth the deepest nesting of a <code>NESTING</code> block
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    public int getPictureBytes() {
+        return pictureBytes;
+    }
+
+    /**
+     * @param pictureBytes the size of a picture before hex encoding; the
+     * payloads vary between half and all of it
+     */
+    public void setPictureBytes(int pictureBytes) {
+        this.pictureBytes = Math.max(2, pictureBytes);
+    }
+
+    /**
+     * Generates a document in memory.
+     *
+     * @param size the size in bytes; the document exceeds it by at most
+     * one block
+     * @return the document
+     */
+    public byte[] generate(int size) {
+        Source source = new Source(size);
+        byte[] document = new byte[size + 1024];
+        int length = 0;
+        for (byte[] block; (block = source.next()) != null; ) {
+            if (length + block.length > document.length) {
+                byte[] grown = new byte[Math.max(document.length * 2, length + block.length)];
+                System.arraycopy(document, 0, grown, 0, length);
+                document = grown;
+            }
+            System.arraycopy(block, 0, document, length, block.length);
+            length += block.length;
+        }
+        byte[] exact = new byte[length];
+        System.arraycopy(document, 0, exact, 0, length);
+        return exact;
+    }
+
+    /**
+     * Writes a document to a stream, one block at a time.
+     *
+     * @param out the stream to write to; not closed
+     * @param size the size in bytes; the document exceeds it by at most
+     * one block
+     * @throws IOException if writing fails
+     */
+    public void write(OutputStream out, long size) throws IOException {
+        Source source = new Source(size);
+        for (byte[] block; (block = source.next()) != null; ) {
+            out.write(block);
+        }
+    }
+
+    /**
+     * Returns a stream that generates a document as it is read.
+     *
+     * @param size the size in bytes; the document exceeds it by at most
+     * one block
+     * @return the document stream
+     */
+    public InputStream open(long size) {
+        final Source source = new Source(size);
+        return new InputStream() {
+            private byte[] block = new byte[0];
+            private int pos;
+
+            public int read() {
+                if (!fill()) {
+                    return -1;
+                }
+                return block[pos++] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, block.length - pos);
+                System.arraycopy(block, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+
+            private boolean fill() {
+                while (block != null && pos == block.length) {
+                    block = source.next();
+                    pos = 0;
+                }
+                return block != null;
+            }
+        };
+    }
+
+    /**
+     * Produces the blocks of one document.
+     */
+    private final class Source {
+        private final long size;
+        private final Random random = new Random(seed);
+        private final StringBuilder out = new StringBuilder(8192);
+        private final int totalWeight;
+        private long produced;
+        private boolean started;
+        private boolean finished;
+
+        Source(long size) {
+            this.size = size;
+            int total = 0;
+            for (int weight : weights) {
+                total += weight;
+            }
+            if (total == 0) {
+                throw new IllegalStateException("all block weights are 0");
+            }
+            totalWeight = total;
+        }
+
+        byte[] next() {
+            if (finished) {
+                return null;
+            }
+            out.setLength(0);
+            if (!started) {
+                started = true;
+                header();
+            } else if (produced + 1 >= size) {
+                out.append("\\par\n}");
+                finished = true;
+            } else {
+                block(pick());
+            }
+            byte[] bytes = new byte[out.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) out.charAt(i);
+            }
+            produced += bytes.length;
+            return bytes;
+        }
+
+        private int pick() {
+            int r = random.nextInt(totalWeight);
+            for (int kind = 0; ; kind++) {
+                r -= weights[kind];
+                if (r < 0) {
+                    return kind;
+                }
+            }
+        }
+
+        private void header() {
+            out.append("{\\rtf1\\").append(charset)
+                    .append("\\ansicpg1252\\uc1\\deff0\\deflang1033\n");
+            out.append("{\\fonttbl");
+            out.append("{\\f0\\froman\\fcharset0\\fprq2 Times New Roman;}");
+            out.append("{\\f1\\fswiss\\fcharset0\\fprq2{\\*\\panose 020b0604020202020204}Arial;}");
+            out.append("{\\f2\\fnil\\fcharset128\\fprq1 MS Mincho;}");
+            for (int f = 3; f < fontCount; f++) {
+                out.append("{\\f").append(f).append("\\fswiss\\fcharset0 Font ")
+                        .append(f).append(";}");
+            }
+            out.append("}\n{\\colortbl;\\red0\\green0\\blue0;\\red255\\green0\\blue0;")
+                    .append("\\red0\\green0\\blue255;}\n");
+            out.append("{\\stylesheet{\\ql\\li0\\ri0\\widctlpar\\f0\\fs24 \\snext0 Normal;}");
+            for (int s = 1; s < styleCount; s++) {
+                out.append("{\\*\\cs").append(s).append(" \\additive\\b\\f1 Style ")
+                        .append(s).append(";}");
+            }
+            out.append("}\n{\\*\\listtable{\\list\\listtemplateid1{\\listlevel\\levelnfc23")
+                    .append("{\\leveltext\\'01\\u-3913?;}{\\levelnumbers;}\\f3}")
+                    .append("{\\listname ;}\\listid1}}\n");
+            out.append("{\\*\\revtbl{Unknown;}}\n");
+            out.append("{\\info{\\title Generated document ").append(seed)
+                    .append("}{\\author RTFCorpusGenerator}{\\company Benchmarks}")
+                    .append("{\\creatim\\yr2020\\mo1\\dy2\\hr3\\min4}")
+                    .append("{\\revtim\\yr2021\\mo5\\dy6\\hr7\\min8}}\n");
+            out.append("{\\*\\generator RTFCorpusGenerator;}");
+            out.append("\\paperw12240\\paperh15840\\margl1440\\margr1440\n");
+            out.append("{\\*\\pnseclvl1\\pnucrm\\pnstart1\\pnindent720\\pnhang{\\pntxta .}}\n");
+            out.append("\\sectd\\sectspecifygenN1\\pard\\plain ");
+        }
+
+        private void block(int kind) {
+            switch (kind) {
+                case PROSE:
+                    prose();
+                    break;
+                case TABLES:
+                    table();
+                    break;
+                case UNICODE:
+                    unicode();
+                    break;
+                case DBCS:
+                    dbcs();
+                    break;
+                case NESTING:
+                    nesting();
+                    break;
+                case PICTURES:
+                    picture();
+                    break;
+                default:
+                    ignorable();
+                    break;
+            }
+        }
+
+        private void prose() {
+            out.append("\\pard\\plain\\s0\\ql\\f").append(random.nextInt(fontCount))
+                    .append("\\fs").append(20 + 2 * random.nextInt(5)).append(' ');
+            if (random.nextInt(4) == 0) {
+                out.append("{\\pntext\\f1 \\'b7\\tab}");
+            }
+            int sentences = 1 + random.nextInt(4);
+            for (int s = 0; s < sentences; s++) {
+                words(3 + random.nextInt(12));
+                switch (random.nextInt(4)) {
+                    case 0:
+                        out.append(" {").append(FORMATS[random.nextInt(FORMATS.length)]);
+                        words(1 + random.nextInt(3));
+                        out.append('}');
+                        break;
+                    case 1:
+                        out.append(" {\\cs").append(1 + random.nextInt(Math.max(1, styleCount - 1)))
+                                .append(' ');
+                        words(1 + random.nextInt(3));
+                        out.append("\\plain}");
+                        break;
+                    case 2:
+                        out.append(' ').append(SPECIALS[random.nextInt(SPECIALS.length)]);
+                        break;
+                    default:
+                        break;
+                }
+                out.append(". ");
+            }
+            out.append("\\par\n");
+        }
+
+        private void table() {
+            int cells = 2 + random.nextInt(5);
+            int rows = 1 + random.nextInt(4);
+            boolean floating = random.nextInt(4) == 0;
+            for (int r = 0; r < rows; r++) {
+                out.append("\\trowd\\trgaph108\\trleft-108\\trftsWidth1\\trwWidth0")
+                        .append("\\trftsWidthB3\\trwWidthB0\\trftsWidthA3\\trwWidthA0");
+                if (floating) {
+                    out.append("\\tdfrmtxtLeft180\\tdfrmtxtRight180")
+                            .append("\\tdfrmtxtTop0\\tdfrmtxtBottom0");
+                }
+                for (int c = 1; c <= cells; c++) {
+                    out.append(random.nextBoolean() ? "\\clFitText" : "\\clNoWrap")
+                            .append("\\clvertalt\\clftsWidth3\\clwWidth").append(1800)
+                            .append("\\cellx").append(c * 1800);
+                }
+                out.append('\n');
+                for (int c = 0; c < cells; c++) {
+                    out.append("\\pard\\intbl\\ql ");
+                    if (random.nextInt(3) == 0) {
+                        out.append("{\\b ");
+                        words(1 + random.nextInt(3));
+                        out.append('}');
+                    } else {
+                        words(1 + random.nextInt(4));
+                    }
+                    out.append("\\cell ");
+                }
+                out.append("\\row\n");
+            }
+            out.append("\\pard ");
+        }
+
+        private void unicode() {
+            int skip = random.nextInt(3);
+            out.append("{\\uc").append(skip).append(' ');
+            int chars = 5 + random.nextInt(40);
+            for (int i = 0; i < chars; i++) {
+                int c;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        c = 0x0410 + random.nextInt(64); // Cyrillic
+                        break;
+                    case 1:
+                        c = 0x4e00 + random.nextInt(2000); // CJK
+                        break;
+                    case 2:
+                        c = 0x0391 + random.nextInt(25); // Greek
+                        break;
+                    default:
+                        c = 0xf000 + random.nextInt(0x0fff); // as negative
+                        break;
+                }
+                out.append("\\u").append(c > 32767 ? c - 65536 : c);
+                if (skip == 0) {
+                    out.append(' ');
+                } else if (skip == 1) {
+                    out.append('?');
+                } else {
+                    out.append("\\'3f\\'3f");
+                }
+                if (random.nextInt(6) == 0) {
+                    out.append(' ');
+                    words(1);
+                    out.append(' ');
+                }
+            }
+            out.append("}\\par\n");
+        }
+
+        private void dbcs() {
+            out.append("{\\f2\\fs24 ");
+            int chars = 5 + random.nextInt(60);
+            for (int i = 0; i < chars; i++) {
+                // Shift-JIS hiragana and kanji lead/trail pairs
+                hex(random.nextBoolean() ? 0x82 : 0x88 + random.nextInt(0x10));
+                hex(0x9f + random.nextInt(0x5c));
+            }
+            out.append("}\\par\n");
+        }
+
+        private void nesting() {
+            int depth = 1 + random.nextInt(maxDepth);
+            for (int d = 0; d < depth; d++) {
+                out.append('{').append(FORMATS[random.nextInt(FORMATS.length)]);
+                if (random.nextInt(4) == 0) {
+                    words(1);
+                    out.append(' ');
+                }
+            }
+            words(1 + random.nextInt(5));
+            for (int d = 0; d < depth; d++) {
+                out.append('}');
+            }
+            out.append("\\par\n");
+        }
+
+        private void picture() {
+            int bytes = pictureBytes / 2 + random.nextInt(pictureBytes / 2 + 1);
+            out.append("{\\*\\shppict{\\pict\\pngblip\\picw").append(100 + random.nextInt(900))
+                    .append("\\pich").append(100 + random.nextInt(900))
+                    .append("\\picwgoal1440\\pichgoal1440\n");
+            for (int i = 0; i < bytes; i++) {
+                hexDigits(random.nextInt(256));
+                if ((i & 63) == 63) {
+                    out.append('\n');
+                }
+            }
+            out.append("}}{\\nonshppict{\\pict\\wmetafile8\\picw100\\pich100 ")
+                    .append("0100090000036e00000000004500000000000400}}\\par\n");
+        }
+
+        private void ignorable() {
+            switch (random.nextInt(3)) {
+                case 0:
+                    out.append("{\\field{\\*\\fldinst HYPERLINK \"http://example.com/")
+                            .append(random.nextInt(100000)).append("\"}{\\fldrslt ");
+                    words(1 + random.nextInt(3));
+                    out.append("}}");
+                    break;
+                case 1:
+                    String name = "bm" + random.nextInt(10000);
+                    out.append("{\\*\\bkmkstart ").append(name).append('}');
+                    words(2 + random.nextInt(4));
+                    out.append("{\\*\\bkmkend ").append(name).append('}');
+                    break;
+                default:
+                    out.append("{\\*\\userprops {\\propname Version}\\proptype3{\\staticval ")
+                            .append(random.nextInt(1000)).append("}}");
+                    words(2);
+                    break;
+            }
+            out.append("\\par\n");
+        }
+
+        private void words(int count) {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+                out.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+        }
+
+        private void hex(int b) {
+            out.append("\\'");
+            hexDigits(b);
+        }
+
+        private void hexDigits(int b) {
+            out.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 15, 16));
+        }
+    }
+}
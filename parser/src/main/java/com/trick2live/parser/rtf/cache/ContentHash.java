@@ -0,0 +1,68 @@
+package com.trick2live.parser.rtf.cache;
+
+/**
+ * A 128-bit hash of a document's bytes, used as the key of an
+ * {@link ExtractionCache}. Computed with {@link ContentHasher}.
+ */
+public final class ContentHash {
+    private final long high;
+    private final long low;
+
+    public ContentHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Hashes a range of bytes.
+     *
+     * @param bytes the bytes to hash
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @param seed the hash seed, see {@link ContentHasher#ContentHasher(int)}
+     * @return the hash
+     */
+    public static ContentHash of(byte[] bytes, int offset, int length, int seed) {
+        ContentHasher hasher = new ContentHasher(seed);
+        hasher.update(bytes, offset, length);
+        return hasher.finish();
+    }
+
+    /** @return the first 64 bits of the hash */
+    public long getHigh() {
+        return high;
+    }
+
+    /** @return the last 64 bits of the hash */
+    public long getLow() {
+        return low;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ContentHash)) {
+            return false;
+        }
+        ContentHash other = (ContentHash) o;
+        return high == other.high && low == other.low;
+    }
+
+    public int hashCode() {
+        // the bits are already well mixed
+        return (int) low;
+    }
+
+    /**
+     * @return the hash as 32 hexadecimal digits
+     */
+    public String toString() {
+        return hex(high) + hex(low);
+    }
+
+    private static String hex(long v) {
+        String s = Long.toHexString(v);
+        return "0000000000000000".substring(s.length()) + s;
+    }
+}
@@ -0,0 +1,142 @@
+package com.trick2live.parser.rtf.cache;
+
+/**
+ * Computes a {@link ContentHash} incrementally, so a document can be hashed
+ * while it is being read. The hash is MurmurHash3 (the x64 128-bit
+ * variant): much faster than a cryptographic digest, and with 128 bits,
+ * accidental collisions between documents are not a practical concern. It
+ * is not meant to resist deliberately crafted collisions.
+ *
+ * <p>An instance is not thread-safe and computes a single hash.</p>
+ */
+public final class ContentHasher {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private long length;
+    // the bytes of an incomplete 16-byte block
+    private final byte[] tail = new byte[16];
+    private int tailLength;
+
+    public ContentHasher() {
+        this(0);
+    }
+
+    /**
+     * Creates a hasher with the given seed. Different seeds give unrelated
+     * hashes for the same bytes, which keeps apart results of the same
+     * document extracted with different options.
+     *
+     * @param seed the seed
+     */
+    public ContentHasher(int seed) {
+        h1 = seed & 0xffffffffL;
+        h2 = h1;
+    }
+
+    /**
+     * Adds a single byte to the hash.
+     *
+     * @param b the byte, in the low 8 bits
+     */
+    public void update(int b) {
+        tail[tailLength++] = (byte) b;
+        length++;
+        if (tailLength == 16) {
+            block(tail, 0);
+            tailLength = 0;
+        }
+    }
+
+    /**
+     * Adds a range of bytes to the hash.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the first byte
+     * @param count the number of bytes
+     */
+    public void update(byte[] bytes, int offset, int count) {
+        length += count;
+        int end = offset + count;
+        if (tailLength > 0) {
+            int n = Math.min(16 - tailLength, count);
+            System.arraycopy(bytes, offset, tail, tailLength, n);
+            tailLength += n;
+            offset += n;
+            if (tailLength < 16) {
+                return;
+            }
+            block(tail, 0);
+            tailLength = 0;
+        }
+        for (; offset + 16 <= end; offset += 16) {
+            block(bytes, offset);
+        }
+        tailLength = end - offset;
+        System.arraycopy(bytes, offset, tail, 0, tailLength);
+    }
+
+    /**
+     * Completes the hash. The hasher must not be used afterwards.
+     *
+     * @return the hash of all bytes added
+     */
+    public ContentHash finish() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (tail[i] & 0xff);
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (tail[i] & 0xff);
+        }
+        if (tailLength > 8) {
+            h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+        }
+        if (tailLength > 0) {
+            h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new ContentHash(h1, h2);
+    }
+
+    private void block(byte[] b, int i) {
+        long k1 = getLong(b, i);
+        long k2 = getLong(b, i + 8);
+        h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        h1 = Long.rotateLeft(h1, 27) + h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+        h2 = Long.rotateLeft(h2, 31) + h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xffL)
+                | (b[i + 1] & 0xffL) << 8
+                | (b[i + 2] & 0xffL) << 16
+                | (b[i + 3] & 0xffL) << 24
+                | (b[i + 4] & 0xffL) << 32
+                | (b[i + 5] & 0xffL) << 40
+                | (b[i + 6] & 0xffL) << 48
+                | (b[i + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,399 @@
+package com.trick2live.parser.rtf.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An {@link ExtractionCache} kept in files in a directory, so it survives
+ * restarts and can be shared by the processes on one host.
+ *
+ * <p>Texts are compressed and appended to a segment file,
+ * <code>texts.dat</code>. They are found through <code>index.dat</code>, a
+ * hash table with open addressing that is memory-mapped, so a lookup reads
+ * one slot or a few from the page cache and then the text with a single
+ * positioned read. Records are never rewritten or removed: the segment
+ * only grows.</p>
+ *
+ * <p>There is no eviction. Once the index holds <code>maxEntries</code>
+ * texts the cache is full: lookups still hit, but further texts are
+ * dropped and counted by {@link #getRejectedCount()}. Check
+ * {@link #isFull()} to notice this; to start over, delete the directory
+ * while no process uses it, or open a new one with a larger
+ * <code>maxEntries</code>.</p>
+ *
+ * <p>Writers take an exclusive lock on the index file, so processes append
+ * one at a time. Readers take no lock: a record is appended before its
+ * slot is filled, and a record is only returned if the key stored with it
+ * matches and it decompresses to the stored length, so a slot being
+ * written by another process, or left half-written by a crash, reads as a
+ * miss. Use one instance per directory in a process; it may be shared
+ * by any number of threads.</p>
+ */
+public class DiskExtractionCache implements ExtractionCache, Closeable {
+
+    /** the name of the segment file */
+    public static final String SEGMENT_FILE = "texts.dat";
+    /** the name of the index file */
+    public static final String INDEX_FILE = "index.dat";
+
+    private static final int MAGIC = 0x52544658; // "RTFX"
+    private static final int VERSION = 2;
+    // index header: magic, version, number of slots, number of entries,
+    // maximum number of entries, and 4 bytes to keep the slots aligned
+    private static final int INDEX_HEADER = 24;
+    // slot: the two halves of the key and the record offset, 0 if empty
+    private static final int SLOT = 24;
+    // segment header: magic, version
+    private static final int SEGMENT_HEADER = 8;
+    // record header: the two halves of the key, compressed and raw length
+    private static final int RECORD_HEADER = 24;
+
+    private final RandomAccessFile segmentFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel segment;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer index;
+    private final int slots;
+    private final int maxEntries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Opens the cache in a directory, creating it if needed.
+     *
+     * @param directory the directory holding the cache files
+     * @param maxEntries the maximum number of texts, used when the cache
+     * is created; an existing cache keeps the capacity it was created with
+     * @throws IOException if the files can't be created or opened, or
+     * are not cache files
+     */
+    public DiskExtractionCache(File directory, int maxEntries) throws IOException {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        segmentFile = new RandomAccessFile(new File(directory, SEGMENT_FILE), "rw");
+        indexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        segment = segmentFile.getChannel();
+        indexChannel = indexFile.getChannel();
+        try {
+            FileLock lock = indexChannel.lock();
+            try {
+                if (indexChannel.size() == 0) {
+                    create(maxEntries);
+                }
+                ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+                indexChannel.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not an extraction cache index: "
+                            + new File(directory, INDEX_FILE));
+                }
+                slots = header.getInt(8);
+                this.maxEntries = header.getInt(16);
+                if (Integer.bitCount(slots) != 1 || this.maxEntries <= 0
+                        || this.maxEntries >= slots) {
+                    throw new IOException("Damaged extraction cache index: "
+                            + new File(directory, INDEX_FILE));
+                }
+                index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        INDEX_HEADER + (long) slots * SLOT);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    public String get(ContentHash key) {
+        String text = null;
+        try {
+            long offset = find(key);
+            if (offset > 0) {
+                text = read(key, offset);
+            }
+        } catch (IOException e) {
+            // treat an unreadable record like a missing one
+        }
+        if (text == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return text;
+    }
+
+    /**
+     * Appends a text to the segment and adds it to the index, unless the
+     * index already holds the key. If the index is full, the text is
+     * dropped and counted as rejected. Errors writing the files are
+     * ignored: the text is then simply not cached.
+     */
+    public synchronized void put(ContentHash key, String text) {
+        try {
+            byte[] record = compress(key, text);
+            FileLock lock = indexChannel.lock();
+            try {
+                if (find(key) > 0) {
+                    return;
+                }
+                int count = index.getInt(12);
+                if (count >= maxEntries) {
+                    rejected.incrementAndGet();
+                    return;
+                }
+                long offset = Math.max(segment.size(), SEGMENT_HEADER);
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer, offset + buffer.position());
+                }
+                int slot = slotOf(key);
+                while (index.getLong(slot + 16) != 0) {
+                    slot = nextSlot(slot);
+                }
+                index.putLong(slot, key.getHigh());
+                index.putLong(slot + 8, key.getLow());
+                // filled last: a slot with an offset is complete
+                index.putLong(slot + 16, offset);
+                index.putInt(12, count + 1);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            // not cached
+        }
+    }
+
+    /**
+     * Writes the segment records and the index to the storage device.
+     * Without this, a machine crash may lose recently stored texts, but
+     * never returns wrong ones.
+     *
+     * @throws IOException on write errors
+     */
+    public synchronized void flush() throws IOException {
+        segment.force(false);
+        index.force();
+    }
+
+    /**
+     * Closes the cache files. The index stays mapped until the cache
+     * object is garbage collected.
+     *
+     * @throws IOException on close errors
+     */
+    public void close() throws IOException {
+        try {
+            segment.close();
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+    /** @return the number of texts stored, by all processes */
+    public int size() {
+        return index.getInt(12);
+    }
+
+    /**
+     * @return the maximum number of texts, as requested when the cache was
+     * created
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return whether the index holds <code>maxEntries</code> texts, so
+     * that no more are stored
+     */
+    public boolean isFull() {
+        return size() >= maxEntries;
+    }
+
+    /**
+     * @return the size of the segment file, in bytes
+     * @throws IOException if the size can't be read
+     */
+    public long getSegmentSize() throws IOException {
+        return segment.size();
+    }
+
+    /** @return the number of lookups in this process that found a text */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of lookups in this process that found nothing */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of texts this process did not store because the
+     * cache was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public String toString() {
+        return "DiskExtractionCache[size=" + size() + "/" + maxEntries
+                + (isFull() ? " (full)" : "") + ", hits=" + hits.get()
+                + ", misses=" + misses.get() + ", rejected=" + rejected.get() + "]";
+    }
+
+    private void create(int maxEntries) throws IOException {
+        // keep the table at most 3/4 full, with a power of two of slots
+        int n = Integer.highestOneBit((int) Math.min(maxEntries * 4L / 3 + 1, 1 << 30));
+        if (n < maxEntries * 4L / 3 + 1 && n < 1 << 30) {
+            n <<= 1;
+        }
+        // the largest table caps the capacity
+        maxEntries = (int) Math.min(maxEntries, n * 3L / 4);
+        indexFile.setLength(INDEX_HEADER + (long) n * SLOT);
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(0)
+                .putInt(maxEntries).putInt(0).flip();
+        indexChannel.write(header, 0);
+        segmentFile.setLength(0);
+        ByteBuffer segmentHeader = ByteBuffer.allocate(SEGMENT_HEADER);
+        segmentHeader.putInt(MAGIC).putInt(VERSION).flip();
+        segment.write(segmentHeader, 0);
+    }
+
+    /**
+     * @return the record offset stored for the key, 0 if there is none
+     */
+    private long find(ContentHash key) {
+        int slot = slotOf(key);
+        for (int i = 0; i < slots; i++) {
+            long offset = index.getLong(slot + 16);
+            if (offset == 0) {
+                return 0;
+            }
+            if (index.getLong(slot) == key.getHigh()
+                    && index.getLong(slot + 8) == key.getLow()) {
+                return offset;
+            }
+            slot = nextSlot(slot);
+        }
+        return 0;
+    }
+
+    private int slotOf(ContentHash key) {
+        return INDEX_HEADER + (int) (key.getLow() & (slots - 1)) * SLOT;
+    }
+
+    private int nextSlot(int slot) {
+        slot += SLOT;
+        return slot == INDEX_HEADER + slots * SLOT ? INDEX_HEADER : slot;
+    }
+
+    private String read(ContentHash key, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(header, offset);
+        if (header.getLong(0) != key.getHigh() || header.getLong(8) != key.getLow()) {
+            return null;
+        }
+        int compressed = header.getInt(16);
+        int raw = header.getInt(20);
+        if (compressed < 0 || raw < 0 || (raw & 1) != 0
+                || offset + RECORD_HEADER + compressed > segment.size()) {
+            return null;
+        }
+        if (raw == 0) {
+            return "";
+        }
+        ByteBuffer data = ByteBuffer.allocate(compressed);
+        readFully(data, offset + RECORD_HEADER);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.array());
+            byte[] bytes = new byte[raw];
+            int n = 0;
+            while (n < raw && !inflater.finished()) {
+                int k = inflater.inflate(bytes, n, raw - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                n += k;
+            }
+            if (n != raw || !inflater.finished()) {
+                return null;
+            }
+            char[] chars = new char[raw / 2];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ((bytes[2 * i] & 0xff) << 8 | bytes[2 * i + 1] & 0xff);
+            }
+            return new String(chars);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (segment.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated record at " + position);
+            }
+        }
+    }
+
+    private static byte[] compress(ContentHash key, String text) {
+        // the chars as they are: an encoder would replace unpaired
+        // surrogates
+        byte[] raw = new byte[text.length() * 2];
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            raw[2 * i] = (byte) (c >> 8);
+            raw[2 * i + 1] = (byte) c;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[RECORD_HEADER + raw.length / 2 + 64];
+            int n = RECORD_HEADER;
+            while (!deflater.finished()) {
+                if (n == out.length) {
+                    byte[] grown = new byte[out.length * 2];
+                    System.arraycopy(out, 0, grown, 0, n);
+                    out = grown;
+                }
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            ByteBuffer.wrap(out).putLong(key.getHigh()).putLong(key.getLow())
+                    .putInt(n - RECORD_HEADER).putInt(raw.length);
+            byte[] record = new byte[n];
+            System.arraycopy(out, 0, record, 0, n);
+            return record;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // already failing
+        }
+    }
+}
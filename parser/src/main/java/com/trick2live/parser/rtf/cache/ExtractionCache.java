@@ -0,0 +1,26 @@
+package com.trick2live.parser.rtf.cache;
+
+/**
+ * Stores extracted texts by the hash of the document they were extracted
+ * from, so a document seen before needn't be parsed again. Implementations
+ * must be safe for use by several threads.
+ *
+ * @see com.trick2live.parser.rtf.parser.PlainTextExtractor#setCache
+ */
+public interface ExtractionCache {
+    /**
+     * Looks up the text of a document.
+     *
+     * @param key the hash of the document
+     * @return the text, or <code>null</code> if it is not cached
+     */
+    public String get(ContentHash key);
+
+    /**
+     * Stores the text of a document. The cache may drop it at any time.
+     *
+     * @param key the hash of the document
+     * @param text the text extracted from it
+     */
+    public void put(ContentHash key, String text);
+}
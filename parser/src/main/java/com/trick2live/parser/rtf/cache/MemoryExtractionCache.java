@@ -0,0 +1,199 @@
+package com.trick2live.parser.rtf.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory {@link ExtractionCache} bounded by the memory its texts
+ * take. When full, the least recently used texts are evicted.
+ *
+ * <p>The cache is split into stripes, each a separately locked LRU map with
+ * an equal share of the size bound, so threads extracting different
+ * documents seldom wait for each other. A document's stripe is chosen by
+ * its hash. Because eviction is per stripe, the cache as a whole is only
+ * approximately LRU.</p>
+ */
+public class MemoryExtractionCache implements ExtractionCache {
+
+    /** the default number of stripes */
+    public static final int DEFAULT_STRIPES = 16;
+
+    // the estimated size of an entry besides its characters: the map
+    // entry, the key and the String object
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Stripe[] stripes;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with <code>DEFAULT_STRIPES</code> stripes.
+     *
+     * @param maxBytes the maximum memory taken by the cached texts, in bytes
+     */
+    public MemoryExtractionCache(long maxBytes) {
+        this(maxBytes, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes the maximum memory taken by the cached texts, in bytes
+     * @param stripes the number of stripes, rounded up to a power of two;
+     * more stripes mean less contention but a coarser eviction order
+     */
+    public MemoryExtractionCache(long maxBytes, int stripes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive");
+        }
+        int n = Integer.highestOneBit(stripes);
+        if (n < stripes) {
+            n <<= 1;
+        }
+        this.maxBytes = maxBytes;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe(maxBytes / n);
+        }
+    }
+
+    public String get(ContentHash key) {
+        Stripe stripe = stripeFor(key);
+        String text;
+        synchronized (stripe) {
+            text = stripe.map.get(key);
+        }
+        if (text == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return text;
+    }
+
+    public void put(ContentHash key, String text) {
+        long size = sizeOf(text);
+        Stripe stripe = stripeFor(key);
+        if (size > stripe.maxBytes) {
+            return;
+        }
+        int evicted = 0;
+        synchronized (stripe) {
+            String old = stripe.map.put(key, text);
+            if (old != null) {
+                stripe.bytes -= sizeOf(old);
+            }
+            stripe.bytes += size;
+            Iterator<Map.Entry<ContentHash, String>> eldest =
+                    stripe.map.entrySet().iterator();
+            while (stripe.bytes > stripe.maxBytes) {
+                stripe.bytes -= sizeOf(eldest.next().getValue());
+                eldest.remove();
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+        }
+    }
+
+    /**
+     * Removes all texts. The statistics are kept.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.map.clear();
+                stripe.bytes = 0;
+            }
+        }
+    }
+
+    /** @return the number of cached texts */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.map.size();
+            }
+        }
+        return size;
+    }
+
+    /** @return the estimated memory taken by the cached texts, in bytes */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /** @return the maximum memory taken by the cached texts, in bytes */
+    public long getMaxSizeInBytes() {
+        return maxBytes;
+    }
+
+    /** @return the number of lookups that found a text */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of lookups that found nothing */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of texts evicted to make room for others */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the share of lookups that found a text, <code>0</code> if
+     * there were none
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public String toString() {
+        return "MemoryExtractionCache[size=" + size() + ", bytes="
+                + getSizeInBytes() + "/" + maxBytes + ", hits=" + hits.get()
+                + ", misses=" + misses.get() + ", evictions=" + evictions.get()
+                + "]";
+    }
+
+    private Stripe stripeFor(ContentHash key) {
+        // the low bits pick the bucket inside a stripe's map, so use
+        // the high ones here
+        return stripes[(int) (key.getHigh() >>> 32) & (stripes.length - 1)];
+    }
+
+    private static long sizeOf(String text) {
+        return ENTRY_OVERHEAD + 2L * text.length();
+    }
+
+    private static final class Stripe {
+        final long maxBytes;
+        // in access order, so iteration starts at the least recently used
+        final LinkedHashMap<ContentHash, String> map =
+                new LinkedHashMap<ContentHash, String>(16, 0.75f, true);
+        long bytes;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+}
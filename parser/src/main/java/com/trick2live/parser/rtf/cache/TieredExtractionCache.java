@@ -0,0 +1,33 @@
+package com.trick2live.parser.rtf.cache;
+
+/**
+ * Combines a fast, small cache with a slower, larger one, typically a
+ * {@link MemoryExtractionCache} in front of a {@link DiskExtractionCache}.
+ * Texts are stored in both; a text found only in the second one is copied
+ * into the first.
+ */
+public class TieredExtractionCache implements ExtractionCache {
+    private final ExtractionCache first;
+    private final ExtractionCache second;
+
+    public TieredExtractionCache(ExtractionCache first, ExtractionCache second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public String get(ContentHash key) {
+        String text = first.get(key);
+        if (text == null) {
+            text = second.get(key);
+            if (text != null) {
+                first.put(key, text);
+            }
+        }
+        return text;
+    }
+
+    public void put(ContentHash key, String text) {
+        first.put(key, text);
+        second.put(key, text);
+    }
+}
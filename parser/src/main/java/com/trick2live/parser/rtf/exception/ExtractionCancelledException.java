@@ -0,0 +1,11 @@
+package com.trick2live.parser.rtf.exception;
+
+/**
+ * Raised when an extraction is stopped through its
+ * {@link com.trick2live.parser.rtf.parser.rtf.CancellationToken}.
+ */
+public class ExtractionCancelledException extends PlainTextExtractorException {
+    public ExtractionCancelledException(String message) {
+        super(message);
+    }
+}
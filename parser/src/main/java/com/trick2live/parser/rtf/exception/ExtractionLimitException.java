@@ -0,0 +1,53 @@
+package com.trick2live.parser.rtf.exception;
+
+/**
+ * Raised when an extraction is stopped because it exceeded one of its
+ * {@link com.trick2live.parser.rtf.parser.rtf.ExtractionLimits}. Carries
+ * how far the extraction got before it was stopped.
+ */
+public class ExtractionLimitException extends PlainTextExtractorException {
+    private final int limit;
+    private final long bytesRead;
+    private final long tokens;
+    private final long charsExtracted;
+    private final long elapsedMillis;
+
+    public ExtractionLimitException(String message, int limit, long bytesRead,
+                                    long tokens, long charsExtracted,
+                                    long elapsedMillis) {
+        super(message);
+        this.limit = limit;
+        this.bytesRead = bytesRead;
+        this.tokens = tokens;
+        this.charsExtracted = charsExtracted;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return the limit that was exceeded, one of the
+     * <code>ExtractionLimits</code> constants
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the number of bytes read from the input */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** @return the number of tokens parsed */
+    public long getTokens() {
+        return tokens;
+    }
+
+    /** @return the number of characters of text extracted */
+    public long getCharsExtracted() {
+        return charsExtracted;
+    }
+
+    /** @return the time spent, in milliseconds */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
@@ -1,17 +1,32 @@
 package com.trick2live.parser.rtf.parser;
 
 
+import com.trick2live.parser.rtf.cache.ContentHash;
+import com.trick2live.parser.rtf.cache.ContentHasher;
+import com.trick2live.parser.rtf.cache.ExtractionCache;
 import com.trick2live.parser.rtf.common.Constants;
 import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
 import com.trick2live.parser.rtf.exception.UnsupportedMimeTypeException;
+import com.trick2live.parser.rtf.parser.rtf.CancellationToken;
+import com.trick2live.parser.rtf.parser.rtf.CumulativeMetrics;
+import com.trick2live.parser.rtf.parser.rtf.ExtractionLimits;
+import com.trick2live.parser.rtf.parser.rtf.ExtractionTracer;
+import com.trick2live.parser.rtf.parser.rtf.HeaderCache;
+import com.trick2live.parser.rtf.parser.rtf.MetricsListener;
+import com.trick2live.parser.rtf.parser.rtf.ParseDiagnostic;
+import com.trick2live.parser.rtf.parser.rtf.ProgressListener;
 import com.trick2live.parser.rtf.parser.rtf.SpecificPlainTextExtractor;
 import com.trick2live.parser.rtf.parser.rtf.RTFPlainTextExtractor;
+import com.trick2live.parser.rtf.parser.rtf.SlowDocumentWatchdog;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * <p>
@@ -51,11 +66,219 @@ public class PlainTextExtractor {
      */
     protected String usedEncoding = null;
 
+    /*
+     * Whether RTF extraction runs lexing, parsing and writing on separate
+     * threads
+     */
+    protected boolean pipelined = false;
+
+    /*
+     * The maximum number of characters to extract, -1 for no limit
+     */
+    protected int maxLength = -1;
+
+    /*
+     * Bounds on the resources an extraction may use, null for none
+     */
+    protected ExtractionLimits limits = null;
+
+    /*
+     * Token to cancel extraction with, and listener for progress reports
+     */
+    protected CancellationToken cancellation = null;
+    protected ProgressListener progress = null;
+
+    /*
+     * Whether malformed input is tolerated rather than failing extraction
+     */
+    protected boolean lenient = false;
+
+    /*
+     * Errors recovered from during the last lenient extraction
+     */
+    protected List<ParseDiagnostic> diagnostics = Collections.emptyList();
+
+    /*
+     * Cache of extracted texts keyed by document content, null for none
+     */
+    protected ExtractionCache cache = null;
+
+    /*
+     * Cache of parsed font tables, stylesheets and color tables, null for
+     * none
+     */
+    protected HeaderCache headerCache = null;
+
+    /*
+     * Listener for the metrics of every parsed document, null for none
+     */
+    protected MetricsListener metricsListener = null;
+
+    /*
+     * Whether the metrics time lexing, decoding and writing, or only count
+     */
+    protected boolean metricsTimed = true;
+
+    /*
+     * Tracer for the phases of RTF extractions, null for none
+     */
+    protected ExtractionTracer tracer = null;
+
+    /*
+     * Watchdog for slow RTF documents, null for none
+     */
+    protected SlowDocumentWatchdog watchdog = null;
+
+    /*
+     * The largest document read into memory, the largest array size every
+     * VM allows
+     */
+    private static final int MAX_DOCUMENT_SIZE = Integer.MAX_VALUE - 8;
+
     /**
      * Constructs new PlainTextExtractor instance
      */
     public PlainTextExtractor() {}
 
+    /**
+     * Sets whether extraction runs lexing, parsing and output writing as
+     * separate pipeline stages on their own threads. Worth enabling for
+     * single large documents on multi-core machines.
+     *
+     * @param pipelined <code>true</code> to run the stages concurrently
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Sets the maximum number of characters to extract. Extraction stops
+     * as soon as that much text has been produced, without reading the rest
+     * of the document, which makes short previews of large documents cheap.
+     *
+     * @param maxLength the number of characters, or <code>-1</code> to
+     * extract the whole text
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Sets bounds on the input size, group depth, number of tokens and
+     * time of each extraction. An extraction that exceeds one fails with
+     * an <code>ExtractionLimitException</code>.
+     *
+     * @param limits the limits, or <code>null</code> for none
+     */
+    public void setLimits(ExtractionLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Sets the token through which another thread can stop a running
+     * extraction, e.g. when a request times out or the user leaves the
+     * screen. A cancelled extraction fails with an
+     * <code>ExtractionCancelledException</code>.
+     *
+     * @param cancellation the token, or <code>null</code>
+     */
+    public void setCancellationToken(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Sets the listener that is told periodically how much of the input
+     * has been consumed.
+     *
+     * @param progress the listener, or <code>null</code>
+     */
+    public void setProgressListener(ProgressListener progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Sets whether slightly malformed documents are tolerated. In lenient
+     * mode the extractor recovers from errors in the document and goes on
+     * extracting instead of failing; the errors can be inspected with
+     * <code>getDiagnostics</code> afterwards.
+     *
+     * @param lenient <code>true</code> to tolerate malformed input
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * Sets the cache to look extracted texts up in. With a cache, each
+     * document is read into memory and hashed before it is extracted; if
+     * its text is cached, it is not parsed at all. Only complete texts are
+     * cached, but previews (see <code>setMaxLength</code>) are served from
+     * the cache too. Lenient extractions that recovered from errors are
+     * not cached.
+     *
+     * @param cache the cache, or <code>null</code> for none
+     */
+    public void setCache(ExtractionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the cache of parsed font tables, stylesheets and color tables.
+     * Documents generated from the same template usually share these
+     * tables byte for byte; with a cache, they are parsed only once. A
+     * <code>HeaderCache</code> may be shared by all extractors.
+     *
+     * @param headerCache the cache, or <code>null</code> for none
+     */
+    public void setHeaderCache(HeaderCache headerCache) {
+        this.headerCache = headerCache;
+    }
+
+    /**
+     * Sets the listener told how much input, tokens, groups and time every
+     * RTF document took. Documents served from the text cache are not
+     * parsed and so not reported. A {@link CumulativeMetrics} may be
+     * shared by all extractors.
+     *
+     * @param metricsListener the listener, or <code>null</code> for none
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Sets whether the metrics time lexing, decoding and writing, which
+     * reads the clock around every token and costs a few percent of parsing
+     * time, or only count tokens, groups and bytes. Timed by default.
+     *
+     * @param metricsTimed <code>false</code> to only count
+     */
+    public void setMetricsTimed(boolean metricsTimed) {
+        this.metricsTimed = metricsTimed;
+    }
+
+    /**
+     * Sets the tracer told when each RTF extraction, and the phases within
+     * it, start and end.
+     *
+     * @param tracer the tracer, or <code>null</code> for none
+     */
+    public void setTracer(ExtractionTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Sets the watchdog that reports RTF documents which take too long or
+     * allocate too much to extract. Documents are then read into memory
+     * before they are extracted. A watchdog may be shared by all
+     * extractors.
+     *
+     * @param watchdog the watchdog, or <code>null</code> for none
+     */
+    public void setWatchdog(SlowDocumentWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
     /**
      * Extracts a plain text from a formatted document to a given writer.
      *
@@ -84,12 +307,158 @@ public class PlainTextExtractor {
             throw new IllegalArgumentException("mimeType parameter is null");
         }
         if (mimeType.equals("application/rtf")) {
-            extractor = new RTFPlainTextExtractor();
+            extractor = createRTFExtractor();
         } else {
             throw new UnsupportedMimeTypeException("This mimeType is not supported: " + mimeType);
         }
+        if (cache != null) {
+            extractCached(extractor, input, output, encoding);
+            return;
+        }
+        if (watchdog != null && extractor instanceof RTFPlainTextExtractor) {
+            extractWatched((RTFPlainTextExtractor) extractor, input, output);
+            return;
+        }
         extractor.extract(input, output, encoding);
         usedEncoding = extractor.getUsedEncoding();
+        if (extractor instanceof RTFPlainTextExtractor) {
+            diagnostics = ((RTFPlainTextExtractor) extractor).getDiagnostics();
+        }
+    }
+
+    /**
+     * Reads the document into memory and extracts it under the watchdog.
+     */
+    private void extractWatched(RTFPlainTextExtractor extractor, InputStream input,
+                                Writer output)
+            throws PlainTextExtractorException {
+        Document document = readFully(input, null);
+        watchdog.extract(extractor, document.data, document.size, output);
+        usedEncoding = extractor.getUsedEncoding();
+        diagnostics = extractor.getDiagnostics();
+    }
+
+    /**
+     * The first <code>size</code> bytes of <code>data</code> hold a document
+     * read into memory.
+     */
+    private static final class Document {
+        final byte[] data;
+        final int size;
+
+        Document(byte[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Reads <code>input</code> into memory, adding each byte read to
+     * <code>hasher</code> unless it is <code>null</code>. Reading stops
+     * early once the document is over the input limit, since the extractor
+     * is going to fail on it anyway.
+     *
+     * @throws PlainTextExtractorException if reading fails, or the document
+     * is too large for an array
+     */
+    private Document readFully(InputStream input, ContentHasher hasher)
+            throws PlainTextExtractorException {
+        long maxBytes = limits == null ? -1 : limits.getMaxInputBytes();
+        byte[] data = new byte[8192];
+        int size = 0;
+        try {
+            for (int n; (n = input.read(data, size, data.length - size)) != -1; ) {
+                if (hasher != null) {
+                    hasher.update(data, size, n);
+                }
+                size += n;
+                if (maxBytes >= 0 && size > maxBytes) {
+                    break;
+                }
+                if (size == data.length) {
+                    if (size == MAX_DOCUMENT_SIZE) {
+                        if (input.read() == -1) {
+                            break;
+                        }
+                        throw new PlainTextExtractorException("document is larger than "
+                                + MAX_DOCUMENT_SIZE + " bytes");
+                    }
+                    byte[] grown = new byte[(int) Math.min(size * 2L, MAX_DOCUMENT_SIZE)];
+                    System.arraycopy(data, 0, grown, 0, size);
+                    data = grown;
+                }
+            }
+        } catch (IOException e) {
+            throw new PlainTextExtractorException(e);
+        }
+        return new Document(data, size);
+    }
+
+    /**
+     * Extracts a document held in memory, under the watchdog if there is
+     * one.
+     */
+    private void extractBytes(SpecificPlainTextExtractor extractor, byte[] data,
+                              int size, Writer output, String encoding)
+            throws PlainTextExtractorException {
+        if (watchdog != null && extractor instanceof RTFPlainTextExtractor) {
+            watchdog.extract((RTFPlainTextExtractor) extractor, data, size, output);
+        } else {
+            extractor.extract(new ByteArrayInputStream(data, 0, size), output, encoding);
+        }
+    }
+
+    /**
+     * Reads the document into memory, hashing it as it is read, and looks
+     * its text up in the cache before extracting it.
+     */
+    private void extractCached(SpecificPlainTextExtractor extractor,
+                               InputStream input, Writer output,
+                               String encoding)
+            throws PlainTextExtractorException {
+        // documents extracted leniently may yield text where a strict
+        // extraction fails, so they are cached under a different seed
+        ContentHasher hasher = new ContentHasher(lenient ? 1 : 0);
+        Document document = readFully(input, hasher);
+        byte[] data = document.data;
+        int size = document.size;
+        if (limits != null && limits.getMaxInputBytes() >= 0
+                && size > limits.getMaxInputBytes()) {
+            // too large anyway: let the extractor fail on it
+            extractBytes(extractor, data, size, output, encoding);
+            return;
+        }
+        try {
+            ContentHash key = hasher.finish();
+            String text = cache.get(key);
+            if (text == null) {
+                StringWriter buffer = new StringWriter();
+                extractBytes(extractor, data, size, buffer, encoding);
+                text = buffer.toString();
+                usedEncoding = extractor.getUsedEncoding();
+                diagnostics = Collections.emptyList();
+                if (extractor instanceof RTFPlainTextExtractor) {
+                    diagnostics = ((RTFPlainTextExtractor) extractor).getDiagnostics();
+                }
+                if (diagnostics.isEmpty()
+                        && (maxLength < 0 || text.length() < maxLength)) {
+                    cache.put(key, text);
+                }
+            } else {
+                usedEncoding = extractor.getUsedEncoding();
+                diagnostics = Collections.emptyList();
+                if (maxLength >= 0 && text.length() > maxLength) {
+                    int end = maxLength;
+                    if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+                        end--;
+                    }
+                    text = text.substring(0, end);
+                }
+            }
+            output.write(text);
+        } catch (IOException e) {
+            throw new PlainTextExtractorException(e);
+        }
     }
 
     /**
@@ -272,6 +641,38 @@ public class PlainTextExtractor {
         return usedEncoding;
     }
 
+    /**
+     * Returns the errors in the document that the last extraction recovered
+     * from. Only lenient extractions recover from errors, so the list is
+     * empty otherwise.
+     *
+     * @return the diagnostics, in document order
+     */
+    public List<ParseDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Creates the RTF extractor and applies the options set on this
+     * instance.
+     *
+     * @return a configured extractor
+     */
+    protected RTFPlainTextExtractor createRTFExtractor() {
+        RTFPlainTextExtractor extractor = new RTFPlainTextExtractor();
+        extractor.setPipelined(pipelined);
+        extractor.setMaxLength(maxLength);
+        extractor.setLimits(limits);
+        extractor.setCancellationToken(cancellation);
+        extractor.setProgressListener(progress);
+        extractor.setLenient(lenient);
+        extractor.setHeaderCache(headerCache);
+        extractor.setMetricsListener(metricsListener);
+        extractor.setMetricsTimed(metricsTimed);
+        extractor.setTracer(tracer);
+        return extractor;
+    }
+
     /**
      * Converts a <code>String</code> to an <code>InputStream</code> using given
      * <code>encoding</code>. If the <code>encoding</code> is <code>null</code>,
@@ -0,0 +1,78 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Output stage of a pipelined extraction: text chunks are queued through a
+ * single-producer/single-consumer ring and written to the target writer on
+ * a separate thread. Write failures are reported by {@link #close()}.
+ */
+class AsyncWriter implements Runnable {
+
+    private static final int RING_CAPACITY = 1024;
+    private static final String END_OF_TEXT = new String();
+
+    private final Writer target;
+    private final SpscRing<String> ring = new SpscRing<String>(RING_CAPACITY);
+    private final Thread writerThread;
+
+    private volatile IOException failure;
+
+    AsyncWriter(Writer target) {
+        this.target = target;
+        writerThread = new Thread(this, "rtf-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void run() {
+        String s;
+        while ((s = ring.take()) != null && s != END_OF_TEXT) {
+            if (failure == null) {
+                try {
+                    target.write(s);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a chunk of text for writing. Never blocks on the target writer.
+     *
+     * @param str the text
+     */
+    void write(String str) {
+        if (str.length() > 0) {
+            ring.put(str);
+        }
+    }
+
+    /**
+     * Waits until every queued chunk has been written.
+     *
+     * @throws IOException if the target writer failed
+     */
+    void close() throws IOException {
+        ring.put(END_OF_TEXT);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            ring.close();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing extracted text");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the writer thread without waiting for queued text.
+     */
+    void abort() {
+        ring.close();
+    }
+}
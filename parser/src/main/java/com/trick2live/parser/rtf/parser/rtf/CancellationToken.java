@@ -0,0 +1,23 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Lets another thread stop a running extraction. The parser looks at the
+ * token before it starts and every few thousand tokens, so cancellation
+ * takes effect quickly but not instantly.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Requests the extraction to stop. It then fails with an
+     * <code>ExtractionCancelledException</code>.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
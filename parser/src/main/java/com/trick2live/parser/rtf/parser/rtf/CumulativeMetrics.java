@@ -0,0 +1,129 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link MetricsListener} that adds up the metrics of all documents, for
+ * monitoring a long-running extraction service. Meant to be shared by all
+ * the extractors of a process: the counters are striped, so extracting
+ * threads don't contend for them.
+ */
+public class CumulativeMetrics implements MetricsListener {
+
+    private static final int DOCUMENTS = 0;
+    private static final int FAILURES = 1;
+    private static final int BYTES_READ = 2;
+    private static final int TOKENS = 3;
+    private static final int GROUPS = 4;
+    private static final int TEXT_LENGTH = 5;
+    private static final int SKIPPED_BYTES = 6;
+    private static final int LEXING_NANOS = 7;
+    private static final int DECODING_NANOS = 8;
+    private static final int WRITING_NANOS = 9;
+    private static final int TOTAL_NANOS = 10;
+    // followed by one counter per token kind
+    private static final int TOKEN_KINDS = 11;
+
+    private final StripedCounters counters =
+            new StripedCounters(TOKEN_KINDS + ParseMetrics.TOKEN_KINDS);
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    public void documentParsed(ParseMetrics metrics) {
+        counters.add(DOCUMENTS, 1);
+        if (!metrics.isCompleted()) {
+            counters.add(FAILURES, 1);
+        }
+        counters.add(BYTES_READ, metrics.bytesRead);
+        counters.add(TOKENS, metrics.tokens);
+        counters.add(GROUPS, metrics.groups);
+        counters.add(TEXT_LENGTH, metrics.textLength);
+        counters.add(SKIPPED_BYTES, metrics.skippedBytes);
+        counters.add(LEXING_NANOS, metrics.lexingNanos);
+        counters.add(DECODING_NANOS, metrics.decodingNanos);
+        counters.add(WRITING_NANOS, metrics.writingNanos);
+        counters.add(TOTAL_NANOS, metrics.totalNanos);
+        for (int kind = 0; kind < ParseMetrics.TOKEN_KINDS; kind++) {
+            counters.add(TOKEN_KINDS + kind, metrics.tokensByKind[kind]);
+        }
+        int depth = metrics.maxDepth;
+        for (int max = maxDepth.get(); depth > max; max = maxDepth.get()) {
+            if (maxDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents reported
+     */
+    public long getDocumentCount() {
+        return counters.sum(DOCUMENTS);
+    }
+
+    /**
+     * @return the number of documents that were not parsed to the end
+     */
+    public long getFailureCount() {
+        return counters.sum(FAILURES);
+    }
+
+    public long getBytesRead() {
+        return counters.sum(BYTES_READ);
+    }
+
+    public long getTokenCount() {
+        return counters.sum(TOKENS);
+    }
+
+    /**
+     * @param kind a token kind, one of the <code>RTFParserConstants</code>
+     * @return the number of tokens of that kind parsed
+     */
+    public long getTokenCount(int kind) {
+        return counters.sum(TOKEN_KINDS + kind);
+    }
+
+    public long getGroupCount() {
+        return counters.sum(GROUPS);
+    }
+
+    /**
+     * @return how deep groups nested in the deepest document
+     */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getTextLength() {
+        return counters.sum(TEXT_LENGTH);
+    }
+
+    public long getSkippedBytes() {
+        return counters.sum(SKIPPED_BYTES);
+    }
+
+    public long getLexingNanos() {
+        return counters.sum(LEXING_NANOS);
+    }
+
+    public long getDecodingNanos() {
+        return counters.sum(DECODING_NANOS);
+    }
+
+    public long getWritingNanos() {
+        return counters.sum(WRITING_NANOS);
+    }
+
+    public long getTotalNanos() {
+        return counters.sum(TOTAL_NANOS);
+    }
+
+    /**
+     * Sets all counters to zero. Documents reported meanwhile may be
+     * partly lost.
+     */
+    public void reset() {
+        counters.reset();
+        maxDepth.set(0);
+    }
+}
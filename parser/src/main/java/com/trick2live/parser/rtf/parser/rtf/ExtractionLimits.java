@@ -0,0 +1,105 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Bounds on the work an extraction may do, so that broken or hostile
+ * documents fail fast instead of pinning a thread or exhausting memory.
+ * Every limit is off (<code>NO_LIMIT</code>) unless set.
+ *
+ * <p>The limits are checked with counters: input bytes as they are read,
+ * group depth as groups open, and tokens as the parser consumes them. The
+ * clock is only read every <code>TIME_CHECK_INTERVAL</code> tokens, so the
+ * time limit may be overrun by the time it takes to parse that many
+ * tokens.</p>
+ *
+ * @see com.trick2live.parser.rtf.exception.ExtractionLimitException
+ */
+public class ExtractionLimits {
+
+    /** the limit on the number of bytes read from the input */
+    public static final int MAX_INPUT_BYTES = 0;
+    /** the limit on the nesting depth of groups */
+    public static final int MAX_GROUP_DEPTH = 1;
+    /** the limit on the number of tokens parsed */
+    public static final int MAX_TOKENS = 2;
+    /** the limit on the time spent extracting */
+    public static final int MAX_TIME = 3;
+
+    /** the value of a limit that is not set */
+    public static final long NO_LIMIT = -1;
+
+    /** how many tokens are parsed between two readings of the clock */
+    public static final int TIME_CHECK_INTERVAL = 4096;
+
+    private long maxInputBytes = NO_LIMIT;
+    private int maxGroupDepth = (int) NO_LIMIT;
+    private long maxTokens = NO_LIMIT;
+    private long maxTimeMillis = NO_LIMIT;
+
+    public long getMaxInputBytes() {
+        return maxInputBytes;
+    }
+
+    /**
+     * @param maxInputBytes the number of bytes that may be read from the
+     * input, or <code>NO_LIMIT</code>
+     */
+    public void setMaxInputBytes(long maxInputBytes) {
+        this.maxInputBytes = maxInputBytes;
+    }
+
+    public int getMaxGroupDepth() {
+        return maxGroupDepth;
+    }
+
+    /**
+     * @param maxGroupDepth how deep groups may nest, or <code>NO_LIMIT</code>
+     */
+    public void setMaxGroupDepth(int maxGroupDepth) {
+        this.maxGroupDepth = maxGroupDepth;
+    }
+
+    public long getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * @param maxTokens the number of tokens that may be parsed, or
+     * <code>NO_LIMIT</code>
+     */
+    public void setMaxTokens(long maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    public long getMaxTimeMillis() {
+        return maxTimeMillis;
+    }
+
+    /**
+     * @param maxTimeMillis how long an extraction may take, in
+     * milliseconds, or <code>NO_LIMIT</code>
+     */
+    public void setMaxTimeMillis(long maxTimeMillis) {
+        this.maxTimeMillis = maxTimeMillis;
+    }
+
+    /**
+     * Returns a human-readable name of a limit.
+     *
+     * @param limit one of the limit constants of this class
+     * @return the name
+     */
+    public static String getLimitName(int limit) {
+        switch (limit) {
+            case MAX_INPUT_BYTES:
+                return "maximum input size";
+            case MAX_GROUP_DEPTH:
+                return "maximum group depth";
+            case MAX_TOKENS:
+                return "maximum number of tokens";
+            case MAX_TIME:
+                return "maximum extraction time";
+            default:
+                return "unknown limit";
+        }
+    }
+}
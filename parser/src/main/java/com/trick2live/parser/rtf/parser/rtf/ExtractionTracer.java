@@ -0,0 +1,43 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Receives the start and end of the phases of an extraction, for tracing
+ * them in an external recorder such as JDK Flight Recorder. Phases nest:
+ * an extraction contains the parse of the document, which contains the
+ * header tables and the skipped destinations.
+ *
+ * <p>Called on the extracting thread. An implementation that is not
+ * recording returns <code>null</code> from <code>begin</code>, and the
+ * phase then costs nothing more.</p>
+ */
+public interface ExtractionTracer {
+
+    /** an extraction by {@link RTFPlainTextExtractor}, writing included */
+    public static final int EXTRACTION = 0;
+    /** the parse of a document by {@link RTFParser} */
+    public static final int DOCUMENT = 1;
+    /** a table in the document header: fonts, styles, colors and such */
+    public static final int TABLE = 2;
+    /** a destination whose text is not extracted, like a picture */
+    public static final int DESTINATION = 3;
+
+    /**
+     * Reports the start of a phase.
+     *
+     * @param phase one of the constants of this interface
+     * @param name the control word that starts a table or destination, like
+     * <code>\fonttbl</code>; <code>null</code> for the other phases
+     * @return the state to pass to <code>end</code>, or <code>null</code>
+     * if the phase is not traced
+     */
+    public Object begin(int phase, String name);
+
+    /**
+     * Reports the end of a phase, whether or not it succeeded.
+     *
+     * @param span what <code>begin</code> returned, never <code>null</code>
+     * @param bytes the number of input bytes the phase covered
+     * @param tokens the number of tokens parsed in the phase
+     */
+    public void end(Object span, long bytes, long tokens);
+}
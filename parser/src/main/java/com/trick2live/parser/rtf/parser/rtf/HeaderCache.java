@@ -0,0 +1,137 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.cache.ContentHash;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers what the parser learnt from the <code>\fonttbl</code>,
+ * <code>\stylesheet</code> and <code>\colortbl</code> groups of documents,
+ * keyed by a hash of the raw group text. Documents made from the same
+ * template carry identical tables, often tens of kilobytes of them; when a
+ * parser meets a table it has seen before, it restores the font encodings
+ * and style names from here and skips the group without lexing it.
+ *
+ * <p>One cache can be shared by any number of parsers and threads. It holds
+ * at most <code>maxEntries</code> tables, evicting the least recently used
+ * ones.</p>
+ *
+ * @see RTFParser#setHeaderCache(HeaderCache)
+ */
+public class HeaderCache {
+
+    /** the default maximum number of tables kept */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    /** the default length, in characters, of the largest table cached */
+    public static final int DEFAULT_MAX_TABLE_LENGTH = 1 << 20;
+
+    private final Map<ContentHash, Snapshot> tables;
+    private final int maxTableLength;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache with the default bounds.
+     */
+    public HeaderCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_TABLE_LENGTH);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the maximum number of tables kept
+     * @param maxTableLength tables longer than this many characters are
+     * parsed as usual and not cached; a table must be held in memory while
+     * it is hashed
+     */
+    public HeaderCache(final int maxEntries, int maxTableLength) {
+        if (maxEntries <= 0 || maxTableLength <= 0) {
+            throw new IllegalArgumentException("bounds must be positive");
+        }
+        this.maxTableLength = maxTableLength;
+        tables = new LinkedHashMap<ContentHash, Snapshot>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<ContentHash, Snapshot> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    Snapshot get(ContentHash key) {
+        Snapshot snapshot;
+        synchronized (tables) {
+            snapshot = tables.get(key);
+        }
+        if (snapshot == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return snapshot;
+    }
+
+    void put(ContentHash key, Snapshot snapshot) {
+        synchronized (tables) {
+            tables.put(key, snapshot);
+        }
+    }
+
+    int getMaxTableLength() {
+        return maxTableLength;
+    }
+
+    /** @return the number of tables cached */
+    public int size() {
+        synchronized (tables) {
+            return tables.size();
+        }
+    }
+
+    /**
+     * Removes all tables. The statistics are kept.
+     */
+    public void clear() {
+        synchronized (tables) {
+            tables.clear();
+        }
+    }
+
+    /** @return the number of tables restored from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of tables that had to be parsed */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The parser state a table leaves behind: the font encodings and style
+     * names it declared, the last font and style numbers and the document
+     * encoding. Never modified once created.
+     */
+    static final class Snapshot {
+        final int[] fonts;
+        final String[] fontEncodings;
+        final int[] styles;
+        final String[] styleNames;
+        final int currentFont;
+        final int currentStyle;
+        final String documentEncoding;
+
+        Snapshot(int[] fonts, String[] fontEncodings, int[] styles,
+                 String[] styleNames, int currentFont, int currentStyle,
+                 String documentEncoding) {
+            this.fonts = fonts;
+            this.fontEncodings = fontEncodings;
+            this.styles = styles;
+            this.styleNames = styleNames;
+            this.currentFont = currentFont;
+            this.currentStyle = currentStyle;
+            this.documentEncoding = documentEncoding;
+        }
+    }
+}
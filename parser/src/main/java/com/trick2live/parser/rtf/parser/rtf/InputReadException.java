@@ -0,0 +1,23 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the token manager when reading the input failed. The stream
+ * reports read errors without exceptions, like the end of input; the
+ * token manager turns them into this exception once it reaches the end of
+ * what could be read, so a truncated document is never mistaken for a
+ * complete one.
+ */
+public class InputReadException extends RuntimeException {
+    public InputReadException(IOException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * @return the error the input failed with
+     */
+    public IOException getCause() {
+        return (IOException) super.getCause();
+    }
+}
@@ -0,0 +1,67 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the underlying stream and aborts parsing once
+ * more than the allowed number has been read.
+ */
+class LimitedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long count;
+
+    /**
+     * @param in the stream to read from
+     * @param maxBytes the allowed number of bytes, or
+     * <code>ExtractionLimits.NO_LIMIT</code> to only count them
+     */
+    LimitedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes < 0 ? Long.MAX_VALUE : maxBytes;
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    long getCount() {
+        return count;
+    }
+
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            counted(1);
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            counted(n);
+        }
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        if (skipped > 0) {
+            counted(skipped);
+        }
+        return skipped;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void counted(long n) {
+        count += n;
+        if (count > maxBytes) {
+            throw ParseAbortedException.limitExceeded(ExtractionLimits.MAX_INPUT_BYTES);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Receives the {@link ParseMetrics} of every document extracted. Called
+ * on the extracting thread once the document is done, whether or not the
+ * extraction succeeded, so implementations should return quickly; an
+ * extractor used from several threads calls it concurrently.
+ *
+ * @see CumulativeMetrics
+ */
+public interface MetricsListener {
+
+    /**
+     * Reports on a document.
+     *
+     * @param metrics the metrics of the document; not valid after the call
+     * returns, so copy what is needed
+     */
+    public void documentParsed(ParseMetrics metrics);
+}
@@ -0,0 +1,79 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Thrown from a {@link RTFParserDelegate} callback to stop the parser
+ * immediately, without reading the rest of the input. It is a control
+ * signal rather than an error: the instances are preallocated and carry no
+ * stack trace, so aborting costs nothing, and the extractor that threw it
+ * catches it again.
+ */
+public class ParseAbortedException extends RuntimeException {
+
+    /** the requested amount of text has been extracted */
+    public static final int OUTPUT_LIMIT_REACHED = 0;
+    /** one of the {@link ExtractionLimits} was exceeded */
+    public static final int LIMIT_EXCEEDED = 1;
+    /** the extraction was cancelled through its {@link CancellationToken} */
+    public static final int CANCELLED = 2;
+
+    static final ParseAbortedException OUTPUT_LIMIT =
+            new ParseAbortedException(OUTPUT_LIMIT_REACHED, -1, "output limit reached");
+
+    static final ParseAbortedException CANCEL =
+            new ParseAbortedException(CANCELLED, -1, "extraction cancelled");
+
+    private static final ParseAbortedException[] LIMITS = {
+            new ParseAbortedException(ExtractionLimits.MAX_INPUT_BYTES),
+            new ParseAbortedException(ExtractionLimits.MAX_GROUP_DEPTH),
+            new ParseAbortedException(ExtractionLimits.MAX_TOKENS),
+            new ParseAbortedException(ExtractionLimits.MAX_TIME)
+    };
+
+    private final int reason;
+    private final int limit;
+
+    private ParseAbortedException(int reason, int limit, String message) {
+        super(message);
+        this.reason = reason;
+        this.limit = limit;
+    }
+
+    private ParseAbortedException(int limit) {
+        this(LIMIT_EXCEEDED, limit, ExtractionLimits.getLimitName(limit) + " exceeded");
+    }
+
+    /**
+     * Returns the signal for an exceeded limit.
+     *
+     * @param limit one of the <code>ExtractionLimits</code> constants
+     * @return the shared instance for that limit
+     */
+    static ParseAbortedException limitExceeded(int limit) {
+        return LIMITS[limit];
+    }
+
+    /**
+     * @return why parsing was aborted, one of the constants of this class
+     */
+    public int getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the exceeded limit, one of the <code>ExtractionLimits</code>
+     * constants, if the reason is <code>LIMIT_EXCEEDED</code>;
+     * <code>-1</code> otherwise
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Does nothing: a shared signal has no meaningful stack trace.
+     *
+     * @return this exception
+     */
+    public Throwable fillInStackTrace() {
+        return this;
+    }
+}
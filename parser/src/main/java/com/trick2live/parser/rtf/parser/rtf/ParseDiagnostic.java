@@ -0,0 +1,59 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * A syntax error the parser recovered from. Recorded instead of failing
+ * when error recovery is on; see {@link RTFParser#setErrorRecovery}.
+ */
+public final class ParseDiagnostic {
+
+    /** a token that is not allowed where it was found; it was skipped */
+    public static final int UNEXPECTED_TOKEN = 0;
+    /** a group still open at the end of input; it was closed implicitly */
+    public static final int UNCLOSED_GROUP = 1;
+    /** the <code>{\rtfN\charset</code> header is incomplete */
+    public static final int BAD_HEADER = 2;
+
+    private final int type;
+    private final int kind;
+    private final long offset;
+    private final int line;
+    private final int column;
+
+    ParseDiagnostic(int type, Token token) {
+        this.type = type;
+        this.kind = token.kind;
+        this.offset = token.beginOffset;
+        this.line = token.beginLine;
+        this.column = token.beginColumn;
+    }
+
+    /** @return what went wrong, one of the constants of this class */
+    public int getType() {
+        return type;
+    }
+
+    /** @return the kind of the offending token, see {@link RTFParserConstants} */
+    public int getKind() {
+        return kind;
+    }
+
+    /** @return the offset of the offending token, in characters */
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String toString() {
+        String what = type == UNEXPECTED_TOKEN ? "unexpected "
+                : type == UNCLOSED_GROUP ? "unclosed group before " : "bad header, found ";
+        return what + RTFParserConstants.tokenImage[kind] + " (line " + line
+                + ", column " + column + ", offset " + offset + ")";
+    }
+}
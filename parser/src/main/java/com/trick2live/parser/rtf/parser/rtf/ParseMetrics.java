@@ -0,0 +1,163 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * What went into parsing one document: how much was read, lexed and
+ * extracted, and where the time went. Filled in while parsing and handed
+ * to a {@link MetricsListener} when the document is done.
+ *
+ * <p>The input, token, group and lexing and decoding figures are counted
+ * by {@link RTFParser}; the text length, the skipped destinations and the
+ * writing time by {@link RTFPlainTextExtractor}. The time not spent
+ * lexing, decoding or writing is spent in the parser itself.</p>
+ *
+ * <p>Timing reads the clock around every token, which costs a few percent
+ * of parsing time; the counters are free. Metrics created untimed, see
+ * {@link RTFPlainTextExtractor#setMetricsTimed}, only count: their lexing,
+ * decoding and writing times stay 0, and only the total time is
+ * measured. Nothing is measured unless a listener is set.</p>
+ */
+public class ParseMetrics {
+
+    /** the number of token kinds, the bound of <code>getTokenCount(int)</code> */
+    public static final int TOKEN_KINDS = RTFParserConstants.tokenImage.length;
+
+    final boolean timed;
+    long bytesRead;
+    long tokens;
+    final long[] tokensByKind = new long[TOKEN_KINDS];
+    long groups;
+    int maxDepth;
+    long textLength;
+    long skippedBytes;
+    long lexingNanos;
+    long decodingNanos;
+    long writingNanos;
+    long totalNanos;
+    boolean completed;
+
+    /**
+     * Creates metrics that time lexing, decoding and writing.
+     */
+    public ParseMetrics() {
+        this(true);
+    }
+
+    /**
+     * @param timed whether to time lexing, decoding and writing, or only
+     * count
+     */
+    public ParseMetrics(boolean timed) {
+        this.timed = timed;
+    }
+
+    /**
+     * @return whether lexing, decoding and writing were timed
+     */
+    public boolean isTimed() {
+        return timed;
+    }
+
+    /**
+     * @return the number of bytes read from the input
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of tokens parsed
+     */
+    public long getTokenCount() {
+        return tokens;
+    }
+
+    /**
+     * @param kind a token kind, one of the <code>RTFParserConstants</code>
+     * @return the number of tokens of that kind parsed
+     */
+    public long getTokenCount(int kind) {
+        return tokensByKind[kind];
+    }
+
+    /**
+     * @return the number of groups opened
+     */
+    public long getGroupCount() {
+        return groups;
+    }
+
+    /**
+     * @return how deep groups nested
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the number of characters of text extracted
+     */
+    public long getTextLength() {
+        return textLength;
+    }
+
+    /**
+     * @return the number of bytes in ignorable destinations, pictures and
+     * objects, whose text is not extracted
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * @return the time spent waiting for the lexer, in nanoseconds
+     */
+    public long getLexingNanos() {
+        return lexingNanos;
+    }
+
+    /**
+     * @return the time spent decoding bytes into characters, in nanoseconds
+     */
+    public long getDecodingNanos() {
+        return decodingNanos;
+    }
+
+    /**
+     * @return the time spent writing the text, in nanoseconds
+     */
+    public long getWritingNanos() {
+        return writingNanos;
+    }
+
+    /**
+     * @return the time spent on the document as a whole, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return <code>true</code> if the document was parsed to the end, or
+     * up to the requested output length; <code>false</code> if parsing
+     * failed or was aborted
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    void groupOpened(int depth) {
+        groups++;
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    public String toString() {
+        return bytesRead + " bytes, " + tokens + " tokens, " + groups
+                + " groups (depth " + maxDepth + "), " + textLength + " chars, "
+                + skippedBytes + " bytes skipped; " + totalNanos / 1000 + " us: lexing "
+                + lexingNanos / 1000 + ", decoding " + decodingNanos / 1000
+                + ", writing " + writingNanos / 1000
+                + (completed ? "" : "; not completed");
+    }
+}
@@ -0,0 +1,165 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * A token source that runs the real lexer on its own thread. Tokens are
+ * produced in batches into a single-producer/single-consumer ring buffer
+ * and handed to the parser thread, so reading and lexing the input
+ * overlaps with parsing and decoding.
+ *
+ * <p>Call {@link #start()} before handing out tokens, and {@link #close()}
+ * once parsing is finished (or abandoned) so the lexer thread does not
+ * wait forever for room in the ring.</p>
+ */
+public class PipelinedTokenManager implements TokenSource, Runnable {
+
+    /** the number of tokens handed over in one batch */
+    static final int BATCH_SIZE = 256;
+    /** the number of batches the lexer may run ahead of the parser */
+    static final int RING_CAPACITY = 16;
+
+    private static final Token[] END_OF_BATCHES = new Token[0];
+
+    private final RTFParserTokenManager source;
+    private final SpscRing<Token[]> ring = new SpscRing<Token[]>(RING_CAPACITY);
+    private volatile Thread lexerThread;
+
+    // set by the lexer thread before it publishes END_OF_BATCHES
+    private volatile Throwable failure;
+    // input position of the lexer thread after its last batch
+    private volatile long lexedPosition;
+
+    // consumer-side state, touched by the parser thread only
+    private Token[] batch = END_OF_BATCHES;
+    private int batchPos;
+    private Token eof;
+
+    /**
+     * @param stream the character stream to tokenize
+     */
+    public PipelinedTokenManager(SimpleCharStream stream) {
+        this(stream, false);
+    }
+
+    /**
+     * @param stream the character stream to tokenize
+     * @param lenient whether the lexer recovers from lexical errors, see
+     * {@link RTFParserTokenManager#setLenient(boolean)}
+     */
+    public PipelinedTokenManager(SimpleCharStream stream, boolean lenient) {
+        source = new RTFParserTokenManager(stream);
+        source.setLenient(lenient);
+    }
+
+    /**
+     * Starts lexing on a new daemon thread.
+     *
+     * @throws IllegalStateException if already started
+     */
+    public synchronized void start() {
+        if (lexerThread != null) {
+            throw new IllegalStateException("already started");
+        }
+        lexerThread = new Thread(this, "rtf-lexer");
+        lexerThread.setDaemon(true);
+        lexerThread.start();
+    }
+
+    /**
+     * Lexer thread body: fills batches until end of input, a lexical error,
+     * or {@link #close()}.
+     */
+    public void run() {
+        Token[] out = new Token[BATCH_SIZE];
+        int n = 0;
+        try {
+            for (; ;) {
+                Token t = source.getNextToken();
+                out[n++] = t;
+                if (t.kind == RTFParserConstants.EOF) {
+                    break;
+                }
+                if (n == BATCH_SIZE) {
+                    lexedPosition = source.getInputPosition();
+                    if (!ring.put(out)) {
+                        return;
+                    }
+                    out = new Token[BATCH_SIZE];
+                    n = 0;
+                }
+            }
+            lexedPosition = source.getInputPosition();
+            if (ring.put(out)) {
+                ring.put(END_OF_BATCHES);
+            }
+        } catch (Throwable t) {
+            failure = t;
+            if (n > 0 && !ring.put(out)) {
+                return;
+            }
+            ring.put(END_OF_BATCHES);
+        }
+    }
+
+    /**
+     * Get the next Token produced by the lexer thread.
+     * @return Token next token from given input
+     * @throws IllegalStateException if the lexer thread was not started,
+     * or was stopped before the end of input
+     */
+    public Token getNextToken() {
+        if (batchPos == batch.length || batch[batchPos] == null) {
+            if (eof != null) {
+                return eof;
+            }
+            if (lexerThread == null) {
+                throw new IllegalStateException("token pipeline not started");
+            }
+            batch = ring.take();
+            batchPos = 0;
+            if (batch == null || batch.length == 0) {
+                batch = END_OF_BATCHES;
+                rethrowFailure();
+                throw new IllegalStateException("token pipeline closed");
+            }
+        }
+        Token t = batch[batchPos++];
+        if (t.kind == RTFParserConstants.EOF) {
+            eof = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns how far the lexer thread has read the input, which is ahead
+     * of the tokens handed out so far by up to the capacity of the ring.
+     *
+     * @return the number of characters consumed from the input stream
+     */
+    public long getInputPosition() {
+        return lexedPosition;
+    }
+
+    public boolean isLenient() {
+        return source.isLenient();
+    }
+
+    /**
+     * Stops the lexer thread. Safe to call more than once.
+     */
+    public void close() {
+        ring.close();
+    }
+
+    private void rethrowFailure() {
+        Throwable t = failure;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Receives progress reports during an extraction. Called on the parsing
+ * thread every few thousand tokens, so implementations should return
+ * quickly.
+ */
+public interface ProgressListener {
+
+    /**
+     * Reports how much of the input has been consumed.
+     *
+     * @param position the number of characters read from the input so far;
+     * for RTF, which is 7-bit text, the same as the number of bytes
+     */
+    public void progress(long position);
+}
@@ -0,0 +1,134 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable document metadata read from the header of an RTF document:
+ * the <code>\info</code> group, the font table and the charset
+ * declarations.
+ *
+ * @see RTFPlainTextExtractor#scanMetadata(java.io.InputStream)
+ */
+public final class RTFMetadata {
+
+    /**
+     * A font declared in the <code>\fonttbl</code>.
+     */
+    public static final class Font {
+        private final int number;
+        private final int charset;
+        private final String name;
+
+        Font(int number, int charset, String name) {
+            this.number = number;
+            this.charset = charset;
+            this.name = name;
+        }
+
+        /** @return the font number referenced by <code>\fN</code> */
+        public int getNumber() {
+            return number;
+        }
+
+        /** @return the <code>\fcharsetN</code> value, <code>-1</code> if absent */
+        public int getCharset() {
+            return charset;
+        }
+
+        /** @return the font name */
+        public String getName() {
+            return name;
+        }
+
+        public String toString() {
+            return "\\f" + number + " " + name;
+        }
+    }
+
+    private final String title;
+    private final String subject;
+    private final String author;
+    private final String keywords;
+    private final String comment;
+    private final String company;
+    private final long creationTime;
+    private final long revisionTime;
+    private final int codepage;
+    private final String encoding;
+    private final List<Font> fonts;
+
+    RTFMetadata(String title, String subject, String author, String keywords,
+                String comment, String company, long creationTime,
+                long revisionTime, int codepage, String encoding,
+                List<Font> fonts) {
+        this.title = title;
+        this.subject = subject;
+        this.author = author;
+        this.keywords = keywords;
+        this.comment = comment;
+        this.company = company;
+        this.creationTime = creationTime;
+        this.revisionTime = revisionTime;
+        this.codepage = codepage;
+        this.encoding = encoding;
+        this.fonts = Collections.unmodifiableList(new ArrayList<Font>(fonts));
+    }
+
+    /** @return the <code>\title</code>, or <code>null</code> */
+    public String getTitle() {
+        return title;
+    }
+
+    /** @return the <code>\subject</code>, or <code>null</code> */
+    public String getSubject() {
+        return subject;
+    }
+
+    /** @return the <code>\author</code>, or <code>null</code> */
+    public String getAuthor() {
+        return author;
+    }
+
+    /** @return the <code>\keywords</code>, or <code>null</code> */
+    public String getKeywords() {
+        return keywords;
+    }
+
+    /** @return the <code>\doccomm</code>, or <code>null</code> */
+    public String getComment() {
+        return comment;
+    }
+
+    /** @return the <code>\company</code>, or <code>null</code> */
+    public String getCompany() {
+        return company;
+    }
+
+    /** @return the <code>\creatim</code> in local time, or <code>null</code> */
+    public Date getCreationTime() {
+        return creationTime == Long.MIN_VALUE ? null : new Date(creationTime);
+    }
+
+    /** @return the <code>\revtim</code> in local time, or <code>null</code> */
+    public Date getRevisionTime() {
+        return revisionTime == Long.MIN_VALUE ? null : new Date(revisionTime);
+    }
+
+    /** @return the <code>\ansicpgN</code> value, <code>-1</code> if absent */
+    public int getCodepage() {
+        return codepage;
+    }
+
+    /** @return the Java name of the document encoding */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /** @return the fonts of the font table, in declaration order */
+    public List<Font> getFonts() {
+        return fonts;
+    }
+}
@@ -0,0 +1,475 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Reads {@link RTFMetadata} from the header of an RTF document. Tokens are
+ * lexed into a small {@link TokenTape} and examined without running the
+ * parser; scanning stops at the first token that belongs to the document
+ * body, so only the header is ever read from the input.
+ */
+class RTFMetadataScanner implements RTFParserConstants {
+
+    // kept small: everything lexed past the start of the body is wasted
+    private static final int TAPE_CAPACITY = 128;
+
+    // what a group is, decided by its first token
+    private static final int D_PENDING = 0;  // first token not seen yet
+    private static final int D_BODY = 1;     // the root group
+    private static final int D_SKIP = 2;     // a header group we don't read
+    private static final int D_INFO = 3;
+    private static final int D_FIELD = 4;    // a text field of \info
+    private static final int D_TIME = 5;     // a date field of \info
+    private static final int D_FONTTBL = 6;
+    private static final int D_FONT = 7;
+    // returned by resolve() when the group starts the document body
+    private static final int D_STOP = -1;
+
+    private static final String[] FIELD_WORDS = {
+            "\\title", "\\subject", "\\author", "\\keywords", "\\doccomm", "\\company"
+    };
+    private static final String[] TIME_WORDS = {"\\creatim", "\\revtim"};
+    private static final String[] TIME_PART_WORDS = {
+            "\\yr", "\\mo", "\\dy", "\\hr", "\\min", "\\sec"
+    };
+    // header destinations that have no token kind of their own
+    private static final String[] HEADER_WORDS = {
+            "\\filetbl", "\\listoverridetable", "\\rsidtbl", "\\xmlnstbl",
+            "\\generator", "\\pgptbl", "\\latentstyles", "\\themedata"
+    };
+    private static final String[] BODY_WORDS = {"\\pard", "\\sectd"};
+
+    // per-group state, indexed by depth - 1
+    private int[] dest = new int[16];
+    private int[] arg = new int[16];
+    private int[] uc = new int[16];
+    private int depth;
+
+    private final String[] fields = new String[FIELD_WORDS.length];
+    private final long[] times = {Long.MIN_VALUE, Long.MIN_VALUE};
+    private final int[] timeParts = new int[TIME_PART_WORDS.length];
+    private int codepage = -1;
+    private String encoding = "Cp1252";
+
+    private final List<RTFMetadata.Font> fonts = new ArrayList<RTFMetadata.Font>();
+    private boolean inFont;
+    private int fontNumber;
+    private int fontCharset;
+
+    // text of the field or font name being read: raw bytes not decoded yet,
+    // and the decoded text before them
+    private byte[] bytes = new byte[64];
+    private int byteCount;
+    private final StringBuilder text = new StringBuilder();
+    // characters still to skip after a \\u
+    private int pendingSkip;
+
+    /**
+     * Scans the header of the document.
+     *
+     * @param input the RTF document
+     * @return the metadata found before the document body
+     * @throws IOException if the input can't be read
+     */
+    RTFMetadata scan(InputStream input) throws IOException {
+        // RTF is 7-bit; stray 8-bit bytes are decoded like \'xx escapes
+        RTFParserTokenManager tokens = new RTFParserTokenManager(
+                new SimpleCharStream(input, "ISO-8859-1", 1, 1));
+        // the header is read best-effort: don't fail on a stray \'
+        tokens.setLenient(true);
+        TokenTape tape = new TokenTape(TAPE_CAPACITY);
+        scan:
+        for (; ;) {
+            tape.clear();
+            tokens.fillTape(tape);
+            for (int i = 0; i < tape.size(); i++) {
+                if (!accept(tape, i)) {
+                    break scan;
+                }
+            }
+        }
+        return new RTFMetadata(fields[0], fields[1], fields[2], fields[3],
+                fields[4], fields[5], times[0], times[1], codepage, encoding, fonts);
+    }
+
+    /**
+     * Processes one token.
+     *
+     * @return <code>false</code> once the header is over
+     */
+    private boolean accept(TokenTape tape, int i) {
+        int kind = tape.kind(i);
+        if (kind == EOF) {
+            return false;
+        }
+        if (kind == LBRACE) {
+            if (depth > 0 && dest[depth - 1] == D_PENDING
+                    && (dest[depth - 1] = resolve(tape, i)) == D_STOP) {
+                return false;
+            }
+            push();
+            return true;
+        }
+        if (kind == RBRACE) {
+            return depth > 0 && pop();
+        }
+        if (depth == 0) {
+            return true;
+        }
+        if (kind == UC) {
+            uc[depth - 1] = tape.value(i);
+        }
+        int d = dest[depth - 1];
+        if (d == D_PENDING) {
+            d = resolve(tape, i);
+            if (d == D_STOP) {
+                return false;
+            }
+            dest[depth - 1] = d;
+        }
+        switch (d) {
+            case D_BODY:
+                return body(tape, i);
+            case D_FIELD:
+                appendText(tape, i);
+                break;
+            case D_TIME:
+                if (kind == CONTROL_WORD) {
+                    int part = indexOf(tape, i, TIME_PART_WORDS);
+                    if (part >= 0) {
+                        timeParts[part] = tape.value(i);
+                    }
+                }
+                break;
+            case D_FONTTBL:
+            case D_FONT:
+                font(tape, i);
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Decides what the current group is from its first token and the
+     * group it is nested in.
+     */
+    private int resolve(TokenTape tape, int i) {
+        int kind = tape.kind(i);
+        int parent = depth >= 2 ? dest[depth - 2] : D_PENDING;
+        switch (parent) {
+            case D_PENDING:
+                return D_BODY;
+            case D_BODY:
+                switch (kind) {
+                    case INFO:
+                        return D_INFO;
+                    case FONTTBL:
+                        return D_FONTTBL;
+                    case COLORTBL:
+                    case STYLESHEET:
+                    case LISTTABLE:
+                    case REVTBL:
+                    case IGNORABLE_DESTINATION:
+                        return D_SKIP;
+                    case CONTROL_WORD:
+                        return indexOf(tape, i, HEADER_WORDS) >= 0 ? D_SKIP : D_STOP;
+                    default:
+                        return D_STOP;
+                }
+            case D_INFO:
+                if (kind == IGNORABLE_DESTINATION) {
+                    // {\*\company ...}: decided by the next word
+                    return D_PENDING;
+                }
+                if (kind == CONTROL_WORD) {
+                    int field = indexOf(tape, i, FIELD_WORDS);
+                    if (field >= 0) {
+                        arg[depth - 1] = field;
+                        clearText();
+                        return D_FIELD;
+                    }
+                    int time = indexOf(tape, i, TIME_WORDS);
+                    if (time >= 0) {
+                        arg[depth - 1] = time;
+                        for (int j = 0; j < timeParts.length; j++) {
+                            timeParts[j] = 0;
+                        }
+                        return D_TIME;
+                    }
+                }
+                return D_SKIP;
+            case D_FONTTBL:
+                return kind == IGNORABLE_DESTINATION ? D_SKIP : D_FONT;
+            case D_FONT:
+                return D_SKIP;
+            default:
+                // nested in a field or a skipped group: same as the parent
+                arg[depth - 1] = arg[depth - 2];
+                return parent;
+        }
+    }
+
+    /**
+     * Processes a token of the root group.
+     *
+     * @return <code>false</code> if the token belongs to the body
+     */
+    private boolean body(TokenTape tape, int i) {
+        switch (tape.kind(i)) {
+            case ANSICPG:
+                codepage = tape.value(i);
+                String cp = RTFParser.getJavaEncoding(codepage);
+                if (cp != null) {
+                    encoding = cp;
+                }
+                return true;
+            case ANSI:
+                encoding = "Cp1252";
+                return true;
+            case PC:
+                encoding = "Cp437";
+                return true;
+            case PCA:
+                encoding = "Cp850";
+                return true;
+            case MAC:
+                encoding = "MacRoman";
+                return true;
+            case TEXT:
+                // blanks between header groups aren't body text
+                char[] chars = tape.chars();
+                for (int j = tape.start(i); j < tape.end(i); j++) {
+                    if (chars[j] != ' ') {
+                        return false;
+                    }
+                }
+                return true;
+            case HEX_CHAR:
+            case U:
+            case PLAIN:
+                return false;
+            case CONTROL_WORD:
+                return indexOf(tape, i, BODY_WORDS) < 0;
+            default:
+                // escaped and special characters, and the table words
+                return !isText(tape.kind(i))
+                        && (tape.kind(i) < CLFITTEXT || tape.kind(i) > SECTSPECIFYGENN);
+        }
+    }
+
+    private void font(TokenTape tape, int i) {
+        switch (tape.kind(i)) {
+            case F:
+                endFont();
+                inFont = true;
+                fontNumber = tape.value(i);
+                fontCharset = -1;
+                clearText();
+                break;
+            case FCHARSET:
+                fontCharset = tape.value(i);
+                break;
+            case TEXT:
+                if (!inFont) {
+                    break;
+                }
+                char[] chars = tape.chars();
+                int end = tape.end(i);
+                for (int j = tape.start(i); j < end; j++) {
+                    if (chars[j] == ';') {
+                        endFont();
+                        break;
+                    }
+                    appendChar(chars[j]);
+                }
+                break;
+            default:
+                if (inFont) {
+                    appendText(tape, i);
+                }
+                break;
+        }
+    }
+
+    private void endFont() {
+        if (inFont) {
+            inFont = false;
+            fonts.add(new RTFMetadata.Font(fontNumber, fontCharset, takeText()));
+        }
+    }
+
+    private void push() {
+        if (depth == dest.length) {
+            dest = grow(dest);
+            arg = grow(arg);
+            uc = grow(uc);
+        }
+        dest[depth] = D_PENDING;
+        arg[depth] = 0;
+        uc[depth] = depth > 0 ? uc[depth - 1] : 1;
+        depth++;
+    }
+
+    /**
+     * Closes the current group.
+     *
+     * @return <code>false</code> if it was the root group
+     */
+    private boolean pop() {
+        depth--;
+        int d = dest[depth];
+        int parent = depth > 0 ? dest[depth - 1] : D_PENDING;
+        if (d == D_FIELD && parent != D_FIELD) {
+            String value = takeText();
+            if (value.length() > 0) {
+                fields[arg[depth]] = value;
+            }
+        } else if (d == D_TIME && parent != D_TIME) {
+            if (timeParts[0] > 0) {
+                Calendar c = new GregorianCalendar();
+                c.clear();
+                // a missing month or day is the first one, not the one before
+                c.set(timeParts[0], Math.max(timeParts[1], 1) - 1, Math.max(timeParts[2], 1),
+                        timeParts[3], timeParts[4], timeParts[5]);
+                times[arg[depth]] = c.getTimeInMillis();
+            }
+        } else if (d == D_FONT || d == D_FONTTBL) {
+            endFont();
+        }
+        return depth > 0;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] grown = new int[a.length * 2];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    private static boolean isText(int kind) {
+        return (kind >= NON_BREAKING_SPACE && kind <= ESCAPED_BACKSLASH && kind != IGNORABLE_DESTINATION)
+                || (kind >= TAB && kind <= RDBLQUOTE);
+    }
+
+    private static int indexOf(TokenTape tape, int i, String[] words) {
+        for (int j = 0; j < words.length; j++) {
+            if (tape.imageEquals(i, words[j])) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /* collecting the text of fields and font names */
+
+    private void appendText(TokenTape tape, int i) {
+        switch (tape.kind(i)) {
+            case TEXT:
+                char[] chars = tape.chars();
+                int end = tape.end(i);
+                for (int j = tape.start(i); j < end; j++) {
+                    appendChar(chars[j]);
+                }
+                break;
+            case HEX_CHAR:
+                appendChar((char) tape.value(i));
+                break;
+            case U:
+                flushBytes();
+                text.append((char) tape.value(i));
+                pendingSkip = uc[depth - 1];
+                break;
+            case ESCAPED_LBRACE:
+                appendChar('{');
+                break;
+            case ESCAPED_RBRACE:
+                appendChar('}');
+                break;
+            case ESCAPED_BACKSLASH:
+                appendChar('\\');
+                break;
+            case NON_BREAKING_SPACE:
+                appendUnicode('\u00a0');
+                break;
+            case TAB:
+                appendUnicode(' ');
+                break;
+            case EMDASH:
+                appendUnicode('\u2014');
+                break;
+            case ENDASH:
+                appendUnicode('\u2013');
+                break;
+            case BULLET:
+                appendUnicode('\u2022');
+                break;
+            case LQUOTE:
+                appendUnicode('\u2018');
+                break;
+            case RQUOTE:
+                appendUnicode('\u2019');
+                break;
+            case LDBLQUOTE:
+                appendUnicode('\u201c');
+                break;
+            case RDBLQUOTE:
+                appendUnicode('\u201d');
+                break;
+            default:
+                break;
+        }
+    }
+
+    // appends a byte in the document encoding
+    private void appendChar(char c) {
+        if (pendingSkip > 0) {
+            pendingSkip--;
+            return;
+        }
+        if (byteCount == bytes.length) {
+            byte[] grown = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, grown, 0, byteCount);
+            bytes = grown;
+        }
+        bytes[byteCount++] = (byte) c;
+    }
+
+    private void appendUnicode(char c) {
+        pendingSkip = 0;
+        flushBytes();
+        text.append(c);
+    }
+
+    private void flushBytes() {
+        if (byteCount > 0) {
+            try {
+                text.append(new String(bytes, 0, byteCount, encoding));
+            } catch (UnsupportedEncodingException e) {
+                for (int i = 0; i < byteCount; i++) {
+                    text.append((char) (bytes[i] & 0xff));
+                }
+            }
+            byteCount = 0;
+        }
+    }
+
+    private String takeText() {
+        flushBytes();
+        String s = text.toString().trim();
+        clearText();
+        return s;
+    }
+
+    private void clearText() {
+        text.setLength(0);
+        byteCount = 0;
+        pendingSkip = 0;
+    }
+}
@@ -1,15 +1,15 @@
 package com.trick2live.parser.rtf.parser.rtf;
 
+import com.trick2live.parser.rtf.cache.ContentHash;
+import com.trick2live.parser.rtf.cache.ContentHasher;
+
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -137,7 +137,7 @@ public class RTFParser implements RTFParserDelegate {
      * @param rtfCodepage codepage
      * @return String
      */
-    private static String getJavaEncoding(int rtfCodepage) {
+    static String getJavaEncoding(int rtfCodepage) {
         int offset = Arrays.binarySearch(RTF_CODEPAGE, rtfCodepage);
         return offset < 0 ? null : JAVA_ENCODINGS[offset];
     }
@@ -185,6 +185,55 @@ public class RTFParser implements RTFParserDelegate {
     private int _braceDepth = 0;
     private String _newline;
 
+    /* support for ExtractionLimits, cancellation and progress reports: the
+     * token count is compared against a checkpoint, and only at the
+     * checkpoint are the token limit, the clock, the cancellation token
+     * and the input position looked at.
+     */
+    private static final int CHECK_INTERVAL = ExtractionLimits.TIME_CHECK_INTERVAL;
+    private ExtractionLimits _limits;
+    private CancellationToken _cancellation;
+    private ProgressListener _progress;
+    private int _maxBraceDepth = Integer.MAX_VALUE;
+    private long _tokenCount;
+    private long _tokenCheckpoint = Long.MAX_VALUE;
+    private long _startNanos;
+
+    /* support for error recovery: a syntax error skips to the next brace
+     * and is recorded, instead of failing the whole document
+     */
+    /** the maximum number of diagnostics kept by a parser */
+    public static final int MAX_DIAGNOSTICS = 100;
+    // thrown instead of a full ParseException while recovering: nothing
+    // reads its message, so the expected tokens needn't be computed
+    private static final ParseException RESYNC = new ParseException("syntax error") {
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+    private boolean _recovering;
+    private final List<ParseDiagnostic> _diagnostics = new ArrayList<ParseDiagnostic>();
+    private int _diagnosticCount;
+
+    /* support for the HeaderCache: a font table, stylesheet or color table
+     * seen before is restored from the cache instead of parsed. While a
+     * table missing from the cache is parsed, its key and the maps as they
+     * were before it are kept here, so what it added can be cached.
+     */
+    private HeaderCache _headerCache;
+    private ParseMetrics _metrics;
+    // _metrics if they are timed, else null
+    private ParseMetrics _timedMetrics;
+    private ExtractionTracer _tracer;
+    private Object _tableSpan;
+    private long _tableOffset;
+    private long _tableTokens;
+    private long _tableSkipped;
+    private ContentHash _tableKey;
+    private Map<Integer, String> _fontsBefore;
+    private Map<Integer, String> _stylesBefore;
+    private int _tableDiagnostics;
+
     // The delegate to which the parser forwards productions.
     // Unless setDelegate is called, this will be the parser
     // itself, which supplies a no-op implementation (see below).
@@ -193,17 +242,6 @@ public class RTFParser implements RTFParserDelegate {
 
     private RTFParserDelegate _delegate = this;
 
-    public static void main(String args[]) throws ParseException {
-        //RTFParser parser = RTFParser.createParser(new InputStreamReader(System.in));
-        RTFParser parser = null;
-        try {
-            parser = RTFParser.createParser(new InputStreamReader(new FileInputStream(new File(args[0]))));
-            parser.parse();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-    }
-
     public void reinitialize(Reader reader) {
         ReInit(reader);
     }
@@ -213,12 +251,276 @@ public class RTFParser implements RTFParserDelegate {
     }
 
     public void parse() throws ParseException {
+        _tokenCount = 0;
+        _diagnostics.clear();
+        _diagnosticCount = 0;
+        _tableKey = null;
+        _startNanos = System.nanoTime();
+        _tokenCheckpoint = nextTokenCheckpoint();
+        _tableSpan = null;
+        Object span = _tracer == null ? null : _tracer.begin(ExtractionTracer.DOCUMENT, null);
         try {
+            if (_cancellation != null && _cancellation.isCancelled()) {
+                // cancelled before it started: don't parse a short
+                // document to the end before the first check
+                throw ParseAbortedException.CANCEL;
+            }
             document();
+        } catch (ParseException e) {
+            if (e == RESYNC) {
+                // recovery had nowhere to go; the shared instance must not
+                // reach callers
+                throw syntaxError(-1);
+            }
+            throw e;
         } catch (UnsupportedEncodingException uee) {
             throw new ParseException("Could not decode bytes in encoding: " +
                     uee.getMessage());
+        } finally {
+            if (span != null) {
+                if (_tableSpan != null) {
+                    endTable();
+                }
+                _tracer.end(span, token_source.getInputPosition(), _tokenCount);
+            }
+            if (_metrics != null) {
+                _metrics.bytesRead = token_source.getInputPosition();
+                _metrics.tokens = _tokenCount;
+                _metrics.totalNanos += System.nanoTime() - _startNanos;
+            }
+        }
+    }
+
+    /**
+     * Sets the limits checked while parsing. Exceeding one throws a
+     * {@link ParseAbortedException} with the reason
+     * <code>LIMIT_EXCEEDED</code>. The input size limit is not checked
+     * here, see {@link RTFPlainTextExtractor#setLimits}.
+     *
+     * @param limits the limits, or <code>null</code> for none
+     */
+    public void setLimits(ExtractionLimits limits) {
+        _limits = limits;
+        _maxBraceDepth = limits == null || limits.getMaxGroupDepth() < 0
+                ? Integer.MAX_VALUE : limits.getMaxGroupDepth();
+    }
+
+    /**
+     * Sets the token through which parsing can be cancelled. Once it is
+     * cancelled, parsing stops with a {@link ParseAbortedException} with
+     * the reason <code>CANCELLED</code>; if it already is when parsing
+     * starts, no token is read.
+     *
+     * @param cancellation the token, or <code>null</code>
+     */
+    public void setCancellationToken(CancellationToken cancellation) {
+        _cancellation = cancellation;
+    }
+
+    /**
+     * Sets the listener that is told the input position every few thousand
+     * tokens.
+     *
+     * @param progress the listener, or <code>null</code>
+     */
+    public void setProgressListener(ProgressListener progress) {
+        _progress = progress;
+    }
+
+    /**
+     * Sets the metrics to count the next <code>parse()</code> in. They
+     * are added to, not reset, so that the extractor can count its own
+     * part in the same metrics.
+     *
+     * @param metrics the metrics, or <code>null</code> to measure nothing
+     */
+    public void setMetrics(ParseMetrics metrics) {
+        _metrics = metrics;
+        _timedMetrics = metrics != null && metrics.timed ? metrics : null;
+    }
+
+    /**
+     * Sets the tracer told when the document, and each table in its
+     * header, starts and ends.
+     *
+     * @param tracer the tracer, or <code>null</code> for none
+     */
+    public void setTracer(ExtractionTracer tracer) {
+        _tracer = tracer;
+    }
+
+    /**
+     * @return the input offset of the token last consumed, in characters
+     */
+    public long getTokenOffset() {
+        return token.beginOffset;
+    }
+
+    /**
+     * Sets whether the parser recovers from syntax errors. When on, a
+     * token that doesn't fit the grammar is recorded as a
+     * {@link ParseDiagnostic} and skipped together with whatever follows
+     * it up to the next brace, and groups still open at the end of input
+     * are closed implicitly. Combine with a lenient token manager to also
+     * get past lexical errors.
+     *
+     * @param recovering <code>true</code> to recover from syntax errors
+     */
+    public void setErrorRecovery(boolean recovering) {
+        _recovering = recovering;
+    }
+
+    /**
+     * Returns the errors recovered from, in input order. At most
+     * <code>MAX_DIAGNOSTICS</code> are kept.
+     *
+     * @return the diagnostics, not modifiable
+     */
+    public List<ParseDiagnostic> getDiagnostics() {
+        return Collections.unmodifiableList(_diagnostics);
+    }
+
+    /**
+     * @return the number of errors recovered from, including those not
+     * kept in <code>getDiagnostics()</code>
+     */
+    public int getDiagnosticCount() {
+        return _diagnosticCount;
+    }
+
+    private void addDiagnostic(int type, Token t) {
+        _diagnosticCount++;
+        if (_diagnostics.size() < MAX_DIAGNOSTICS) {
+            _diagnostics.add(new ParseDiagnostic(type, t));
+        }
+    }
+
+    /**
+     * Recovers from a syntax error: records the offending token and skips
+     * tokens up to the next brace or the end of input.
+     */
+    private void recover(ParseException e) throws ParseException {
+        if (!_recovering) {
+            throw e;
+        }
+        addDiagnostic(ParseDiagnostic.UNEXPECTED_TOKEN, getToken(1));
+        for (; ;) {
+            int kind = (jj_ntk == -1) ? nextToken() : jj_ntk;
+            if (kind == LBRACE || kind == RBRACE || kind == EOF) {
+                return;
+            }
+            getNextToken();
+        }
+    }
+
+    /**
+     * Sets the cache of font tables, stylesheets and color tables. A table
+     * found in the cache is skipped without being lexed, and the delegate
+     * is not told about its contents, except for the
+     * <code>styleList</code> of a stylesheet. Has no effect unless the
+     * tokens come from an {@link RTFParserTokenManager} directly: a
+     * {@link PipelinedTokenManager}'s lexer runs ahead of the parser.
+     *
+     * @param headerCache the cache, or <code>null</code> for none
+     */
+    public void setHeaderCache(HeaderCache headerCache) {
+        _headerCache = headerCache;
+    }
+
+    /**
+     * Looks the font table, stylesheet or color table whose group was just
+     * opened up in the header cache. On a hit, restores the state the
+     * table leaves and closes the group, which has been read already. On
+     * a miss, prepares for caching the state once the group is parsed.
+     *
+     * @return <code>true</code> if the group was restored from the cache
+     */
+    private boolean restoreTable() throws ParseException {
+        int kind = (jj_ntk == -1) ? nextToken() : jj_ntk;
+        if (lexer == null
+                || (kind != FONTTBL && kind != STYLESHEET && kind != COLORTBL)) {
+            return false;
+        }
+        // the encoding goes into the key: \fcharset declarations map to it
+        ContentHasher hasher = new ContentHasher(kind);
+        for (int i = 0; i < _documentEncoding.length(); i++) {
+            hasher.update(_documentEncoding.charAt(i));
+        }
+        hasher.update(0);
+        int length = lexer.scanGroup(hasher, _headerCache.getMaxTableLength());
+        if (length < 0) {
+            return false;
+        }
+        ContentHash key = hasher.finish();
+        HeaderCache.Snapshot table = _headerCache.get(key);
+        if (table == null) {
+            lexer.unscanGroup(length);
+            _tableKey = key;
+            _fontsBefore = new HashMap<Integer, String>(_fontEncodingMap);
+            _stylesBefore = new HashMap<Integer, String>(_styleMap);
+            _tableDiagnostics = _diagnosticCount;
+            return false;
+        }
+        table_declaration();
+        if (_tableSpan != null) {
+            _tableSkipped = length;
         }
+        for (int i = 0; i < table.fonts.length; i++) {
+            _fontEncodingMap.put(table.fonts[i], table.fontEncodings[i]);
+        }
+        for (int i = 0; i < table.styles.length; i++) {
+            _styleMap.put(table.styles[i], table.styleNames[i]);
+        }
+        _currentFontValue = table.currentFont;
+        _currentStyleValue = table.currentStyle;
+        setDocumentEncoding(table.documentEncoding);
+        lexer.skipScannedGroup();
+        endGroup();
+        return true;
+    }
+
+    /**
+     * Stores what the table just parsed added to the font and style maps
+     * in the header cache, unless errors were recovered from in it.
+     */
+    private void cacheTable() {
+        if (_diagnosticCount == _tableDiagnostics) {
+            int[] fonts = changedKeys(_fontsBefore, _fontEncodingMap);
+            String[] fontEncodings = new String[fonts.length];
+            for (int i = 0; i < fonts.length; i++) {
+                fontEncodings[i] = _fontEncodingMap.get(fonts[i]);
+            }
+            int[] styles = changedKeys(_stylesBefore, _styleMap);
+            String[] styleNames = new String[styles.length];
+            for (int i = 0; i < styles.length; i++) {
+                styleNames[i] = _styleMap.get(styles[i]);
+            }
+            _headerCache.put(_tableKey, new HeaderCache.Snapshot(fonts,
+                    fontEncodings, styles, styleNames, _currentFontValue,
+                    _currentStyleValue, _documentEncoding));
+        }
+        _tableKey = null;
+        _fontsBefore = null;
+        _stylesBefore = null;
+    }
+
+    private static int[] changedKeys(Map<Integer, String> before,
+                                     Map<Integer, String> after) {
+        int[] keys = new int[after.size()];
+        int n = 0;
+        for (Map.Entry<Integer, String> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                keys[n++] = entry.getKey();
+            }
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * @return the number of tokens read by the parser so far
+     */
+    public long getTokenCount() {
+        return _tokenCount;
     }
 
     public void setDelegate(RTFParserDelegate delegate) {
@@ -382,7 +684,7 @@ public class RTFParser implements RTFParserDelegate {
                             u(cbuf);
                             raw = skip_after_unicode();
                             if (raw != null) {
-                                cbuf.append(new String(raw, getCurrentEncoding()));
+                                cbuf.append(decode(raw, raw.length));
                             }
                             break;
                         case ESCAPED_LBRACE:
@@ -417,11 +719,10 @@ public class RTFParser implements RTFParserDelegate {
                             break;
                         default:
                             jj_la1[0] = jj_gen;
-                            consumeToken(-1);
-                            throw new ParseException();
+                            throw noViableAlternative();
                     }
                     if (baos.size() > 0) {
-                        buf.append(baos.toString(getCurrentEncoding()));
+                        buf.append(decode(baos));
                         baos.reset();
                     }
                     buf.append(cbuf.toString());
@@ -437,8 +738,7 @@ public class RTFParser implements RTFParserDelegate {
                     break;
                 default:
                     jj_la1[1] = jj_gen;
-                    consumeToken(-1);
-                    throw new ParseException();
+                    throw noViableAlternative();
             }
             switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
                 case NON_BREAKING_SPACE:
@@ -475,7 +775,7 @@ public class RTFParser implements RTFParserDelegate {
             }
         }
         if (baos.size() > 0) {
-            buf.append(baos.toString(getCurrentEncoding()));
+            buf.append(decode(baos));
             baos.reset();
         }
         if (_where == IN_STYLESHEET) {
@@ -484,6 +784,26 @@ public class RTFParser implements RTFParserDelegate {
         _delegate.text(buf.toString(), getCurrentStyle(), _where);
     }
 
+    private String decode(ByteArrayOutputStream bytes) throws UnsupportedEncodingException {
+        if (_timedMetrics == null) {
+            return bytes.toString(getCurrentEncoding());
+        }
+        long start = System.nanoTime();
+        String text = bytes.toString(getCurrentEncoding());
+        _timedMetrics.decodingNanos += System.nanoTime() - start;
+        return text;
+    }
+
+    private String decode(byte[] bytes, int length) throws UnsupportedEncodingException {
+        if (_timedMetrics == null) {
+            return new String(bytes, 0, length, getCurrentEncoding());
+        }
+        long start = System.nanoTime();
+        String text = new String(bytes, 0, length, getCurrentEncoding());
+        _timedMetrics.decodingNanos += System.nanoTime() - start;
+        return text;
+    }
+
     final public byte[] raw_text() throws ParseException, UnsupportedEncodingException {
         Token tok = consumeToken(TEXT);
         return stringToBytes(tok.image);
@@ -503,8 +823,7 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             default:
                 jj_la1[3] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
         }
         buf.append(tok.image.charAt(0));
     }
@@ -523,15 +842,14 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             default:
                 jj_la1[4] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
         }
         buf.append(tok.image);
     }
 
     final public byte hex() throws ParseException {
         Token hex = consumeToken(HEX_CHAR);
-        return (byte) Integer.parseInt(hex.image.substring(2), 16);
+        return (byte) hex.value;
     }
 
     final public void special_character(StringBuffer buf) throws ParseException {
@@ -611,15 +929,13 @@ public class RTFParser implements RTFParserDelegate {
                         break;
                     default:
                         jj_la1[5] = jj_gen;
-                        consumeToken(-1);
-                        throw new ParseException();
+                        throw noViableAlternative();
                 }
                 buf.append(getNewLine());
                 break;
             default:
                 jj_la1[6] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
         }
     }
 
@@ -628,11 +944,26 @@ public class RTFParser implements RTFParserDelegate {
         _fontEncodingStack.push(getCurrentEncoding());
         _ucSkipStates.push(getCurrentSkipState());
         _styleStack.push(getCurrentStyle());
+        if (_braceDepth >= _maxBraceDepth) {
+            throw ParseAbortedException.limitExceeded(ExtractionLimits.MAX_GROUP_DEPTH);
+        }
         _delegate.openGroup(++_braceDepth);
+        if (_metrics != null) {
+            _metrics.groupOpened(_braceDepth);
+        }
     }
 
     final public void rbrace() throws ParseException {
-        consumeToken(RBRACE);
+        if (_recovering && ((jj_ntk == -1) ? nextToken() : jj_ntk) == EOF) {
+            // close the group implicitly
+            addDiagnostic(ParseDiagnostic.UNCLOSED_GROUP, getToken(1));
+        } else {
+            consumeToken(RBRACE);
+        }
+        endGroup();
+    }
+
+    private void endGroup() {
         setCurrentSkipState(_ucSkipStates.pop());
         setCurrentEncoding(_fontEncodingStack.pop());
         setCurrentStyle(_styleStack.pop());
@@ -641,6 +972,12 @@ public class RTFParser implements RTFParserDelegate {
             if (_where == IN_STYLESHEET) {
                 _delegate.styleList(new ArrayList(_styleMap.values()));
             }
+            if (_tableKey != null) {
+                cacheTable();
+            }
+            if (_tableSpan != null) {
+                endTable();
+            }
             _where = IN_DOCUMENT;
         }
     }
@@ -673,33 +1010,30 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             case PNTEXT:
                 consumeToken(PNTEXT);
-                switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
-                    case CW_VAL:
-                        consumeToken(CW_VAL);
-                        break;
-                    default:
-                        jj_la1[7] = jj_gen;
-                }
                 _where = IN_PNTEXT;
                 break;
             case PNSECLVL:
                 consumeToken(PNSECLVL);
-                switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
-                    case CW_VAL:
-                        consumeToken(CW_VAL);
-                        break;
-                    default:
-                        jj_la1[8] = jj_gen;
-                }
                 _where = IN_PNTEXT;
                 break;
             default:
                 jj_la1[9] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
+        }
+        if (_tracer != null && _braceDepth == 2 && _tableSpan == null) {
+            _tableSpan = _tracer.begin(ExtractionTracer.TABLE, token.image);
+            _tableOffset = token.beginOffset;
+            _tableTokens = _tokenCount - 1;
         }
     }
 
+    private void endTable() {
+        long end = token.beginOffset + token.image.length() + _tableSkipped;
+        _tracer.end(_tableSpan, end - _tableOffset, _tokenCount - _tableTokens);
+        _tableSpan = null;
+        _tableSkipped = 0;
+    }
+
     final public void control_symbol() throws ParseException {
         Token sym = null;
         switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
@@ -717,8 +1051,7 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             default:
                 jj_la1[10] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
         }
         _delegate.controlSymbol(sym.image, _where);
     }
@@ -773,14 +1106,13 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             default:
                 jj_la1[11] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
         }
         return word;
     }
 
     final public void control_word() throws ParseException {
-        Token word = null, val = null;
+        Token word = null;
         switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
             case CONTROL_WORD:
                 word = consumeToken(CONTROL_WORD);
@@ -804,21 +1136,15 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             default:
                 jj_la1[12] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
-        }
-        switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
-            case CW_VAL: val = consumeToken(CW_VAL); break;
-            default: jj_la1[13] = jj_gen;
+                throw noViableAlternative();
         }
-        int v = null == val ? 0 : Integer.parseInt(val.image);
-        _delegate.controlWord(word.image, v, _where);
+        // the parameter, if any, was read by the lexer along with the word
+        _delegate.controlWord(word.image, word.value, _where);
     }
 
     final public void u(StringBuffer buf) throws ParseException {
-        consumeToken(U);
-        Token val = consumeToken(CW_VAL);
-        int ucValue = Integer.parseInt(val.image);
+        Token word = consumeToken(U);
+        int ucValue = parameter(word);
         // correct RTF negative unicode char value
         if (ucValue < 0) {
             ucValue += 65536;
@@ -826,39 +1152,50 @@ public class RTFParser implements RTFParserDelegate {
         buf.append((char) ucValue);
     }
 
+    /**
+     * Skips the fallback characters after a <code>&#92;u</code>, as many
+     * as the current <code>&#92;uc</code> says. A hex character counts as
+     * one, and text as its length. A brace or a control word ends the
+     * fallback early, and is left for the caller.
+     * @return the rest of a text token only partly skipped, or
+     * <code>null</code>
+     */
     byte[] skip_after_unicode() throws ParseException, UnsupportedEncodingException {
         Token tok;
         byte[] raw = null;
 
-        for (int skip = getCurrentSkipState().intValue(); skip != 0; skip--) {
-            tok = getNextToken();
+        for (int skip = getCurrentSkipState().intValue(); skip > 0; skip--) {
+            tok = getToken(1);
             switch (tok.kind) {
                 case HEX_CHAR:
+                    getNextToken();
                     break; // buh bye!
                 case TEXT:
+                    getNextToken();
                     if (tok.image.length() > skip) {
                         byte[] tmp = stringToBytes(tok.image);
                         raw = new byte[tmp.length - skip];
                         System.arraycopy(tmp, skip, raw, 0, raw.length);
                         return raw;
                     }
-                    break; // the text was exactly what we needed: buh bye!
+                    skip -= tok.image.length() - 1;
+                    break; // the text was no more than we needed: buh bye!
                 default:
-                    throw new IllegalStateException("unexpected token while skipping");
+                    return raw;
             }
         }
         return raw;
     }
 
     final public void uc() throws ParseException {
-        Token word = consumeToken(UC), val = consumeToken(CW_VAL);
-        int bytesToSkip = null == val ? 0 : Integer.parseInt(val.image);
+        Token word = consumeToken(UC);
+        int bytesToSkip = parameter(word);
         setCurrentSkipState(bytesToSkip);
     }
 
     final public void fcharset() throws ParseException {
-        Token word = consumeToken(FCHARSET), val = consumeToken(CW_VAL);
-        int charset = null == val ? 0 : Integer.parseInt(val.image);
+        Token word = consumeToken(FCHARSET);
+        int charset = parameter(word);
         if (IN_FONTTBL == _where) {
             // Modified: always use _documentEncoding
             _fontEncodingMap.put(_currentFontValue,
@@ -869,14 +1206,12 @@ public class RTFParser implements RTFParserDelegate {
     }
 
     final public void deff() throws ParseException {
-        consumeToken(DEFF);
-        consumeToken(CW_VAL);
+        parameter(consumeToken(DEFF));
     }
 
     final public void f() throws ParseException {
-        consumeToken(F);
-        Token val = consumeToken(CW_VAL);
-        int font = null == val ? 0 : Integer.parseInt(val.image);
+        Token word = consumeToken(F);
+        int font = parameter(word);
         if (IN_FONTTBL == _where) {
             _currentFontValue = font;
         } else if (IN_DOCUMENT == _where) {
@@ -888,9 +1223,8 @@ public class RTFParser implements RTFParserDelegate {
     }
 
     final public void cs() throws ParseException {
-        consumeToken(CS);
-        Token val = consumeToken(CW_VAL);
-        int style = null == val ? 0 : Integer.parseInt(val.image);
+        Token word = consumeToken(CS);
+        int style = parameter(word);
         if (IN_STYLESHEET == _where) {
             _currentStyleValue = style;
         } else if (IN_DOCUMENT == _where) {
@@ -930,8 +1264,7 @@ public class RTFParser implements RTFParserDelegate {
                 break;
             default:
                 jj_la1[14] = jj_gen;
-                consumeToken(-1);
-                throw new ParseException();
+                throw noViableAlternative();
         }
     }
 
@@ -940,10 +1273,9 @@ public class RTFParser implements RTFParserDelegate {
      * @throws ParseException when parsing ended unexpectedly
      */
     final public void ansicpg() throws ParseException {
-        consumeToken(ANSICPG);
-        Token val = consumeToken(CW_VAL);
+        Token word = consumeToken(ANSICPG);
         // must be a value in the map - we should throw if it isn't there.
-        int cp = null == val ? 0 : Integer.parseInt(val.image);
+        int cp = parameter(word);
         setDocumentEncoding(getJavaEncoding(cp));
         setCurrentEncoding(getJavaEncoding(cp)); /* Modified: added this line */
 
@@ -952,94 +1284,100 @@ public class RTFParser implements RTFParserDelegate {
     // TODO: consider collecting special characters in a buffer
     final public void group() throws ParseException, UnsupportedEncodingException {
         lbrace();
+        if (_headerCache != null && _braceDepth == 2 && restoreTable()) {
+            return;
+        }
         label_2:
         while (true) {
-            switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
-                case INFO:
-                case REVTBL:
-                case PNTEXT:
-                case FONTTBL:
-                case COLORTBL:
-                case PNSECLVL:
-                case LISTTABLE:
-                case STYLESHEET:
-                    table_declaration();
-                    break;
-                case UC:
-                    uc();
-                    break;
-                case F:
-                    f();
-                    break;
-                case FCHARSET:
-                    fcharset();
-                    break;
-                case CS:
-                    cs();
-                    break;
-                case PLAIN:
-                    plain();
-                    break;
-                case CLFITTEXT:
-                case CLFTSWIDTH:
-                case CLNOWRAP:
-                case CLWWIDTH:
-                case TDFRMTXTBOTTOM:
-                case TDFRMTXTLEFT:
-                case TDFRMTXTRIGHT:
-                case TDFRMTXTTOP:
-                case TRFTSWIDTHA:
-                case TRFTSWIDTHB:
-                case TRFTSWIDTH:
-                case TRWWIDTHA:
-                case TRWWIDTHB:
-                case TRWWIDTH:
-                case SECTSPECIFYGENN:
-                case CONTROL_WORD:
-                    control_word();
-                    break;
-                case IGNORABLE_DESTINATION:
-                case FORMULA_CHARACTER:
-                case INDEX_SUBENTRY:
-                case CONTROL_SYM:
-                    control_symbol();
-                    break;
-                case LBRACE:
-                    group();
-                    break;
-                case NON_BREAKING_SPACE:
-                case OPTIONAL_HYPHEN:
-                case NON_BREAKING_HYPHEN:
-                case ESCAPED_NEWLINE:
-                case ESCAPED_CARRIAGE_RETURN:
-                case ESCAPED_LBRACE:
-                case ESCAPED_RBRACE:
-                case ESCAPED_BACKSLASH:
-                case TEXT:
-                case HEX_CHAR:
-                case U:
-                case TAB:
-                case ZWJ:
-                case ZWNJ:
-                case PAR:
-                case LINE:
-                case EMDASH:
-                case ENDASH:
-                case EMSPACE:
-                case ENSPACE:
-                case BULLET:
-                case LQUOTE:
-                case RQUOTE:
-                case LTRMARK:
-                case RTLMARK:
-                case LDBLQUOTE:
-                case RDBLQUOTE:
-                    text();
-                    break;
-                default:
-                    jj_la1[15] = jj_gen;
-                    consumeToken(-1);
-                    throw new ParseException();
+            try {
+                switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
+                    case INFO:
+                    case REVTBL:
+                    case PNTEXT:
+                    case FONTTBL:
+                    case COLORTBL:
+                    case PNSECLVL:
+                    case LISTTABLE:
+                    case STYLESHEET:
+                        table_declaration();
+                        break;
+                    case UC:
+                        uc();
+                        break;
+                    case F:
+                        f();
+                        break;
+                    case FCHARSET:
+                        fcharset();
+                        break;
+                    case CS:
+                        cs();
+                        break;
+                    case PLAIN:
+                        plain();
+                        break;
+                    case CLFITTEXT:
+                    case CLFTSWIDTH:
+                    case CLNOWRAP:
+                    case CLWWIDTH:
+                    case TDFRMTXTBOTTOM:
+                    case TDFRMTXTLEFT:
+                    case TDFRMTXTRIGHT:
+                    case TDFRMTXTTOP:
+                    case TRFTSWIDTHA:
+                    case TRFTSWIDTHB:
+                    case TRFTSWIDTH:
+                    case TRWWIDTHA:
+                    case TRWWIDTHB:
+                    case TRWWIDTH:
+                    case SECTSPECIFYGENN:
+                    case CONTROL_WORD:
+                        control_word();
+                        break;
+                    case IGNORABLE_DESTINATION:
+                    case FORMULA_CHARACTER:
+                    case INDEX_SUBENTRY:
+                    case CONTROL_SYM:
+                        control_symbol();
+                        break;
+                    case LBRACE:
+                        group();
+                        break;
+                    case NON_BREAKING_SPACE:
+                    case OPTIONAL_HYPHEN:
+                    case NON_BREAKING_HYPHEN:
+                    case ESCAPED_NEWLINE:
+                    case ESCAPED_CARRIAGE_RETURN:
+                    case ESCAPED_LBRACE:
+                    case ESCAPED_RBRACE:
+                    case ESCAPED_BACKSLASH:
+                    case TEXT:
+                    case HEX_CHAR:
+                    case U:
+                    case TAB:
+                    case ZWJ:
+                    case ZWNJ:
+                    case PAR:
+                    case LINE:
+                    case EMDASH:
+                    case ENDASH:
+                    case EMSPACE:
+                    case ENSPACE:
+                    case BULLET:
+                    case LQUOTE:
+                    case RQUOTE:
+                    case LTRMARK:
+                    case RTLMARK:
+                    case LDBLQUOTE:
+                    case RDBLQUOTE:
+                        text();
+                        break;
+                    default:
+                        jj_la1[15] = jj_gen;
+                        throw noViableAlternative();
+                }
+            } catch (ParseException e) {
+                recover(e);
             }
             switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
                 case LBRACE:
@@ -1106,6 +1444,10 @@ public class RTFParser implements RTFParserDelegate {
                     break;
                 default:
                     jj_la1[16] = jj_gen;
+                    if (_recovering && jj_ntk != RBRACE && jj_ntk != EOF) {
+                        // not allowed here: skipped by the next round
+                        break;
+                    }
                     break label_2;
             }
         }
@@ -1114,10 +1456,33 @@ public class RTFParser implements RTFParserDelegate {
 
     final public void document() throws ParseException, UnsupportedEncodingException {
         _delegate.startDocument();
+        if (_recovering) {
+            skipToDocument();
+        }
         lbrace();
-        consumeToken(RTF);
-        consumeToken(CW_VAL);
-        document_charset();
+        try {
+            parameter(consumeToken(RTF));
+            document_charset();
+        } catch (ParseException e) {
+            if (!_recovering) {
+                throw e;
+            }
+            // go on with what follows, it may well be the document text
+            addDiagnostic(ParseDiagnostic.BAD_HEADER, getToken(1));
+            if (getToken(1).kind == RTF) {
+                getNextToken();
+            }
+            switch (getToken(1).kind) {
+                case PC:
+                case PCA:
+                case MAC:
+                case ANSI:
+                    document_charset();
+                    break;
+                default:
+                    break;
+            }
+        }
         label_3:
         while (true) {
             switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
@@ -1129,97 +1494,107 @@ public class RTFParser implements RTFParserDelegate {
                     jj_la1[17] = jj_gen;
                     break label_3;
             }
-            switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
-                case UC:
-                    uc();
-                    break;
-                case ANSICPG:
-                    ansicpg();
-                    break;
-                case DEFF:
-                    deff();
-                    break;
-                default:
-                    jj_la1[18] = jj_gen;
-                    consumeToken(-1);
-                    throw new ParseException();
+            try {
+                switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
+                    case UC:
+                        uc();
+                        break;
+                    case ANSICPG:
+                        ansicpg();
+                        break;
+                    case DEFF:
+                        deff();
+                        break;
+                    default:
+                        jj_la1[18] = jj_gen;
+                        throw noViableAlternative();
+                }
+            } catch (ParseException e) {
+                if (!_recovering) {
+                    throw e;
+                }
+                // the word had no parameter; go on with what follows it
+                addDiagnostic(ParseDiagnostic.BAD_HEADER, token);
             }
         }
         label_4:
         while (true) {
-            switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
-                case UC:
-                    uc();
-                    break;
-                case F:
-                    f();
-                    break;
-                case CS:
-                    cs();
-                    break;
-                case PLAIN:
-                    plain();
-                    break;
-                case CLFITTEXT:
-                case CLFTSWIDTH:
-                case CLNOWRAP:
-                case CLWWIDTH:
-                case TDFRMTXTBOTTOM:
-                case TDFRMTXTLEFT:
-                case TDFRMTXTRIGHT:
-                case TDFRMTXTTOP:
-                case TRFTSWIDTHA:
-                case TRFTSWIDTHB:
-                case TRFTSWIDTH:
-                case TRWWIDTHA:
-                case TRWWIDTHB:
-                case TRWWIDTH:
-                case SECTSPECIFYGENN:
-                case CONTROL_WORD:
-                    control_word();
-                    break;
-                case IGNORABLE_DESTINATION:
-                case FORMULA_CHARACTER:
-                case INDEX_SUBENTRY:
-                case CONTROL_SYM:
-                    control_symbol();
-                    break;
-                case LBRACE:
-                    group();
-                    break;
-                case NON_BREAKING_SPACE:
-                case OPTIONAL_HYPHEN:
-                case NON_BREAKING_HYPHEN:
-                case ESCAPED_NEWLINE:
-                case ESCAPED_CARRIAGE_RETURN:
-                case ESCAPED_LBRACE:
-                case ESCAPED_RBRACE:
-                case ESCAPED_BACKSLASH:
-                case TEXT:
-                case HEX_CHAR:
-                case U:
-                case TAB:
-                case ZWJ:
-                case ZWNJ:
-                case PAR:
-                case LINE:
-                case EMDASH:
-                case ENDASH:
-                case EMSPACE:
-                case ENSPACE:
-                case BULLET:
-                case LQUOTE:
-                case RQUOTE:
-                case LTRMARK:
-                case RTLMARK:
-                case LDBLQUOTE:
-                case RDBLQUOTE:
-                    text();
-                    break;
-                default:
-                    jj_la1[19] = jj_gen;
-                    consumeToken(-1);
-                    throw new ParseException();
+            try {
+                switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
+                    case UC:
+                        uc();
+                        break;
+                    case F:
+                        f();
+                        break;
+                    case CS:
+                        cs();
+                        break;
+                    case PLAIN:
+                        plain();
+                        break;
+                    case CLFITTEXT:
+                    case CLFTSWIDTH:
+                    case CLNOWRAP:
+                    case CLWWIDTH:
+                    case TDFRMTXTBOTTOM:
+                    case TDFRMTXTLEFT:
+                    case TDFRMTXTRIGHT:
+                    case TDFRMTXTTOP:
+                    case TRFTSWIDTHA:
+                    case TRFTSWIDTHB:
+                    case TRFTSWIDTH:
+                    case TRWWIDTHA:
+                    case TRWWIDTHB:
+                    case TRWWIDTH:
+                    case SECTSPECIFYGENN:
+                    case CONTROL_WORD:
+                        control_word();
+                        break;
+                    case IGNORABLE_DESTINATION:
+                    case FORMULA_CHARACTER:
+                    case INDEX_SUBENTRY:
+                    case CONTROL_SYM:
+                        control_symbol();
+                        break;
+                    case LBRACE:
+                        group();
+                        break;
+                    case NON_BREAKING_SPACE:
+                    case OPTIONAL_HYPHEN:
+                    case NON_BREAKING_HYPHEN:
+                    case ESCAPED_NEWLINE:
+                    case ESCAPED_CARRIAGE_RETURN:
+                    case ESCAPED_LBRACE:
+                    case ESCAPED_RBRACE:
+                    case ESCAPED_BACKSLASH:
+                    case TEXT:
+                    case HEX_CHAR:
+                    case U:
+                    case TAB:
+                    case ZWJ:
+                    case ZWNJ:
+                    case PAR:
+                    case LINE:
+                    case EMDASH:
+                    case ENDASH:
+                    case EMSPACE:
+                    case ENSPACE:
+                    case BULLET:
+                    case LQUOTE:
+                    case RQUOTE:
+                    case LTRMARK:
+                    case RTLMARK:
+                    case LDBLQUOTE:
+                    case RDBLQUOTE:
+                        text();
+                        break;
+                    default:
+                        jj_la1[19] = jj_gen;
+                        throw noViableAlternative();
+                }
+            } catch (ParseException e) {
+                recover(e);
             }
             switch ((jj_ntk == -1) ? nextToken() : jj_ntk) {
                 case LBRACE:
@@ -1277,17 +1652,28 @@ public class RTFParser implements RTFParserDelegate {
                     break;
                 default:
                     jj_la1[20] = jj_gen;
+                    if (_recovering && jj_ntk != RBRACE && jj_ntk != EOF) {
+                        // not allowed here: skipped by the next round
+                        break;
+                    }
                     break label_4;
             }
         }
         rbrace();
+        if (_recovering && ((jj_ntk == -1) ? nextToken() : jj_ntk) != EOF) {
+            // a stray brace closed the document early; what follows is lost
+            addDiagnostic(ParseDiagnostic.UNEXPECTED_TOKEN, getToken(1));
+        }
         _delegate.endDocument();
     }
 
     /**
      * Generated Token Manager.
      */
-    public RTFParserTokenManager token_source;
+    public TokenSource token_source;
+    // token_source if it is the lexer itself, which can scan groups for
+    // the header cache; null for other sources
+    private RTFParserTokenManager lexer;
     SimpleCharStream inputStream;
     /**
      * Current token.
@@ -1342,7 +1728,7 @@ public class RTFParser implements RTFParserDelegate {
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
-        token_source = new RTFParserTokenManager(inputStream);
+        token_source = lexer = new RTFParserTokenManager(inputStream);
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
@@ -1364,11 +1750,15 @@ public class RTFParser implements RTFParserDelegate {
      */
     public void ReInit(InputStream stream, String encoding) {
         try {
-            inputStream.ReInit(stream, encoding, 1, 1);
+            if (inputStream == null) {
+                inputStream = new SimpleCharStream(stream, encoding, 1, 1);
+            } else {
+                inputStream.ReInit(stream, encoding, 1, 1);
+            }
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
-        token_source.ReInit(inputStream);
+        reInitLexer();
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
@@ -1381,7 +1771,7 @@ public class RTFParser implements RTFParserDelegate {
      */
     public RTFParser(Reader stream) {
         inputStream = new SimpleCharStream(stream, 1, 1);
-        token_source = new RTFParserTokenManager(inputStream);
+        token_source = lexer = new RTFParserTokenManager(inputStream);
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
@@ -1393,8 +1783,12 @@ public class RTFParser implements RTFParserDelegate {
      * @param stream Reader
      */
     public void ReInit(Reader stream) {
-        inputStream.ReInit(stream, 1, 1);
-        token_source.ReInit(inputStream);
+        if (inputStream == null) {
+            inputStream = new SimpleCharStream(stream, 1, 1);
+        } else {
+            inputStream.ReInit(stream, 1, 1);
+        }
+        reInitLexer();
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
@@ -1406,7 +1800,18 @@ public class RTFParser implements RTFParserDelegate {
      * @param tm RTFParserTokenManager
      */
     public RTFParser(RTFParserTokenManager tm) {
-        token_source = tm;
+        this((TokenSource) tm);
+    }
+
+    /**
+     * Constructor with any source of tokens, such as a
+     * {@link PipelinedTokenManager}.
+     * @param source the tokens to parse
+     */
+    public RTFParser(TokenSource source) {
+        token_source = source;
+        lexer = source instanceof RTFParserTokenManager
+                ? (RTFParserTokenManager) source : null;
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
@@ -1418,27 +1823,164 @@ public class RTFParser implements RTFParserDelegate {
      * @param tm RTFParserTokenManager
      */
     public void ReInit(RTFParserTokenManager tm) {
-        token_source = tm;
+        ReInit((TokenSource) tm);
+    }
+
+    /**
+     * Reinitialise.
+     * @param source the tokens to parse
+     */
+    public void ReInit(TokenSource source) {
+        token_source = source;
+        lexer = source instanceof RTFParserTokenManager
+                ? (RTFParserTokenManager) source : null;
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
         for (int i = 0; i < 21; i++) jj_la1[i] = -1;
     }
 
+    /**
+     * Points the lexer, creating it if the tokens came from elsewhere, at
+     * the input stream just reinitialised.
+     */
+    private void reInitLexer() {
+        if (lexer == null) {
+            lexer = new RTFParserTokenManager(inputStream);
+        } else {
+            lexer.ReInit(inputStream);
+        }
+        token_source = lexer;
+    }
+
+    private Token fetchToken() {
+        Token t;
+        if (_timedMetrics != null) {
+            long start = System.nanoTime();
+            t = token_source.getNextToken();
+            _timedMetrics.lexingNanos += System.nanoTime() - start;
+            _timedMetrics.tokensByKind[t.kind]++;
+        } else {
+            t = token_source.getNextToken();
+            if (_metrics != null) {
+                _metrics.tokensByKind[t.kind]++;
+            }
+        }
+        if (++_tokenCount >= _tokenCheckpoint) {
+            checkLimits();
+        }
+        return t;
+    }
+
+    private void checkLimits() {
+        if (_cancellation != null && _cancellation.isCancelled()) {
+            throw ParseAbortedException.CANCEL;
+        }
+        if (_limits != null) {
+            long maxTokens = _limits.getMaxTokens();
+            if (maxTokens >= 0 && _tokenCount > maxTokens) {
+                throw ParseAbortedException.limitExceeded(ExtractionLimits.MAX_TOKENS);
+            }
+            long maxMillis = _limits.getMaxTimeMillis();
+            if (maxMillis >= 0 && System.nanoTime() - _startNanos > maxMillis * 1000000L) {
+                throw ParseAbortedException.limitExceeded(ExtractionLimits.MAX_TIME);
+            }
+        }
+        if (_progress != null) {
+            _progress.progress(token_source.getInputPosition());
+        }
+        _tokenCheckpoint = nextTokenCheckpoint();
+    }
+
+    private long nextTokenCheckpoint() {
+        long next = Long.MAX_VALUE;
+        if (_cancellation != null || _progress != null
+                || (_limits != null && _limits.getMaxTimeMillis() >= 0)) {
+            next = _tokenCount + CHECK_INTERVAL;
+        }
+        long maxTokens = _limits == null ? -1 : _limits.getMaxTokens();
+        if (maxTokens >= 0 && maxTokens < next) {
+            next = maxTokens + 1;
+        }
+        return next;
+    }
+
     private Token consumeToken(int kind) throws ParseException {
         Token oldToken;
         if ((oldToken = token).next != null) token = token.next;
-        else token = token.next = token_source.getNextToken();
+        else token = token.next = fetchToken();
         jj_ntk = -1;
         if (token.kind == kind) {
             jj_gen++;
             return token;
         }
         token = oldToken;
+        if (_recovering) {
+            throw RESYNC;
+        }
         jj_kind = kind;
         throw generateParseException();
     }
 
+    /**
+     * Fails a choice when none of its alternatives starts with the next
+     * token: with the shared RESYNC while recovering, which the caller
+     * catches, or else with the tokens that were expected.
+     */
+    private ParseException noViableAlternative() throws ParseException {
+        if (_recovering) {
+            return RESYNC;
+        }
+        return syntaxError(-1);
+    }
+
+    /**
+     * @param kind the token kind that was expected, or -1 for those the
+     * last choice allowed
+     * @return a ParseException for the next token
+     */
+    private ParseException syntaxError(int kind) {
+        getToken(1);
+        jj_kind = kind;
+        return generateParseException();
+    }
+
+    /**
+     * Skips whatever comes before the opening brace of the document,
+     * recording it once. Fails if there is no brace at all, since there is
+     * then no document to recover.
+     */
+    private void skipToDocument() throws ParseException {
+        int kind = (jj_ntk == -1) ? nextToken() : jj_ntk;
+        if (kind == LBRACE) {
+            return;
+        }
+        if (kind != EOF) {
+            addDiagnostic(ParseDiagnostic.UNEXPECTED_TOKEN, getToken(1));
+        }
+        while (kind != LBRACE) {
+            if (kind == EOF) {
+                throw syntaxError(LBRACE);
+            }
+            getNextToken();
+            kind = nextToken();
+        }
+    }
+
+    /**
+     * Returns the parameter of a control word the grammar requires one
+     * for. The lexer reads parameters along with their control words, so
+     * one that is missing is reported here, as a missing CW_VAL.
+     */
+    private int parameter(Token word) throws ParseException {
+        if (word.hasValue) {
+            return word.value;
+        }
+        if (_recovering) {
+            throw RESYNC;
+        }
+        throw syntaxError(CW_VAL);
+    }
 
     /**
      * Get the next Token.
@@ -1446,7 +1988,7 @@ public class RTFParser implements RTFParserDelegate {
      */
     final public Token getNextToken() {
         if (token.next != null) token = token.next;
-        else token = token.next = token_source.getNextToken();
+        else token = token.next = fetchToken();
         jj_ntk = -1;
         jj_gen++;
         return token;
@@ -1461,14 +2003,14 @@ public class RTFParser implements RTFParserDelegate {
         Token t = token;
         for (int i = 0; i < index; i++) {
             if (t.next != null) t = t.next;
-            else t = t.next = token_source.getNextToken();
+            else t = t.next = fetchToken();
         }
         return t;
     }
 
     private int nextToken() {
         if ((jj_nt = token.next) == null)
-            return (jj_ntk = (token.next = token_source.getNextToken()).kind);
+            return (jj_ntk = (token.next = fetchToken()).kind);
         else
             return (jj_ntk = jj_nt.kind);
     }
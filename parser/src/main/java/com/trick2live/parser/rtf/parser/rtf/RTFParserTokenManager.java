@@ -1,13 +1,14 @@
 package com.trick2live.parser.rtf.parser.rtf;
 
-import java.io.IOException;
+import com.trick2live.parser.rtf.cache.ContentHasher;
+
 import java.io.PrintStream;
 
 
 /**
  * Token Manager. generated by javacc
  */
-public class RTFParserTokenManager {
+public class RTFParserTokenManager implements TokenSource {
 
     /**
      * Debug output.
@@ -59,9 +60,7 @@ public class RTFParserTokenManager {
     }
 
     private int jjMoveStringLiteralDfa1_2(long active0) {
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_2(0, active0);
             return 1;
         }
@@ -222,9 +221,7 @@ public class RTFParserTokenManager {
             ++curPos;
             if ((i = jjnewStateCnt) == (startsAt = 3 - (jjnewStateCnt = startsAt)))
                 return curPos;
-            try {
-                curChar = input_stream.readChar();
-            } catch (IOException e) {
+            if (!jjReadChar()) {
                 return curPos;
             }
         }
@@ -256,9 +253,7 @@ public class RTFParserTokenManager {
     }
 
     private int jjMoveStringLiteralDfa1_1(long active0) {
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_1(0, active0);
             return 1;
         }
@@ -287,12 +282,16 @@ public class RTFParserTokenManager {
                 do {
                     switch (jjstateSet[--i]) {
                         case 0:
-                            if ((0x3ff000000000000L & l) != 0L)
+                            if ((0x3ff000000000000L & l) != 0L) {
+                                jjhexValue = (jjhexValue << 4) | jjHexDigit(curChar);
                                 jjstateSet[jjnewStateCnt++] = 1;
+                            }
                             break;
                         case 1:
-                            if ((0x3ff000000000000L & l) != 0L && kind > 22)
+                            if ((0x3ff000000000000L & l) != 0L && kind > 22) {
+                                jjhexValue = (jjhexValue << 4) | jjHexDigit(curChar);
                                 kind = 22;
+                            }
                             break;
                         default:
                             break;
@@ -303,12 +302,16 @@ public class RTFParserTokenManager {
                 do {
                     switch (jjstateSet[--i]) {
                         case 0:
-                            if ((0x7e0000007eL & l) != 0L)
+                            if ((0x7e0000007eL & l) != 0L) {
+                                jjhexValue = (jjhexValue << 4) | jjHexDigit(curChar);
                                 jjstateSet[jjnewStateCnt++] = 1;
+                            }
                             break;
                         case 1:
-                            if ((0x7e0000007eL & l) != 0L && kind > 22)
+                            if ((0x7e0000007eL & l) != 0L && kind > 22) {
+                                jjhexValue = (jjhexValue << 4) | jjHexDigit(curChar);
                                 kind = 22;
+                            }
                             break;
                         default:
                             break;
@@ -335,14 +338,75 @@ public class RTFParserTokenManager {
             ++curPos;
             if ((i = jjnewStateCnt) == (startsAt = 2 - (jjnewStateCnt = startsAt)))
                 return curPos;
-            try {
-                curChar = input_stream.readChar();
-            } catch (IOException e) {
+            if (!jjReadChar()) {
                 return curPos;
             }
         }
     }
 
+    /**
+     * Value of an already validated hex digit: the low nibble is the value
+     * for '0'-'9', letters (bit 6 set) need 9 added.
+     */
+    private static int jjHexDigit(char c) {
+        return (c & 0xf) + (c >> 6) * 9;
+    }
+
+    /**
+     * Reads the optional numeric parameter that follows a control word,
+     * accumulating it as an int. Characters that are not part of the
+     * parameter, including a minus sign with no digits after it, are
+     * pushed back. Sets jjvalueSeen to whether there was a parameter.
+     * @return the parameter value, <code>0</code> if there is none
+     */
+    private int jjScanParameter() {
+        int c = jjReadOrEOF();
+        int pending = 0;
+        boolean negative = c == '-';
+        if (negative) {
+            pending = 1;
+            c = jjReadOrEOF();
+        }
+        if (c < '0' || c > '9') {
+            input_stream.backup(c < 0 ? pending : pending + 1);
+            jjvalueSeen = false;
+            return 0;
+        }
+        jjvalueSeen = true;
+        long v = 0;
+        do {
+            if (v <= Integer.MAX_VALUE) {
+                v = v * 10 + (c - '0');
+            }
+            c = jjReadOrEOF();
+        } while (c >= '0' && c <= '9');
+        if (c >= 0) {
+            input_stream.backup(1);
+        }
+        if (negative) {
+            v = -v;
+        }
+        return v > Integer.MAX_VALUE ? Integer.MAX_VALUE
+                : v < Integer.MIN_VALUE ? Integer.MIN_VALUE : (int) v;
+    }
+
+    private int jjReadOrEOF() {
+        return input_stream.read();
+    }
+
+    /**
+     * Reads the next character into curChar.
+     * @return <code>false</code> at the end of input, leaving curChar as is
+     */
+    private boolean jjReadChar() {
+        int c = input_stream.read();
+        if (c == SimpleCharStream.EOF) {
+            return false;
+        }
+        curChar = (char) c;
+        return true;
+    }
+
     private int jjStopStringLiteralDfa_0(int pos, long active0, long active1) {
         switch (pos) {
             case 0:
@@ -732,9 +796,7 @@ public class RTFParserTokenManager {
     }
 
     private int jjMoveStringLiteralDfa1_0(long active0, long active1) {
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(0, active0, active1);
             return 1;
         }
@@ -790,9 +852,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa2_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(0, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(1, active0, active1);
             return 2;
         }
@@ -854,9 +914,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa3_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(1, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(2, active0, active1);
             return 3;
         }
@@ -906,9 +964,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa4_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(2, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(3, active0, active1);
             return 4;
         }
@@ -950,9 +1006,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa5_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(3, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(4, active0, active1);
             return 5;
         }
@@ -1008,9 +1062,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa6_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(4, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(5, active0, active1);
             return 6;
         }
@@ -1060,9 +1112,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa7_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(5, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(6, active0, active1);
             return 7;
         }
@@ -1106,9 +1156,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa8_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(6, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(7, active0, active1);
             return 8;
         }
@@ -1150,9 +1198,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa9_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(7, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(8, active0, active1);
             return 9;
         }
@@ -1186,9 +1232,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa10_0(long old0, long active0, long old1, long active1) {
         if (((active0 &= old0) | (active1 &= old1)) == 0L)
             return jjStartNfa_0(8, old0, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(9, 0L, active1);
             return 10;
         }
@@ -1222,9 +1266,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa11_0(long old1, long active1) {
         if (((active1 &= old1)) == 0L)
             return jjStartNfa_0(9, 0L, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(10, 0L, active1);
             return 11;
         }
@@ -1246,9 +1288,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa12_0(long old1, long active1) {
         if (((active1 &= old1)) == 0L)
             return jjStartNfa_0(10, 0L, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(11, 0L, active1);
             return 12;
         }
@@ -1270,9 +1310,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa13_0(long old1, long active1) {
         if (((active1 &= old1)) == 0L)
             return jjStartNfa_0(11, 0L, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(12, 0L, active1);
             return 13;
         }
@@ -1292,9 +1330,7 @@ public class RTFParserTokenManager {
     private int jjMoveStringLiteralDfa14_0(long old1, long active1) {
         if (((active1 &= old1)) == 0L)
             return jjStartNfa_0(12, 0L, old1);
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             jjStopStringLiteralDfa_0(13, 0L, active1);
             return 14;
         }
@@ -1312,9 +1348,7 @@ public class RTFParserTokenManager {
     private int jjStartNfaWithStates_0(int pos, int kind, int state) {
         jjmatchedKind = kind;
         jjmatchedPos = pos;
-        try {
-            curChar = input_stream.readChar();
-        } catch (IOException e) {
+        if (!jjReadChar()) {
             return pos + 1;
         }
         return jjMoveNfa_0(state, pos + 1);
@@ -1387,9 +1421,7 @@ public class RTFParserTokenManager {
             ++curPos;
             if ((i = jjnewStateCnt) == (startsAt = 3 - (jjnewStateCnt = startsAt)))
                 return curPos;
-            try {
-                curChar = input_stream.readChar();
-            } catch (IOException e) {
+            if (!jjReadChar()) {
                 return curPos;
             }
         }
@@ -1427,6 +1459,26 @@ public class RTFParserTokenManager {
             null,       null,      null,       null,      null,       null,
     };
 
+    /**
+     * Images of HEX_CHAR tokens, indexed by byte value.
+     */
+    private static final String[] jjhexImages = new String[256];
+
+    /**
+     * Images of the control words with a fixed spelling, indexed by kind.
+     */
+    private static final String[] jjwordImages = new String[RTFParserConstants.CONTROL_WORD];
+
+    static {
+        for (int i = 0; i < jjhexImages.length; i++) {
+            jjhexImages[i] = (i < 16 ? "\\'0" : "\\'") + Integer.toHexString(i);
+        }
+        for (int k = RTFParserConstants.U; k < RTFParserConstants.LC_LETTER; k++) {
+            String quoted = RTFParserConstants.tokenImage[k];
+            jjwordImages[k] = "\\" + quoted.substring(1, quoted.length() - 1);
+        }
+    }
+
     /**
      * Lexer state names.
      */
@@ -1458,6 +1510,13 @@ public class RTFParserTokenManager {
     private int jjimageLen;
     private int lengthOfMatch;
     protected char curChar;
+    // hex digits of the HEX_CHAR being matched, accumulated by jjMoveNfa_1
+    private int jjhexValue;
+    // whether jjMatchedValue read a value, rather than defaulting to 0
+    private boolean jjvalueSeen;
+
+    // whether input that matches no token becomes TEXT instead of an error
+    private boolean lenient;
 
     /**
      * Constructor.
@@ -1501,6 +1560,22 @@ public class RTFParserTokenManager {
         SwitchTo(lexState);
     }
 
+    /**
+     * Sets whether lexical errors are recovered from. In lenient mode,
+     * characters that match no token (such as a <code>\'</code> not
+     * followed by two hex digits, or a backslash at the end of input) are
+     * returned as a TEXT token instead of throwing a TokenMgrError, and
+     * lexing goes on in the default state.
+     * @param lenient <code>true</code> to recover from lexical errors
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    public boolean isLenient() {
+        return lenient;
+    }
+
     /**
      * Switch to specified lex state.
      */
@@ -1519,6 +1594,12 @@ public class RTFParserTokenManager {
         final int beginColumn;
         final int endColumn;
         String im = jjstrLiteralImages[jjmatchedKind];
+        if (jjmatchedKind == RTFParserConstants.HEX_CHAR) {
+            im = jjhexImages[jjhexValue & 0xff];
+        } else if (jjmatchedKind < jjwordImages.length && jjwordImages[jjmatchedKind] != null
+                && jjwordImages[jjmatchedKind].length() == input_stream.getImageLength()) {
+            im = jjwordImages[jjmatchedKind];
+        }
         curTokenImage = (im == null) ? input_stream.GetImage() : im;
         beginLine = input_stream.getBeginLine();
         beginColumn = input_stream.getBeginColumn();
@@ -1530,6 +1611,7 @@ public class RTFParserTokenManager {
         t.endLine = endLine;
         t.beginColumn = beginColumn;
         t.endColumn = endColumn;
+        t.beginOffset = input_stream.getBeginOffset();
 
         return t;
     }
@@ -1547,17 +1629,172 @@ public class RTFParserTokenManager {
      */
     public Token getNextToken() {
         Token matchedToken;
+        int kind = jjMatchNextToken();
+        if (kind == 0) {
+            matchedToken = jjFillToken();
+            matchedToken.beginOffset = input_stream.getPosition();
+            return matchedToken;
+        }
+        matchedToken = jjFillToken();
+        TokenLexicalActions(matchedToken);
+        if (jjHasValue(kind)) {
+            matchedToken.value = jjMatchedValue(kind);
+            matchedToken.hasValue = jjvalueSeen;
+            matchedToken.endLine = input_stream.getEndLine();
+            matchedToken.endColumn = input_stream.getEndColumn();
+        }
+        return matchedToken;
+    }
+
+    /**
+     * Reads the rest of the current group, up to and including its closing
+     * brace, without lexing it, and adds the characters read to
+     * <code>hasher</code>. Escaped braces are told apart from real ones;
+     * nothing else is interpreted. If the group isn't closed within
+     * <code>maxChars</code> characters or before the end of input, nothing
+     * is consumed.
+     * @param hasher receives each character as two bytes, high byte first
+     * @param maxChars the maximum number of characters to read
+     * @return the number of characters read, or <code>-1</code>
+     */
+    public int scanGroup(ContentHasher hasher, int maxChars) {
+        int depth = 1;
+        int count = 0;
+        int c = input_stream.beginToken();
+        while (c != SimpleCharStream.EOF && count < maxChars) {
+            count++;
+            hasher.update(c >>> 8);
+            hasher.update(c);
+            if (c == '\\') {
+                // whatever follows a backslash is not a group delimiter
+                if ((c = input_stream.read()) == SimpleCharStream.EOF) {
+                    break;
+                }
+                count++;
+                hasher.update(c >>> 8);
+                hasher.update(c);
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return count;
+            }
+            c = input_stream.read();
+        }
+        // past maxChars, c has been read but not counted
+        input_stream.backup(c == SimpleCharStream.EOF ? count : count + 1);
+        return -1;
+    }
+
+    /**
+     * Undoes a {@link #scanGroup}, so the group is lexed as usual.
+     * @param count the value scanGroup returned
+     */
+    public void unscanGroup(int count) {
+        input_stream.backup(count);
+    }
+
+    /**
+     * Continues after a group consumed by {@link #scanGroup}, in the state
+     * the lexer is in after a closing brace.
+     */
+    public void skipScannedGroup() {
+        curLexState = RTFParserConstants.DEFAULT;
+    }
+
+    /**
+     * Returns how far the input has been read.
+     *
+     * @return the number of characters consumed from the input stream
+     */
+    public long getInputPosition() {
+        return input_stream.getPosition();
+    }
+
+    /**
+     * Lexes tokens into <code>tape</code> until it is full or the end of
+     * input has been recorded. No <code>Token</code> objects are created.
+     * This is the lexer for single-pass readers such as
+     * {@link RTFMetadataScanner}; it does not feed {@link RTFParser}.
+     * @param tape the tape to append to
+     * @return the number of tokens appended
+     */
+    public int fillTape(TokenTape tape) {
+        int added = 0;
+        while (!tape.isFull()) {
+            int kind = jjMatchNextToken();
+            String im = kind == 0 ? "" : jjtokenImage(kind);
+            int start;
+            int len;
+            if (im != null) {
+                len = im.length();
+                start = tape.reserve(len);
+                im.getChars(0, len, tape.chars(), start);
+            } else {
+                start = tape.reserve(input_stream.getImageLength());
+                len = input_stream.getImage(tape.chars(), start);
+            }
+            tape.commit(kind, start, len, jjHasValue(kind) ? jjMatchedValue(kind) : 0);
+            added++;
+            if (kind == 0) {
+                break;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Tells whether tokens of this kind carry a value: HEX_CHAR and every
+     * control word.
+     */
+    private static boolean jjHasValue(int kind) {
+        return kind == RTFParserConstants.HEX_CHAR
+                || (kind >= RTFParserConstants.U && kind <= RTFParserConstants.CONTROL_WORD
+                    && kind != RTFParserConstants.LC_LETTER);
+    }
+
+    /**
+     * Returns the value of the token just matched: the byte of a HEX_CHAR,
+     * or the parameter of a control word, which is consumed from the input
+     * here so no separate CW_VAL token is produced. Call only after the
+     * token image has been taken.
+     *
+     * <p>A control word ends at a space, which is consumed, or at any
+     * other character, which is not: after <code>&#92;u1040?</code> the
+     * <code>?</code> is text, the fallback character to skip.</p>
+     */
+    private int jjMatchedValue(int kind) {
+        if (kind == RTFParserConstants.HEX_CHAR) {
+            jjvalueSeen = true;
+            return jjhexValue & 0xff;
+        }
+        int v = jjScanParameter();
+        int c = jjReadOrEOF();
+        if (c >= 0 && c != ' ') {
+            input_stream.backup(1);
+        }
+        curLexState = RTFParserConstants.DEFAULT;
+        return v;
+    }
+
+    /**
+     * Matches the next token, leaving its characters current in the input
+     * stream and its kind in jjmatchedKind.
+     * @return the kind of the matched token, <code>0</code> at end of input
+     */
+    private int jjMatchNextToken() {
         int curPos = 0;
 
         EOFLoop:
         for (; ;) {
-            try {
-                curChar = input_stream.BeginToken();
-            } catch (IOException e) {
+            int c = input_stream.beginToken();
+            if (c == SimpleCharStream.EOF) {
+                if (input_stream.getIOError() != null) {
+                    throw new InputReadException(input_stream.getIOError());
+                }
                 jjmatchedKind = 0;
-                matchedToken = jjFillToken();
-                return matchedToken;
+                return 0;
             }
+            curChar = (char) c;
             image = jjimage;
             image.setLength(0);
             jjimageLen = 0;
@@ -1578,15 +1815,22 @@ public class RTFParserTokenManager {
                         curPos = jjMoveStringLiteralDfa0_1();
                         break;
                     case 2:
-                        try {
-                            input_stream.backup(0);
-                            while (curChar <= 13 && (0x2600L & (1L << curChar)) != 0L)
-                                curChar = input_stream.BeginToken();
-                        } catch (IOException e1) {
-                            continue EOFLoop;
+                        input_stream.backup(0);
+                        while (curChar <= 13 && (0x2600L & (1L << curChar)) != 0L) {
+                            if ((c = input_stream.beginToken()) == SimpleCharStream.EOF)
+                                continue EOFLoop;
+                            curChar = (char) c;
                         }
                         jjmatchedKind = 0x7fffffff;
                         jjmatchedPos = 0;
+                        if (curChar != '\\' && curChar != '{' && curChar != '}') {
+                            // anything else starts TEXT: take the whole run at
+                            // once rather than stepping jjMoveNfa_2 per char
+                            input_stream.readTextRun();
+                            jjmatchedKind = 20;
+                            curPos = 1;
+                            break;
+                        }
                         curPos = jjMoveStringLiteralDfa0_2();
                         break;
                 }
@@ -1594,11 +1838,9 @@ public class RTFParserTokenManager {
                     if (jjmatchedPos + 1 < curPos)
                         input_stream.backup(curPos - jjmatchedPos - 1);
                     if ((jjtoToken[jjmatchedKind >> 6] & (1L << (jjmatchedKind & 077))) != 0L) {
-                        matchedToken = jjFillToken();
-                        TokenLexicalActions(matchedToken);
                         if (jjnewLexState[jjmatchedKind] != -1)
                             curLexState = jjnewLexState[jjmatchedKind];
-                        return matchedToken;
+                        return jjmatchedKind;
                     } else if ((jjtoSkip[jjmatchedKind >> 6] & (1L << (jjmatchedKind & 077))) != 0L) {
                         if (jjnewLexState[jjmatchedKind] != -1)
                             curLexState = jjnewLexState[jjmatchedKind];
@@ -1609,21 +1851,19 @@ public class RTFParserTokenManager {
                         curLexState = jjnewLexState[jjmatchedKind];
                     curPos = 0;
                     jjmatchedKind = 0x7fffffff;
-                    try {
-                        curChar = input_stream.readChar();
+                    if (jjReadChar())
                         continue;
-                    } catch (IOException e1) {
-                        e1.printStackTrace();
-                    }
+                }
+                if (lenient) {
+                    return jjRecoverAsText(curPos);
                 }
                 int error_line = input_stream.getEndLine();
                 int error_column = input_stream.getEndColumn();
                 String error_after = null;
                 boolean EOFSeen = false;
-                try {
-                    input_stream.readChar();
+                if (input_stream.read() != SimpleCharStream.EOF) {
                     input_stream.backup(1);
-                } catch (IOException e1) {
+                } else {
                     EOFSeen = true;
                     error_after = curPos <= 1 ? "" : input_stream.GetImage();
                     if (curChar == '\n' || curChar == '\r') {
@@ -1641,6 +1881,54 @@ public class RTFParserTokenManager {
         }
     }
 
+    /**
+     * Turns the characters of a failed match into a TEXT token: the prefix
+     * matched so far (such as <code>\'</code>) and the first character
+     * after it, unless that one is a backslash or a brace, which is left
+     * to start the next token.
+     * @param curPos the number of characters read after the prefix
+     * @return the TEXT kind
+     */
+    private int jjRecoverAsText(int curPos) {
+        if (curPos > 0) {
+            input_stream.backup(curPos - 1);
+            char first = input_stream.buffer[input_stream.bufpos];
+            if ((first == '\\' || first == '{' || first == '}')
+                    && input_stream.getImageLength() > 1) {
+                input_stream.backup(1);
+            }
+        }
+        if (input_stream.getIOError() != null) {
+            throw new InputReadException(input_stream.getIOError());
+        }
+        curLexState = RTFParserConstants.DEFAULT;
+        jjmatchedKind = RTFParserConstants.TEXT;
+        return RTFParserConstants.TEXT;
+    }
+
+    /**
+     * Returns the image a token of the given kind always has, or
+     * <code>null</code> if it has to be taken from the input.
+     */
+    private static String jjtokenImage(int kind) {
+        switch (kind) {
+            case 8:
+                return "\u00a0";
+            case 9:
+                return "\u00ad";
+            case 10:
+                return "\u2011";
+            case 16:
+                return "{";
+            case 17:
+                return "}";
+            case 18:
+                return "\\";
+            default:
+                return jjstrLiteralImages[kind];
+        }
+    }
+
     void TokenLexicalActions(Token matchedToken) {
         switch (jjmatchedKind) {
             case 8:
@@ -3,11 +3,14 @@ package com.trick2live.parser.rtf.parser.rtf;
 
 
 import com.trick2live.parser.rtf.common.Constants;
+import com.trick2live.parser.rtf.exception.ExtractionCancelledException;
+import com.trick2live.parser.rtf.exception.ExtractionLimitException;
 import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
 
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -17,6 +20,24 @@ public class RTFPlainTextExtractor
   implements SpecificPlainTextExtractor,
              RTFParserDelegate {
     private StringWriter buffer = null;
+    private AsyncWriter asyncOutput = null;
+    private boolean pipelined;
+    private int maxLength = -1;
+    private int written;
+    private ExtractionLimits limits;
+    private CancellationToken cancellation;
+    private ProgressListener progress;
+    private boolean lenient;
+    private HeaderCache headerCache;
+    private MetricsListener metricsListener;
+    private boolean metricsTimed = true;
+    private ParseMetrics metrics;
+    private ExtractionTracer tracer;
+    private RTFParser parser;
+    private long skipStart;
+    private long skipTokens;
+    private Object destinationSpan;
+    private List<ParseDiagnostic> diagnostics = Collections.emptyList();
     private boolean inIgnorableDestination;
     private int ignorableDestBraceLevel;
     private int braceLevel;
@@ -24,6 +45,134 @@ public class RTFPlainTextExtractor
     public RTFPlainTextExtractor() {
     }
 
+    /**
+     * Sets whether lexing, parsing and output writing run as separate
+     * pipeline stages on their own threads. This pays off for large
+     * documents on multi-core machines; small documents are faster
+     * without it.
+     *
+     * @param pipelined <code>true</code> to run the stages concurrently
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Sets the maximum number of characters to extract. Once that much
+     * document text has been written, parsing stops at once and the rest
+     * of the input is not read; meant for previews of large documents.
+     *
+     * @param maxLength the number of characters, or <code>-1</code> to
+     * extract the whole text
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Sets bounds on the input size, group depth, number of tokens and
+     * time of an extraction. When one is exceeded, extraction stops with
+     * an {@link ExtractionLimitException}.
+     *
+     * @param limits the limits, or <code>null</code> for none
+     */
+    public void setLimits(ExtractionLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Sets the token through which another thread can stop the
+     * extraction. A cancelled extraction fails with an
+     * {@link ExtractionCancelledException}.
+     *
+     * @param cancellation the token, or <code>null</code>
+     */
+    public void setCancellationToken(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Sets the listener that is told how much of the input has been
+     * consumed, every few thousand tokens.
+     *
+     * @param progress the listener, or <code>null</code>
+     */
+    public void setProgressListener(ProgressListener progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Sets whether malformed input is tolerated. In lenient mode, stray
+     * characters that form no valid RTF token are extracted as text, and
+     * syntax errors are skipped up to the next group boundary and recorded
+     * in {@link #getDiagnostics()} instead of failing the extraction.
+     *
+     * @param lenient <code>true</code> to tolerate malformed input
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * Sets the cache of font tables, stylesheets and color tables shared
+     * with other extractions. Documents made from the same template then
+     * skip the tables they have in common. Not used in pipelined mode.
+     *
+     * @param headerCache the cache, or <code>null</code> for none
+     */
+    public void setHeaderCache(HeaderCache headerCache) {
+        this.headerCache = headerCache;
+    }
+
+    /**
+     * Sets the listener told the {@link ParseMetrics} of every extracted
+     * document. Without one, nothing is measured.
+     *
+     * @param metricsListener the listener, or <code>null</code>
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets whether the metrics time lexing, decoding and writing, which
+     * reads the clock around every token, or only count tokens, groups and
+     * bytes. Timed by default.
+     *
+     * @param metricsTimed <code>false</code> to only count
+     */
+    public void setMetricsTimed(boolean metricsTimed) {
+        this.metricsTimed = metricsTimed;
+    }
+
+    public boolean isMetricsTimed() {
+        return metricsTimed;
+    }
+
+    /**
+     * Sets the tracer told when the extraction, the parse, the header
+     * tables and the skipped destinations start and end.
+     *
+     * @param tracer the tracer, or <code>null</code> for none
+     */
+    public void setTracer(ExtractionTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Returns the syntax errors the last lenient extraction recovered from.
+     *
+     * @return the diagnostics, in document order; empty if there were none
+     * or the extractor is not lenient
+     */
+    public List<ParseDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
     /**
      * Extracts a plain text from an RTF document.
      *
@@ -39,29 +188,207 @@ public class RTFPlainTextExtractor
         // TODO: 'Special' symbols like '(c)', '--' and so on
         braceLevel = 0;
         inIgnorableDestination = false;
+        written = 0;
+        diagnostics = Collections.emptyList();
+        metrics = metricsListener == null ? null : new ParseMetrics(metricsTimed);
+        long started = System.currentTimeMillis();
+        LimitedInputStream counted = null;
+        if (limits != null) {
+            input = counted = new LimitedInputStream(input, limits.getMaxInputBytes());
+        }
+        Object span = tracer == null ? null : tracer.begin(ExtractionTracer.EXTRACTION, null);
+        destinationSpan = null;
+        try {
+            if (pipelined) {
+                extractPipelined(input, output, counted, started);
+            } else {
+                extractBuffered(input, output, counted, started);
+            }
+            if (metrics != null) {
+                metrics.completed = true;
+            }
+        } finally {
+            if (span != null) {
+                if (destinationSpan != null) {
+                    endDestination();
+                }
+                tracer.end(span, parser == null ? 0 : parser.token_source.getInputPosition(),
+                        parser == null ? 0 : parser.getTokenCount());
+            }
+            parser = null;
+            if (metrics != null) {
+                metrics.textLength = written;
+                metricsListener.documentParsed(metrics);
+                metrics = null;
+            }
+        }
+    }
+
+    private void extractBuffered(InputStream input, Writer output,
+                                 LimitedInputStream counted, long started)
+            throws PlainTextExtractorException {
         buffer = new StringWriter();
-        RTFParser parser = new RTFParser(input);
+        RTFParserTokenManager lexer =
+                new RTFParserTokenManager(new SimpleCharStream(input, 1, 1));
+        lexer.setLenient(lenient);
+        RTFParser parser = new RTFParser(lexer);
 
         parser.setNewLine(Constants.EOL);
         parser.setDelegate(this);
+        configure(parser);
         try {
-            parser.parse();
+            try {
+                parser.parse();
+            } catch (ParseAbortedException e) {
+                checkAborted(e, parser, counted, started);
+            }
+            diagnostics = parser.getDiagnostics();
+            long start = System.nanoTime();
             output.write(buffer.toString());
+            if (metrics != null) {
+                long nanos = System.nanoTime() - start;
+                if (metrics.timed) {
+                    metrics.writingNanos += nanos;
+                }
+                metrics.totalNanos += nanos;
+            }
+        } catch (PlainTextExtractorException e) {
+            throw e;
+        } catch (InputReadException e) {
+            throw new PlainTextExtractorException(e.getCause());
+        } catch (Exception e) {
+            throw new PlainTextExtractorException(e);
+        }
+    }
+
+    /**
+     * Reads the title, author, dates, codepage and font table of an RTF
+     * document without extracting its text. Only the document header is
+     * lexed: scanning stops where the body starts, so the cost does not
+     * grow with the document size.
+     *
+     * @param input the input stream that supplies an RTF document
+     * @return the document metadata
+     * @throws PlainTextExtractorException throwed on exception raised during
+     * scanning
+     */
+    public RTFMetadata scanMetadata(InputStream input)
+            throws PlainTextExtractorException {
+        try {
+            return new RTFMetadataScanner().scan(input);
         } catch (Exception e) {
             throw new PlainTextExtractorException(e);
         }
     }
 
+    private void extractPipelined(InputStream input, Writer output,
+                                  LimitedInputStream counted, long started)
+            throws PlainTextExtractorException {
+        PipelinedTokenManager tokens =
+                new PipelinedTokenManager(new SimpleCharStream(input, 1, 1), lenient);
+        RTFParser parser = new RTFParser(tokens);
+
+        parser.setNewLine(Constants.EOL);
+        parser.setDelegate(this);
+        configure(parser);
+        buffer = null;
+        asyncOutput = new AsyncWriter(output);
+        tokens.start();
+        try {
+            try {
+                parser.parse();
+            } catch (ParseAbortedException e) {
+                checkAborted(e, parser, counted, started);
+            }
+            diagnostics = parser.getDiagnostics();
+            long start = System.nanoTime();
+            asyncOutput.close();
+            if (metrics != null) {
+                long nanos = System.nanoTime() - start;
+                if (metrics.timed) {
+                    metrics.writingNanos += nanos;
+                }
+                metrics.totalNanos += nanos;
+            }
+        } catch (PlainTextExtractorException e) {
+            asyncOutput.abort();
+            throw e;
+        } catch (InputReadException e) {
+            asyncOutput.abort();
+            throw new PlainTextExtractorException(e.getCause());
+        } catch (Exception e) {
+            asyncOutput.abort();
+            throw new PlainTextExtractorException(e);
+        } finally {
+            tokens.close();
+            asyncOutput = null;
+        }
+    }
+
+    private void configure(RTFParser parser) {
+        this.parser = parser;
+        parser.setMetrics(metrics);
+        parser.setTracer(tracer);
+        parser.setErrorRecovery(lenient);
+        parser.setHeaderCache(headerCache);
+        parser.setLimits(limits);
+        parser.setCancellationToken(cancellation);
+        parser.setProgressListener(progress);
+    }
+
+    /**
+     * Handles an aborted parse: returns if the output limit was reached,
+     * so the text extracted so far is kept, and throws otherwise.
+     */
+    private void checkAborted(ParseAbortedException e, RTFParser parser,
+                              LimitedInputStream counted, long started)
+            throws PlainTextExtractorException {
+        if (e.getReason() == ParseAbortedException.OUTPUT_LIMIT_REACHED) {
+            return;
+        }
+        if (e.getReason() == ParseAbortedException.CANCELLED) {
+            throw new ExtractionCancelledException(e.getMessage());
+        }
+        throw new ExtractionLimitException(e.getMessage(), e.getLimit(),
+                counted == null ? -1 : counted.getCount(), parser.getTokenCount(),
+                written, System.currentTimeMillis() - started);
+    }
+
     private void tryToWriteOutput(String str, int context) {
         if (context == IN_DOCUMENT) {
             if (!inIgnorableDestination) {
-                if (buffer != null) {
-                    buffer.write(str);
+                boolean full = false;
+                if (maxLength >= 0 && written + str.length() >= maxLength) {
+                    int end = maxLength - written;
+                    if (end > 0 && Character.isHighSurrogate(str.charAt(end - 1))) {
+                        end--;
+                    }
+                    str = str.substring(0, end);
+                    full = true;
+                }
+                written += str.length();
+                if (metrics == null || !metrics.timed) {
+                    write(str);
+                } else {
+                    long start = System.nanoTime();
+                    write(str);
+                    metrics.writingNanos += System.nanoTime() - start;
+                }
+                if (full) {
+                    throw ParseAbortedException.OUTPUT_LIMIT;
                 }
             }
         }
     }
 
+    private void write(String str) {
+        if (buffer != null) {
+            buffer.write(str);
+        } else if (asyncOutput != null) {
+            asyncOutput.write(str);
+        }
+    }
+
     public void text(String text, String style, int context) {
         tryToWriteOutput(text, context);
     }
@@ -72,8 +399,7 @@ public class RTFPlainTextExtractor
             if (inIgnorableDestination) {
                 // Do nothing: just continue to ignore
             } else {
-                inIgnorableDestination = true;
-                ignorableDestBraceLevel = braceLevel;
+                enterIgnorableDestination();
             }
         }
     }
@@ -88,12 +414,29 @@ public class RTFPlainTextExtractor
             if (inIgnorableDestination) {
                 // Do nothing: just continue to ignore
             } else {
-                inIgnorableDestination = true;
-                ignorableDestBraceLevel = braceLevel;
+                enterIgnorableDestination();
             }
         }
     }
 
+    private void enterIgnorableDestination() {
+        inIgnorableDestination = true;
+        ignorableDestBraceLevel = braceLevel;
+        skipStart = parser.getTokenOffset();
+        if (tracer != null) {
+            // the destination is named by the control word after \*
+            Token name = parser.token.image.equals("\\*") ? parser.getToken(1) : parser.token;
+            destinationSpan = tracer.begin(ExtractionTracer.DESTINATION, name.image);
+            skipTokens = parser.getTokenCount();
+        }
+    }
+
+    private void endDestination() {
+        tracer.end(destinationSpan, parser.getTokenOffset() - skipStart,
+                parser.getTokenCount() - skipTokens);
+        destinationSpan = null;
+    }
+
     public void openGroup(int depth) {
         braceLevel++;
     }
@@ -102,6 +445,12 @@ public class RTFPlainTextExtractor
         braceLevel--;
         if (inIgnorableDestination && braceLevel < ignorableDestBraceLevel) {
             inIgnorableDestination = false;
+            if (metrics != null) {
+                metrics.skippedBytes += parser.getTokenOffset() - skipStart;
+            }
+            if (destinationSpan != null) {
+                endDestination();
+            }
         }
     }
 
@@ -0,0 +1,377 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the lexer and the parser over an embedded synthetic corpus until
+ * the JIT has compiled them, so that a freshly started server answers its
+ * first requests at full speed instead of running the large generated
+ * methods of {@link RTFParserTokenManager} and {@link RTFParser}
+ * interpreted for the first few thousand documents.
+ *
+ * <p>The corpus covers every lexical state and every production: the
+ * header tables, all document charsets, single and double byte codepages,
+ * <code>&#92;u</code> with every <code>&#92;uc</code> count, control symbols and
+ * special characters, character styles, tables, fields, lists, pictures,
+ * ignorable destinations and deep nesting. It is extracted in rounds:
+ * buffered, with a header cache, pipelined, leniently from malformed
+ * copies, and by the metadata scanner.</p>
+ *
+ * <p>Compilation counts as stable once the last few rounds all ran within
+ * a small margin of the fastest round so far and, where the JVM reports
+ * compilation time, once the compilers spent next to none of those rounds
+ * working. Android reports no compilation time, and compiles ahead of time
+ * anyway; there only the round times count.</p>
+ *
+ * <pre>
+ * RTFWarmup warmup = RTFWarmup.run(30, TimeUnit.SECONDS);
+ * if (!warmup.isStable()) {
+ *     log.warn("still compiling after warm-up: " + warmup);
+ * }
+ * </pre>
+ */
+public final class RTFWarmup {
+
+    // rounds always run, however stable the first ones look
+    private static final int MIN_ROUNDS = 5;
+    // consecutive steady rounds needed to call compilation stable
+    private static final int STABLE_ROUNDS = 3;
+    // how much slower than the fastest round a steady round may be
+    private static final double ROUND_TOLERANCE = 0.10;
+    // the share of a steady round the compilers may spend working
+    private static final double COMPILATION_TOLERANCE = 0.05;
+
+    private static final Object COMPILATION;
+    private static final Method COMPILATION_TIME;
+
+    static {
+        Object compilation = null;
+        Method compilationTime = null;
+        try {
+            Class<?> type = Class.forName("java.lang.management.CompilationMXBean");
+            Object bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getCompilationMXBean").invoke(null);
+            if (bean != null && (Boolean) type.getMethod(
+                    "isCompilationTimeMonitoringSupported").invoke(bean)) {
+                compilation = bean;
+                compilationTime = type.getMethod("getTotalCompilationTime");
+            }
+        } catch (Exception e) {
+            compilationTime = null;
+        }
+        COMPILATION = compilation;
+        COMPILATION_TIME = compilationTime;
+    }
+
+    private final int rounds;
+    private final long elapsedNanos;
+    private final long roundNanos;
+    private final long compilationMillis;
+    private final boolean stable;
+
+    private RTFWarmup(int rounds, long elapsedNanos, long roundNanos,
+                      long compilationMillis, boolean stable) {
+        this.rounds = rounds;
+        this.elapsedNanos = elapsedNanos;
+        this.roundNanos = roundNanos;
+        this.compilationMillis = compilationMillis;
+        this.stable = stable;
+    }
+
+    /**
+     * Warms the parser up on the calling thread, until compilation is
+     * stable or <code>timeout</code> has passed, whichever comes first.
+     * Safe to call while other threads extract.
+     *
+     * @param timeout the longest to run
+     * @param unit the unit of <code>timeout</code>
+     * @return how the warm-up went
+     */
+    public static RTFWarmup run(long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        byte[][] corpus = corpus();
+        byte[][] malformed = malformed(corpus);
+        HeaderCache headerCache = new HeaderCache();
+
+        long compiledBefore = compilationMillis();
+        long compiled = compiledBefore;
+        long fastest = Long.MAX_VALUE;
+        long last = 0;
+        int steady = 0;
+        int rounds = 0;
+        while (rounds < MIN_ROUNDS || steady < STABLE_ROUNDS) {
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+            long roundStart = System.nanoTime();
+            round(corpus, malformed, headerCache);
+            last = System.nanoTime() - roundStart;
+            rounds++;
+
+            long compiledNow = compilationMillis();
+            boolean quiet = compiledNow < 0 || compiledNow - compiled
+                    <= TimeUnit.NANOSECONDS.toMillis(last) * COMPILATION_TOLERANCE;
+            compiled = compiledNow;
+            fastest = Math.min(fastest, last);
+            if (quiet && last <= fastest * (1 + ROUND_TOLERANCE)) {
+                steady++;
+            } else {
+                steady = 0;
+            }
+        }
+        return new RTFWarmup(rounds, System.nanoTime() - start, last,
+                compiled < 0 ? -1 : compiled - compiledBefore,
+                rounds >= MIN_ROUNDS && steady >= STABLE_ROUNDS);
+    }
+
+    /**
+     * @return whether compilation had stabilized when the warm-up ended;
+     * <code>false</code> if it ran out of time first
+     */
+    public boolean isStable() {
+        return stable;
+    }
+
+    /**
+     * @return the number of times the corpus was extracted
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return how long the warm-up took, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return how long the last round took, in microseconds
+     */
+    public long getRoundMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(roundNanos);
+    }
+
+    /**
+     * @return the time the JIT compilers spent compiling during the
+     * warm-up, in milliseconds and summed over compiler threads, or
+     * <code>-1</code> if the JVM can't tell
+     */
+    public long getCompilationMillis() {
+        return compilationMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(stable ? "stable" : "not stable").append(" after ").append(rounds)
+                .append(" rounds in ").append(getElapsedMillis()).append(" ms, last round ")
+                .append(getRoundMicros()).append(" us");
+        if (compilationMillis >= 0) {
+            s.append(", ").append(compilationMillis).append(" ms compiling");
+        }
+        return s.toString();
+    }
+
+    private static long compilationMillis() {
+        if (COMPILATION_TIME == null) {
+            return -1;
+        }
+        try {
+            return (Long) COMPILATION_TIME.invoke(COMPILATION);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static void round(byte[][] corpus, byte[][] malformed, HeaderCache headerCache) {
+        Writer sink = new NullWriter();
+        RTFPlainTextExtractor buffered = new RTFPlainTextExtractor();
+        RTFPlainTextExtractor cached = new RTFPlainTextExtractor();
+        cached.setHeaderCache(headerCache);
+        RTFPlainTextExtractor pipelined = new RTFPlainTextExtractor();
+        pipelined.setPipelined(true);
+        RTFPlainTextExtractor lenient = new RTFPlainTextExtractor();
+        lenient.setLenient(true);
+        try {
+            for (int i = 0; i < corpus.length; i++) {
+                buffered.extract(new ByteArrayInputStream(corpus[i]), sink, null);
+                cached.extract(new ByteArrayInputStream(corpus[i]), sink, null);
+                buffered.scanMetadata(new ByteArrayInputStream(corpus[i]));
+                // the pipeline starts two threads; the large documents will do
+                if (corpus[i].length > LARGE) {
+                    pipelined.extract(new ByteArrayInputStream(corpus[i]), sink, null);
+                }
+            }
+        } catch (PlainTextExtractorException e) {
+            throw new IllegalStateException("the warm-up corpus failed to parse", e);
+        }
+        for (int i = 0; i < malformed.length; i++) {
+            try {
+                lenient.extract(new ByteArrayInputStream(malformed[i]), sink, null);
+            } catch (PlainTextExtractorException e) {
+                // as expected of some; the error paths are warmed up too
+            }
+        }
+    }
+
+    // document charsets, and the codepages declared with them
+    private static final String[] CHARSETS = {"ansi", "ansi", "pc", "pca", "mac"};
+    private static final int[] CODEPAGES = {1252, 1251, 0, 0, 0};
+    private static final int[] SIZES = {1 << 10, 8 << 10, 64 << 10};
+    private static final int LARGE = 32 << 10;
+
+    private static final String HEADER_TABLES =
+            "{\\fonttbl{\\f0\\froman\\fcharset0\\fprq2 Times New Roman;}"
+            + "{\\f1\\fswiss\\fcharset204{\\*\\panose 020b0604020202020204}Arial;}"
+            + "{\\f2\\fnil\\fcharset128\\fprq1 MS Mincho;}"
+            + "{\\f3\\fnil\\fcharset2 Symbol;}}\n"
+            + "{\\colortbl;\\red0\\green0\\blue0;\\red255\\green0\\blue0;}\n"
+            + "{\\stylesheet{\\ql\\li0\\ri0\\widctlpar\\f0\\fs24 \\snext0 Normal;}"
+            + "{\\*\\cs10 \\additive\\b\\f1 Strong;}}\n"
+            + "{\\*\\listtable{\\list\\listtemplateid1{\\listlevel\\levelnfc23"
+            + "{\\leveltext\\'01\\u-3913?;}{\\levelnumbers;}\\f3}{\\listname ;}\\listid1}}\n"
+            + "{\\*\\revtbl{Unknown;}}\n"
+            + "{\\info{\\title Warm-up}{\\author RTFWarmup}"
+            + "{\\creatim\\yr2020\\mo1\\dy2\\hr3\\min4}}\n"
+            + "{\\*\\generator RTFWarmup;}\\paperw12240\\paperh15840\\margl1440\\margr1440\n"
+            + "{\\*\\pnseclvl1\\pnucrm\\pnstart1\\pnindent720\\pnhang{\\pntxta .}}\n"
+            + "\\sectd\\sectspecifygenN1\\pard\\plain ";
+
+    private static final String[] BODY = {
+        // formatting
+        "\\pard\\plain\\s0\\ql\\f0\\fs24 The quick {\\b brown} {\\i fox} jumps "
+                + "{\\ul over} the {\\f1\\fs20 lazy} dog.\\par\n",
+        // special characters
+        "\\pard Tab\\tab dash\\emdash\\endash space\\emspace\\enspace\\bullet "
+                + "\\lquote q\\rquote \\ldblquote dq\\rdblquote \\ltrmark\\rtlmark "
+                + "a\\zwj b\\zwnj c\\line end\\par\n",
+        // escapes and control symbols
+        "\\pard Braces \\{ \\} backslash \\\\ non\\~breaking op\\-tional "
+                + "non\\_breaking \\|\\: escaped\\\nnewline\\\r\nreturn\\par\n",
+        // single byte codepages, the document's and a font's
+        "\\pard caf\\'e9 na\\'efve {\\f1 \\'cf\\'f0\\'e8\\'e2\\'e5\\'f2} \\'80\\par\n",
+        // a double byte codepage
+        "\\pard{\\f2 \\'93\\'fa\\'96\\'7b\\'8c\\'ea}\\par\n",
+        // unicode, with every fallback count
+        "\\pard{\\uc1 \\u1055\\'cf\\u1088\\'f0\\u1080?\\u-3913?}{\\uc2 \\u8364\\'80\\'80}"
+                + "{\\uc0 \\u20013\\u25991} \\u233\\'e9\\par\n",
+        // a table
+        "\\trowd\\trgaph108\\trleft-108\\trftsWidth1\\trwWidth0\\trftsWidthB3"
+                + "\\trwWidthB0\\trftsWidthA3\\trwWidthA0\\tdfrmtxtLeft180"
+                + "\\tdfrmtxtRight180\\tdfrmtxtTop0\\tdfrmtxtBottom0"
+                + "\\clvertalt\\clftsWidth3\\clwWidth1800\\clFitText\\cellx1800"
+                + "\\clvertalt\\clftsWidth3\\clwWidth1800\\clNoWrap\\cellx3600"
+                + "\\pard\\intbl\\ql {\\b cell} one\\cell cell two\\cell\\row\n\\pard ",
+        // a field and bookmarks
+        "{\\field{\\*\\fldinst HYPERLINK \"http://example.com/\"}"
+                + "{\\fldrslt {\\ul link text}}} after {\\*\\bkmkstart mark}marked"
+                + "{\\*\\bkmkend mark}\\par\n",
+        // ignorable destinations with groups inside
+        "{\\*\\userprops {\\propname Version}\\proptype3{\\staticval 7}}"
+                + "{\\*\\unknowndestination {nested {deeper}} text}\\par\n",
+        // pictures
+        "{\\*\\shppict{\\pict\\pngblip\\picw100\\pich100\\picwgoal1440\\pichgoal1440\n"
+                + "89504e470d0a1a0a0000000d4948445200000064000000640806000000\n"
+                + "70e295540000000173524742"
+                + "}}{\\nonshppict{\\pict\\wmetafile8\\picw100\\pich100 "
+                + "0100090000036e00000000004500000000000400}}\\par\n",
+        // a list item
+        "{\\pntext\\f0 \\'b7\\tab}\\pard\\ls1\\fi-360\\li720 item {\\cs10 strong} "
+                + "\\plain text\\par\n",
+        // character styles and plain
+        "{\\cs10\\b styled}\\plain  plain {\\f3 \\'b7}\\par\n",
+        // deep nesting
+        "{{{{{{{{{{{{{{{{nested {\\b bold {\\i italic}}}}}}}}}}}}}}}}}}\\par\n",
+        // headers and footnotes
+        "{\\header \\pard header text\\par}{\\footnote \\pard\\plain note\\par} after\\par\n",
+    };
+
+    /**
+     * @return the warm-up documents, of every charset and size
+     */
+    static byte[][] corpus() {
+        Random random = new Random(0x5254467761726dL);
+        List<byte[]> documents = new ArrayList<byte[]>();
+        for (int c = 0; c < CHARSETS.length; c++) {
+            for (int s = 0; s < SIZES.length; s++) {
+                StringBuilder document = new StringBuilder(SIZES[s] + 4096);
+                document.append("{\\rtf1\\").append(CHARSETS[c]);
+                if (CODEPAGES[c] != 0) {
+                    document.append("\\ansicpg").append(CODEPAGES[c]);
+                }
+                document.append("\\uc1\\deff0\\deflang1033\n").append(HEADER_TABLES);
+                // every fragment once, then at random
+                for (int i = 0; i < BODY.length; i++) {
+                    document.append(BODY[i]);
+                }
+                while (document.length() < SIZES[s]) {
+                    document.append(BODY[random.nextInt(BODY.length)]);
+                }
+                document.append("\\par\n}");
+                documents.add(bytes(document.toString()));
+            }
+        }
+        return documents.toArray(new byte[documents.size()][]);
+    }
+
+    /**
+     * @return truncated and damaged copies of the smaller documents
+     */
+    private static byte[][] malformed(byte[][] corpus) {
+        byte[] damage = bytes(" \\'zq stray } } \\u12a {\\unclosed");
+        List<byte[]> documents = new ArrayList<byte[]>();
+        for (byte[] document : corpus) {
+            if (document.length > LARGE) {
+                continue;
+            }
+            byte[] truncated = Arrays.copyOf(document, document.length / 2);
+            byte[] damaged = Arrays.copyOf(truncated, truncated.length + damage.length);
+            System.arraycopy(damage, 0, damaged, truncated.length, damage.length);
+            documents.add(truncated);
+            documents.add(damaged);
+        }
+        return documents.toArray(new byte[documents.size()][]);
+    }
+
+    private static byte[] bytes(String document) {
+        try {
+            return document.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Discards the text.
+     */
+    private static final class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String s, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -12,6 +12,9 @@ import java.io.Reader;
  */
 public class SimpleCharStream {
 
+    /** returned by {@link #read()} and {@link #beginToken()} at the end of input */
+    public static final int EOF = -1;
+
     //Whether parser is static.
     public static final boolean staticFlag = false;
     int bufsize;
@@ -26,6 +29,16 @@ public class SimpleCharStream {
     protected int column = 0;
     protected int line = 1;
 
+    // absolute offset just past the last character handed out by readChar
+    protected long charPos = 0;
+    // absolute offset of the first character of the current token
+    protected long tokenBeginPos = 0;
+
+    // set once the reader is exhausted or has failed; nothing is read after
+    protected boolean inputEnded = false;
+    // the error the reader failed with, if it did
+    protected IOException ioError = null;
+
     protected boolean prevCharIsCR = false;
     protected boolean prevCharIsLF = false;
 
@@ -46,9 +59,12 @@ public class SimpleCharStream {
 
 
     protected void ExpandBuff(boolean wrapAround) {
-        char[] newbuffer = new char[bufsize + 2048];
-        int newbufline[] = new int[bufsize + 2048];
-        int newbufcolumn[] = new int[bufsize + 2048];
+        // grow geometrically so a huge token costs linear, not quadratic,
+        // copying
+        int grow = Math.max(2048, bufsize);
+        char[] newbuffer = new char[bufsize + grow];
+        int newbufline[] = new int[bufsize + grow];
+        int newbufcolumn[] = new int[bufsize + grow];
 
         try {
             if (wrapAround) {
@@ -81,12 +97,32 @@ public class SimpleCharStream {
             throw new Error(t.getMessage());
         }
 
-        bufsize += 2048;
+        bufsize += grow;
         available = bufsize;
         tokenBegin = 0;
     }
 
     protected void FillBuff() throws IOException {
+        if (!fill()) {
+            throw ioError != null ? ioError : new IOException();
+        }
+    }
+
+    /**
+     * Reads more characters into the buffer. Unlike FillBuff, the end of
+     * input is reported by the return value rather than an exception, and
+     * a read error is recorded for {@link #getIOError()} and treated as the
+     * end of input.
+     * @return <code>false</code> if no more characters are available
+     */
+    protected boolean fill() {
+        if (inputEnded) {
+            --bufpos;
+            backup(0);
+            if (tokenBegin == -1)
+                tokenBegin = bufpos;
+            return false;
+        }
         if (maxNextCharInd == available) {
             if (available == bufsize) {
                 if (tokenBegin > 2048) {
@@ -111,19 +147,36 @@ public class SimpleCharStream {
 
         int i;
         try {
-            if ((i = inputStream.read(buffer, maxNextCharInd, available - maxNextCharInd)) == -1) {
+            i = inputStream.read(buffer, maxNextCharInd, available - maxNextCharInd);
+            if (i == -1) {
+                inputEnded = true;
                 inputStream.close();
-                throw new IOException();
-            } else {
-                maxNextCharInd += i;
             }
         } catch (IOException e) {
+            inputEnded = true;
+            ioError = e;
+            i = -1;
+        }
+        if (i == -1) {
             --bufpos;
             backup(0);
             if (tokenBegin == -1)
                 tokenBegin = bufpos;
-            throw e;
+            return false;
         }
+        maxNextCharInd += i;
+        return true;
+    }
+
+    /**
+     * Returns the error the underlying reader failed with, if any. A failed
+     * read ends the input like a regular end of file does, so check this
+     * once the end of input has been reached.
+     * @return the error, or <code>null</code> if the input was read without
+     * errors
+     */
+    public IOException getIOError() {
+        return ioError;
     }
 
     /**
@@ -135,6 +188,23 @@ public class SimpleCharStream {
         tokenBegin = -1;
         char c = readChar();
         tokenBegin = bufpos;
+        tokenBeginPos = charPos - 1;
+
+        return c;
+    }
+
+    /**
+     * Start a token without throwing at the end of input.
+     * @return the first char of the token, or <code>EOF</code>
+     */
+    public int beginToken() {
+        tokenBegin = -1;
+        int c = read();
+        if (c == EOF) {
+            return EOF;
+        }
+        tokenBegin = bufpos;
+        tokenBeginPos = charPos - 1;
 
         return c;
     }
@@ -184,6 +254,7 @@ public class SimpleCharStream {
             if (++bufpos == bufsize)
                 bufpos = 0;
 
+            ++charPos;
             return buffer[bufpos];
         }
 
@@ -191,11 +262,101 @@ public class SimpleCharStream {
             FillBuff();
 
         char c = buffer[bufpos];
+        ++charPos;
+
+        UpdateLineColumn(c);
+        return c;
+    }
+
+    /**
+     * Read a character without throwing at the end of input.
+     * @return the char read, or <code>EOF</code>
+     */
+    public int read() {
+        if (inBuf > 0) {
+            --inBuf;
+
+            if (++bufpos == bufsize)
+                bufpos = 0;
+
+            ++charPos;
+            return buffer[bufpos];
+        }
+
+        if (++bufpos >= maxNextCharInd && !fill())
+            return EOF;
+
+        char c = buffer[bufpos];
+        ++charPos;
 
         UpdateLineColumn(c);
         return c;
     }
 
+    /*
+     * Characters that end a run of plain RTF text, as bit masks over
+     * char values 0-63 (tab, LF, CR) and 64-127 (backslash and braces).
+     */
+    private static final long TEXT_DELIMITERS_LO = (1L << '\t') | (1L << '\n') | (1L << '\r');
+    private static final long TEXT_DELIMITERS_HI =
+            (1L << ('\\' - 64)) | (1L << ('{' - 64)) | (1L << ('}' - 64));
+
+    private static boolean isTextDelimiter(char c) {
+        if (c < 64) {
+            return (TEXT_DELIMITERS_LO & (1L << c)) != 0L;
+        }
+        return c < 128 && (TEXT_DELIMITERS_HI & (1L << (c - 64))) != 0L;
+    }
+
+    /**
+     * Extends the current token over the run of plain text that follows,
+     * stopping before the next backslash, brace, tab, CR or LF. Scans the
+     * buffered characters directly instead of handing them out one by one
+     * through readChar, and refills the buffer as needed. The delimiter
+     * itself is not consumed.
+     */
+    public void readTextRun() {
+        int c;
+        while (inBuf > 0) {
+            if ((c = read()) == EOF) {
+                return;
+            }
+            if (isTextDelimiter((char) c)) {
+                backup(1);
+                return;
+            }
+        }
+        for (; ;) {
+            final char[] buf = buffer;
+            final int start = bufpos + 1;
+            final int limit = maxNextCharInd;
+            int pos = start;
+            while (pos < limit && !isTextDelimiter(buf[pos])) {
+                pos++;
+            }
+            if (pos > start) {
+                // text runs hold no CR, LF or tab, so only the column moves;
+                // only the last position is recorded since nothing backs up
+                // into the middle of a run
+                column += pos - start;
+                charPos += pos - start;
+                bufpos = pos - 1;
+                bufline[bufpos] = line;
+                bufcolumn[bufpos] = column;
+            }
+            if (pos < limit) {
+                return;
+            }
+            if ((c = read()) == EOF) {
+                return;
+            }
+            if (isTextDelimiter((char) c)) {
+                backup(1);
+                return;
+            }
+        }
+    }
+
     /**
      * Get token end column number.
      */
@@ -224,12 +385,30 @@ public class SimpleCharStream {
         return bufline[tokenBegin];
     }
 
+    /**
+     * Get the number of characters consumed so far, i.e. the absolute
+     * offset just past the last character returned by readChar.
+     * @return offset in characters from the start of the input
+     */
+    public long getPosition() {
+        return charPos;
+    }
+
+    /**
+     * Get the absolute offset of the first character of the current token.
+     * @return offset in characters from the start of the input
+     */
+    public long getBeginOffset() {
+        return tokenBeginPos;
+    }
+
     /**
      * Backup a number of characters.
      */
     public void backup(int amount) {
 
         inBuf += amount;
+        charPos -= amount;
         if ((bufpos -= amount) < 0)
             bufpos += bufsize;
     }
@@ -282,6 +461,9 @@ public class SimpleCharStream {
         prevCharIsLF = prevCharIsCR = false;
         tokenBegin = inBuf = maxNextCharInd = 0;
         bufpos = -1;
+        charPos = tokenBeginPos = 0;
+        inputEnded = false;
+        ioError = null;
     }
 
     /**
@@ -402,6 +584,35 @@ public class SimpleCharStream {
             return new String(buffer, tokenBegin, bufsize - tokenBegin) + new String(buffer, 0, bufpos + 1);
     }
 
+    /**
+     * Get the length of the token literal value, without creating it.
+     * @return number of characters in the current token
+     */
+    public int getImageLength() {
+        if (bufpos >= tokenBegin)
+            return bufpos - tokenBegin + 1;
+        else
+            return bufsize - tokenBegin + bufpos + 1;
+    }
+
+    /**
+     * Copy the token literal value into a caller supplied array.
+     * @param dst destination array, at least getImageLength() long from off
+     * @param off offset in dst
+     * @return number of characters copied
+     */
+    public int getImage(char[] dst, int off) {
+        if (bufpos >= tokenBegin) {
+            int len = bufpos - tokenBegin + 1;
+            System.arraycopy(buffer, tokenBegin, dst, off, len);
+            return len;
+        }
+        int head = bufsize - tokenBegin;
+        System.arraycopy(buffer, tokenBegin, dst, off, head);
+        System.arraycopy(buffer, 0, dst, off + head, bufpos + 1);
+        return head + bufpos + 1;
+    }
+
     /**
      * Get the suffix.
      * @param len length
@@ -0,0 +1,133 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.cache.ContentHash;
+
+import java.io.File;
+
+/**
+ * A report on a document that took longer, or allocated more, than a
+ * {@link SlowDocumentWatchdog} allows: enough to find the document again
+ * and to tell what about it is slow.
+ */
+public class SlowDocument {
+    private final ContentHash hash;
+    private final long size;
+    private final long nanos;
+    private final long allocatedBytes;
+    private final long[] tokenCounts;
+    private final int maxDepth;
+    private final Throwable failure;
+    private final File quarantined;
+
+    SlowDocument(ContentHash hash, long size, long nanos, long allocatedBytes,
+                 ParseMetrics metrics, Throwable failure, File quarantined) {
+        this.hash = hash;
+        this.size = size;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+        this.tokenCounts = metrics.tokensByKind.clone();
+        this.maxDepth = metrics.maxDepth;
+        this.failure = failure;
+        this.quarantined = quarantined;
+    }
+
+    /**
+     * @return the hash of the document's bytes, with seed 0
+     */
+    public ContentHash getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the size of the document in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return how long the extraction took, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the number of bytes the extraction allocated, or
+     * <code>-1</code> if the JVM can't tell
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @param kind a token kind, one of the <code>RTFParserConstants</code>
+     * @return the number of tokens of that kind in the document
+     */
+    public long getTokenCount(int kind) {
+        return tokenCounts[kind];
+    }
+
+    /**
+     * @return how deep groups nested
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return what the extraction failed with, or <code>null</code> if it
+     * succeeded
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the copy of the document in the quarantine directory, or
+     * <code>null</code> if none was made
+     */
+    public File getQuarantinedFile() {
+        return quarantined;
+    }
+
+    /**
+     * @return the size, time, allocation and most frequent tokens of the
+     * document, on one line
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("document ").append(hash).append(" (").append(size).append(" bytes) took ")
+                .append(nanos / 1000000).append(" ms");
+        if (allocatedBytes >= 0) {
+            s.append(", allocated ").append(allocatedBytes).append(" bytes");
+        }
+        s.append(", depth ").append(maxDepth).append(", tokens:");
+        boolean[] listed = new boolean[tokenCounts.length];
+        for (int i = 0; i < 5; i++) {
+            int top = -1;
+            for (int kind = 0; kind < tokenCounts.length; kind++) {
+                if (!listed[kind] && tokenCounts[kind] > 0
+                        && (top < 0 || tokenCounts[kind] > tokenCounts[top])) {
+                    top = kind;
+                }
+            }
+            if (top < 0) {
+                break;
+            }
+            listed[top] = true;
+            s.append(' ').append(RTFParserConstants.tokenImage[top]).append('=')
+                    .append(tokenCounts[top]);
+        }
+        if (failure != null) {
+            // parse exceptions go on to list every expected token
+            String message = String.valueOf(failure);
+            int end = message.indexOf('\n');
+            s.append(", failed: ").append(end < 0 ? message : message.substring(0, end));
+        }
+        if (quarantined != null) {
+            s.append(", saved as ").append(quarantined);
+        }
+        return s.toString();
+    }
+}
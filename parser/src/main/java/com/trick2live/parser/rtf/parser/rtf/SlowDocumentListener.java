@@ -0,0 +1,13 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Told about every document a {@link SlowDocumentWatchdog} finds slow.
+ * Called on the extracting thread, after the extraction.
+ */
+public interface SlowDocumentListener {
+
+    /**
+     * @param document the report on the document
+     */
+    public void slowDocument(SlowDocument document);
+}
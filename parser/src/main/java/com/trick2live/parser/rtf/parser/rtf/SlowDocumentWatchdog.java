@@ -0,0 +1,209 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.cache.ContentHash;
+import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches extractions for documents that take too long or allocate too
+ * much, and records what is needed to reproduce them: the hash and size of
+ * the input, its token histogram and, if a quarantine directory is set, a
+ * copy of its bytes. Pathological documents, like giant hex runs or deep
+ * nesting, are rare but make up most of the tail latency.
+ *
+ * <p>Documents are watched in memory, so that a slow one can be copied
+ * once it is known to be slow. Allocation is only measured on JVMs that
+ * count it per thread, which Android does not. A watchdog may be shared by
+ * all extractors.</p>
+ *
+ * @see com.trick2live.parser.rtf.parser.PlainTextExtractor#setWatchdog
+ */
+public class SlowDocumentWatchdog {
+
+    /** the value of a threshold that is not set */
+    public static final long NO_THRESHOLD = -1;
+
+    private long maxMillis = NO_THRESHOLD;
+    private long maxAllocatedBytes = NO_THRESHOLD;
+    private File quarantineDirectory;
+    private SlowDocumentListener listener;
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong slowDocuments = new AtomicLong();
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @param maxMillis how long an extraction may take before the document
+     * is reported, or <code>NO_THRESHOLD</code>
+     */
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
+
+    /**
+     * @param maxAllocatedBytes how many bytes an extraction may allocate
+     * before the document is reported, or <code>NO_THRESHOLD</code>
+     */
+    public void setMaxAllocatedBytes(long maxAllocatedBytes) {
+        this.maxAllocatedBytes = maxAllocatedBytes;
+    }
+
+    public File getQuarantineDirectory() {
+        return quarantineDirectory;
+    }
+
+    /**
+     * @param quarantineDirectory the directory to copy slow documents to,
+     * named by their hash, or <code>null</code> to keep no copies. It is
+     * created if missing.
+     */
+    public void setQuarantineDirectory(File quarantineDirectory) {
+        this.quarantineDirectory = quarantineDirectory;
+    }
+
+    /**
+     * @param listener told about every slow document, or <code>null</code>
+     */
+    public void setListener(SlowDocumentListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of documents watched
+     */
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    /**
+     * @return the number of documents found slow
+     */
+    public long getSlowDocumentCount() {
+        return slowDocuments.get();
+    }
+
+    /**
+     * Extracts a document held in memory, and reports it if it is slow. A
+     * failed extraction is reported too if it took too long, then its
+     * exception is thrown on.
+     *
+     * @param extractor the extractor to use; its metrics listener, if any,
+     * is still told about the document. Without one, the document's
+     * tokens are only counted, not timed
+     * @param data the document
+     * @param length the number of bytes of <code>data</code> to extract
+     * @param output the writer that will accept the extracted text
+     * @throws PlainTextExtractorException if the extraction fails
+     */
+    public void extract(RTFPlainTextExtractor extractor, byte[] data, int length,
+                        Writer output) throws PlainTextExtractorException {
+        MetricsCapture capture = new MetricsCapture(extractor.getMetricsListener());
+        boolean timed = extractor.isMetricsTimed();
+        extractor.setMetricsListener(capture);
+        // the report needs the histogram, not the clock reads around
+        // every token that timing costs
+        extractor.setMetricsTimed(timed && capture.next != null);
+        long allocatedBefore = maxAllocatedBytes < 0 ? -1 : ThreadAllocation.allocatedBytes();
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            extractor.extract(new ByteArrayInputStream(data, 0, length), output, null);
+        } catch (PlainTextExtractorException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            long allocated = allocatedBefore < 0 ? -1
+                    : ThreadAllocation.allocatedBytes() - allocatedBefore;
+            extractor.setMetricsListener(capture.next);
+            extractor.setMetricsTimed(timed);
+            documents.incrementAndGet();
+            if ((maxMillis >= 0 && nanos > maxMillis * 1000000L)
+                    || (maxAllocatedBytes >= 0 && allocated > maxAllocatedBytes)) {
+                report(data, length, nanos, allocated, capture.metrics, failure);
+            }
+        }
+    }
+
+    private void report(byte[] data, int length, long nanos, long allocated,
+                        ParseMetrics metrics, Throwable failure) {
+        slowDocuments.incrementAndGet();
+        ContentHash hash = ContentHash.of(data, 0, length, 0);
+        File quarantined = quarantineDirectory == null ? null
+                : quarantine(data, length, hash);
+        SlowDocument document = new SlowDocument(hash, length, nanos, allocated,
+                metrics == null ? new ParseMetrics() : metrics, failure, quarantined);
+        if (listener != null) {
+            listener.slowDocument(document);
+        }
+    }
+
+    /**
+     * Copies a document to the quarantine directory, through a temporary
+     * file so that a half-written copy is never seen under its name.
+     *
+     * @return the copy, or <code>null</code> if it could not be written
+     */
+    private File quarantine(byte[] data, int length, ContentHash hash) {
+        File file = new File(quarantineDirectory, hash + ".rtf");
+        if (file.exists()) {
+            return file;
+        }
+        File temporary = null;
+        try {
+            quarantineDirectory.mkdirs();
+            temporary = File.createTempFile(hash.toString(), ".tmp", quarantineDirectory);
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(data, 0, length);
+            } finally {
+                out.close();
+            }
+            if (temporary.renameTo(file) || file.exists()) {
+                return file;
+            }
+        } catch (IOException e) {
+            // the report goes out without the copy
+        } finally {
+            if (temporary != null && temporary.exists()) {
+                temporary.delete();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the metrics of the document for the report, and passes them on.
+     */
+    private static final class MetricsCapture implements MetricsListener {
+        final MetricsListener next;
+        ParseMetrics metrics;
+
+        MetricsCapture(MetricsListener next) {
+            this.next = next;
+        }
+
+        public void documentParsed(ParseMetrics metrics) {
+            this.metrics = metrics;
+            if (next != null) {
+                next.documentParsed(metrics);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free ring buffer for exactly one producer thread and
+ * exactly one consumer thread. Used to hand work between the stages of
+ * a pipelined extraction.
+ *
+ * @param <E> the element type
+ */
+final class SpscRing<E> {
+
+    // busy-spin this many times before yielding, then parking
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = 50000L;
+
+    private final Object[] slots;
+    private final int mask;
+
+    // index of the next slot to read; written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // index of the next slot to write; written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    // producer-local copy of head, refreshed only when the ring looks full
+    private long cachedHead;
+    // consumer-local copy of tail, refreshed only when the ring looks empty
+    private long cachedTail;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a ring that holds at least <code>capacity</code> elements.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two
+     */
+    SpscRing(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element if there is room. Producer thread only.
+     *
+     * @param e the element, not <code>null</code>
+     * @return <code>false</code> if the ring is full
+     */
+    boolean offer(E e) {
+        long t = tail.get();
+        if (t - cachedHead == slots.length) {
+            cachedHead = head.get();
+            if (t - cachedHead == slots.length) {
+                return false;
+            }
+        }
+        slots[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element. Consumer thread only.
+     *
+     * @return the element or <code>null</code> if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head.get();
+        if (h == cachedTail) {
+            cachedTail = tail.get();
+            if (h == cachedTail) {
+                return null;
+            }
+        }
+        int i = (int) h & mask;
+        E e = (E) slots[i];
+        slots[i] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * Adds an element, waiting for room if necessary.
+     *
+     * @param e the element, not <code>null</code>
+     * @return <code>false</code> if the ring was closed before the element
+     * could be added
+     */
+    boolean put(E e) {
+        for (int tries = 0; !offer(e); tries++) {
+            if (closed) {
+                return false;
+            }
+            idle(tries);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest element, waiting for one if necessary.
+     *
+     * @return the element or <code>null</code> if the ring was closed
+     * while empty
+     */
+    E take() {
+        E e;
+        for (int tries = 0; (e = poll()) == null; tries++) {
+            if (closed) {
+                return poll();
+            }
+            idle(tries);
+        }
+        return e;
+    }
+
+    /**
+     * Wakes up both sides and makes further waiting return immediately.
+     */
+    void close() {
+        closed = true;
+    }
+
+    private static void idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            // busy spin
+        } else if (tries < YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
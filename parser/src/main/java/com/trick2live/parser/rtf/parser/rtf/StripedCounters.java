@@ -0,0 +1,58 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of counters that many threads add to at once. Each thread adds to
+ * one of several stripes, chosen by its id, so threads seldom contend for
+ * a counter; reading sums the stripes. The stripes are padded apart so
+ * that they don't share cache lines.
+ */
+final class StripedCounters {
+
+    // longs per cache line, and between two stripes
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int stride;
+    private final int mask;
+
+    /**
+     * @param counters the number of counters
+     */
+    StripedCounters(int counters) {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) << 1;
+        this.stride = (counters + PADDING - 1) / PADDING * PADDING + PADDING;
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * stride);
+    }
+
+    void add(int counter, long delta) {
+        if (delta != 0) {
+            cells.addAndGet(stripe() + counter, delta);
+        }
+    }
+
+    long sum(int counter) {
+        long sum = 0;
+        for (int i = counter; i < cells.length(); i += stride) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets every counter to zero. Adds made meanwhile may be lost.
+     */
+    void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & mask) * stride;
+    }
+}
@@ -0,0 +1,54 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import java.lang.reflect.Method;
+
+/**
+ * Reads how many bytes the current thread has allocated, where the JVM
+ * can tell: HotSpot and OpenJ9 can, Android can't. Everything is looked
+ * up reflectively, since <code>java.lang.management</code> is missing on
+ * Android.
+ */
+final class ThreadAllocation {
+
+    private static final Object THREADS;
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        Object threads = null;
+        Method allocatedBytes = null;
+        try {
+            Object bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (type.isInstance(bean)) {
+                Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+                if ((Long) method.invoke(bean, Thread.currentThread().getId()) >= 0) {
+                    threads = bean;
+                    allocatedBytes = method;
+                }
+            }
+        } catch (Exception e) {
+            allocatedBytes = null;
+        }
+        THREADS = threads;
+        ALLOCATED_BYTES = allocatedBytes;
+    }
+
+    private ThreadAllocation() {
+    }
+
+    /**
+     * @return the number of bytes the current thread has allocated so far,
+     * or <code>-1</code> if that is unknown
+     */
+    static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -33,6 +33,22 @@ public class Token implements java.io.Serializable {
    */
   public String image;
 
+  /**
+   * The numeric parameter of a control word, or the byte value of a
+   * HEX_CHAR, accumulated by the lexer while scanning. <code>0</code> if
+   * the control word has no parameter, as per the RTF spec.
+   */
+  public int value;
+
+  /**
+   * Whether <code>value</code> was read from the input: <code>true</code>
+   * for a HEX_CHAR and for a control word followed by a parameter.
+   */
+  public boolean hasValue;
+
+  /** The offset of the first character of this Token, in characters. */
+  public long beginOffset;
+
   /**
    * A reference to the next regular (non-special) token from the input
    * stream.  If this is the last token from the input stream, or if the
@@ -0,0 +1,22 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * Where {@link RTFParser} gets its tokens from: the lexer itself, or a
+ * {@link PipelinedTokenManager} handing out tokens lexed on another
+ * thread.
+ */
+public interface TokenSource {
+
+    /**
+     * Returns the next token. Once the input ends, every call returns an
+     * <code>EOF</code> token.
+     *
+     * @return the token
+     */
+    public Token getNextToken();
+
+    /**
+     * @return the number of characters consumed from the input so far
+     */
+    public long getInputPosition();
+}
@@ -0,0 +1,161 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+/**
+ * A batch of tokens stored as parallel arrays instead of linked
+ * <code>Token</code> objects. Filled by
+ * {@link RTFParserTokenManager#fillTape(TokenTape)} and reused from batch to
+ * batch, so lexing into a tape allocates nothing once the arrays have grown
+ * to fit the input.
+ *
+ * <p>For token <code>i</code>, <code>kind(i)</code> is one of the
+ * {@link RTFParserConstants} kinds, and the characters
+ * <code>chars()[start(i)]</code> up to (but excluding)
+ * <code>chars()[end(i)]</code> are the token image, with the same content
+ * as <code>Token.image</code>. <code>value(i)</code> is the same as
+ * <code>Token.value</code>: the parameter of a control word or the byte
+ * value of a <code>HEX_CHAR</code>, and <code>0</code> otherwise.</p>
+ *
+ * <p>Only {@link RTFMetadataScanner} reads tapes: it needs a forward pass
+ * over the header and the info group, with no grammar behind it.
+ * {@link RTFParser} still pulls <code>Token</code> objects through
+ * {@link RTFParserTokenManager#getNextToken()}, since its productions look
+ * tokens up by reference and keep them for error reporting.</p>
+ */
+public class TokenTape {
+
+    /** the default number of tokens per batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int[] kind;
+    private final int[] start;
+    private final int[] end;
+    private final int[] value;
+    private char[] chars = new char[4096];
+    private int size;
+    private int charCount;
+
+    /**
+     * Creates a tape holding up to <code>DEFAULT_CAPACITY</code> tokens.
+     */
+    public TokenTape() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a tape holding up to <code>capacity</code> tokens per batch.
+     *
+     * @param capacity tokens per batch
+     */
+    public TokenTape(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        kind = new int[capacity];
+        start = new int[capacity];
+        end = new int[capacity];
+        value = new int[capacity];
+    }
+
+    /**
+     * Empties the tape so the next batch can be lexed into it.
+     */
+    public void clear() {
+        size = 0;
+        charCount = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == kind.length;
+    }
+
+    public int kind(int i) {
+        return kind[i];
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int end(int i) {
+        return end[i];
+    }
+
+    public int value(int i) {
+        return value[i];
+    }
+
+    /**
+     * Returns the character area the token images are stored in. The
+     * array may be replaced as the tape grows, so don't keep it across
+     * batches.
+     *
+     * @return the backing character array
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    /**
+     * Returns the image of token <code>i</code> as a new string. Meant for
+     * the rare tokens whose text is needed; use {@link #imageEquals} for
+     * comparisons.
+     *
+     * @param i token index
+     * @return the token image
+     */
+    public String image(int i) {
+        return new String(chars, start[i], end[i] - start[i]);
+    }
+
+    /**
+     * Compares the image of token <code>i</code> with a string without
+     * allocating.
+     *
+     * @param i token index
+     * @param s the string to compare with
+     * @return <code>true</code> if the image equals <code>s</code>
+     */
+    public boolean imageEquals(int i, String s) {
+        int from = start[i];
+        int len = end[i] - from;
+        if (len != s.length()) {
+            return false;
+        }
+        for (int j = 0; j < len; j++) {
+            if (chars[from + j] != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes room for <code>len</code> more characters.
+     *
+     * @return the offset in <code>chars()</code> to write them at
+     */
+    int reserve(int len) {
+        if (charCount + len > chars.length) {
+            char[] grown = new char[Math.max(chars.length * 2, charCount + len)];
+            System.arraycopy(chars, 0, grown, 0, charCount);
+            chars = grown;
+        }
+        return charCount;
+    }
+
+    /**
+     * Appends a token whose image was written at <code>from</code>.
+     */
+    void commit(int k, int from, int len, int v) {
+        kind[size] = k;
+        start[size] = from;
+        end[size] = from + len;
+        value[size] = v;
+        size++;
+        charCount = from + len;
+    }
+}
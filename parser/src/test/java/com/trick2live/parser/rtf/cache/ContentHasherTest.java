@@ -0,0 +1,99 @@
+package com.trick2live.parser.rtf.cache;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link ContentHasher} against the MurmurHash3 x64-128 reference,
+ * and that hashing in pieces gives the same hash as hashing at once.
+ */
+public class ContentHasherTest {
+
+    private static ContentHash hash(String ascii, int seed) throws Exception {
+        byte[] bytes = ascii.getBytes("US-ASCII");
+        return ContentHash.of(bytes, 0, bytes.length, seed);
+    }
+
+    /**
+     * The SMHasher verification value: the keys {}, {0}, {0, 1}, ... up to
+     * 255 bytes are hashed with the seed 256 minus their length, the
+     * hashes are hashed in turn, and the low 32 bits of the result are
+     * compared.
+     */
+    @Test
+    public void smhasherVerificationValue() {
+        byte[] key = new byte[256];
+        byte[] hashes = new byte[16 * 256];
+        for (int i = 0; i < 256; i++) {
+            key[i] = (byte) i;
+            ContentHash h = ContentHash.of(key, 0, i, 256 - i);
+            // each hash as the reference stores it: h1, then h2, little-endian
+            for (int j = 0; j < 8; j++) {
+                hashes[16 * i + j] = (byte) (h.getHigh() >>> (8 * j));
+                hashes[16 * i + 8 + j] = (byte) (h.getLow() >>> (8 * j));
+            }
+        }
+        ContentHash verification = ContentHash.of(hashes, 0, hashes.length, 0);
+        assertEquals(0x6384ba69, (int) verification.getHigh());
+    }
+
+    @Test
+    public void knownHashes() throws Exception {
+        assertEquals("00000000000000000000000000000000", hash("", 0).toString());
+        assertEquals("4610abe56eff5cb551622daa78f83583", hash("", 1).toString());
+        assertEquals("cbd8a7b341bd9b025b1e906a48ae1d19", hash("hello", 0).toString());
+        assertEquals("e34bbc7bbc071b6c7a433ca9c49a9347",
+                hash("The quick brown fox jumps over the lazy dog", 0).toString());
+        assertEquals("5fcfeea2e9959ab616c5efbac8871fd9",
+                hash("The quick brown fox jumps over the lazy dog", 123).toString());
+    }
+
+    @Test
+    public void piecesMatchOneShot() {
+        Random random = new Random(42);
+        for (int length = 0; length <= 80; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            ContentHash expected = ContentHash.of(bytes, 0, length, 7);
+
+            ContentHasher single = new ContentHasher(7);
+            for (byte b : bytes) {
+                single.update(b);
+            }
+            assertEquals("byte by byte, length " + length, expected, single.finish());
+
+            for (int split = 0; split <= length; split++) {
+                ContentHasher two = new ContentHasher(7);
+                two.update(bytes, 0, split);
+                two.update(bytes, split, length - split);
+                assertEquals("split at " + split + " of " + length, expected, two.finish());
+            }
+
+            // odd pieces, mixing both kinds of update
+            ContentHasher mixed = new ContentHasher(7);
+            int offset = 0;
+            while (offset < length) {
+                int n = Math.min(random.nextInt(20), length - offset);
+                if (n == 0) {
+                    mixed.update(bytes[offset++]);
+                } else {
+                    mixed.update(bytes, offset, n);
+                    offset += n;
+                }
+            }
+            assertEquals("mixed, length " + length, expected, mixed.finish());
+        }
+    }
+
+    @Test
+    public void seedsGiveUnrelatedHashes() throws Exception {
+        ContentHash strict = hash("{\\rtf1 x}", 0);
+        ContentHash lenient = hash("{\\rtf1 x}", 1);
+        assertEquals(false, strict.equals(lenient));
+        assertEquals(strict, hash("{\\rtf1 x}", 0));
+        assertEquals(strict.hashCode(), hash("{\\rtf1 x}", 0).hashCode());
+    }
+}
@@ -0,0 +1,300 @@
+package com.trick2live.parser.rtf.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link DiskExtractionCache} returns what was stored, keeps
+ * it across reopening, never returns a wrong text to a reader racing a
+ * writer or from a damaged segment file, and reports when it is full.
+ */
+public class DiskExtractionCacheTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("extraction-cache", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static ContentHash key(int i) {
+        return new ContentHash(0x9e3779b97f4a7c15L * (i + 1), 0xc2b2ae3d27d4eb4fL * (i + 1));
+    }
+
+    private static String text(int i) {
+        StringBuilder text = new StringBuilder();
+        for (int j = 0; j <= i % 50; j++) {
+            text.append("text ").append(i).append(' ');
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        DiskExtractionCache cache = new DiskExtractionCache(directory, 100);
+        try {
+            assertNull(cache.get(key(1)));
+            cache.put(key(1), "Hello, world");
+            cache.put(key(2), "");
+            // unpaired surrogates are kept as they are
+            cache.put(key(3), "a\ud800b\udc00");
+            assertEquals("Hello, world", cache.get(key(1)));
+            assertEquals("", cache.get(key(2)));
+            assertEquals("a\ud800b\udc00", cache.get(key(3)));
+            assertEquals(3, cache.size());
+            assertEquals(3, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void secondPutOfAKeyKeepsTheFirstText() throws IOException {
+        DiskExtractionCache cache = new DiskExtractionCache(directory, 100);
+        try {
+            cache.put(key(1), "first");
+            long segmentSize = cache.getSegmentSize();
+            cache.put(key(1), "second");
+            assertEquals("first", cache.get(key(1)));
+            assertEquals(1, cache.size());
+            assertEquals(segmentSize, cache.getSegmentSize());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void reopenKeepsTextsAndCapacity() throws IOException {
+        DiskExtractionCache cache = new DiskExtractionCache(directory, 100);
+        try {
+            assertEquals(100, cache.getMaxEntries());
+            for (int i = 0; i < 50; i++) {
+                cache.put(key(i), text(i));
+            }
+            cache.flush();
+        } finally {
+            cache.close();
+        }
+
+        cache = new DiskExtractionCache(directory, 10000);
+        try {
+            assertEquals(100, cache.getMaxEntries());
+            assertEquals(50, cache.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(text(i), cache.get(key(i)));
+            }
+            cache.put(key(50), text(50));
+            assertEquals(text(50), cache.get(key(50)));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFilesThatAreNotACache() throws IOException {
+        RandomAccessFile index = new RandomAccessFile(
+                new File(directory, DiskExtractionCache.INDEX_FILE), "rw");
+        try {
+            index.write(new byte[64]);
+        } finally {
+            index.close();
+        }
+        new DiskExtractionCache(directory, 100).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsADamagedCapacity() throws IOException {
+        new DiskExtractionCache(directory, 100).close();
+        RandomAccessFile index = new RandomAccessFile(
+                new File(directory, DiskExtractionCache.INDEX_FILE), "rw");
+        try {
+            // more entries than the table has slots
+            index.seek(16);
+            index.writeInt(Integer.MAX_VALUE);
+        } finally {
+            index.close();
+        }
+        new DiskExtractionCache(directory, 100).close();
+    }
+
+    @Test(timeout = 60000)
+    public void readerRacingAWriterSeesOnlyWholeTexts() throws Exception {
+        final int count = 2000;
+        final DiskExtractionCache writer = new DiskExtractionCache(directory, count);
+        // a second instance on the same files, as another process would
+        // have; it only reads, so it never takes the lock
+        final DiskExtractionCache reader = new DiskExtractionCache(directory, count);
+        final AtomicReference<String> wrong = new AtomicReference<String>();
+        Thread thread = new Thread() {
+            public void run() {
+                int seen = 0;
+                while (seen < count && wrong.get() == null) {
+                    seen = 0;
+                    for (int i = 0; i < count; i++) {
+                        String text = reader.get(key(i));
+                        if (text != null) {
+                            seen++;
+                            if (!text.equals(text(i))) {
+                                wrong.set(i + ": " + text);
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        try {
+            thread.start();
+            for (int i = 0; i < count; i++) {
+                writer.put(key(i), text(i));
+            }
+            thread.join();
+            assertNull(wrong.get());
+            assertEquals(count, reader.size());
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void truncatedSegmentReadsAsMisses() throws IOException {
+        DiskExtractionCache cache = new DiskExtractionCache(directory, 100);
+        long end;
+        try {
+            cache.put(key(1), text(1));
+            end = cache.getSegmentSize();
+            cache.put(key(2), text(49));
+        } finally {
+            cache.close();
+        }
+        RandomAccessFile segment = new RandomAccessFile(
+                new File(directory, DiskExtractionCache.SEGMENT_FILE), "rw");
+        try {
+            // cut the second record in its data, then in its header
+            segment.setLength(segment.length() - 1);
+        } finally {
+            segment.close();
+        }
+
+        cache = new DiskExtractionCache(directory, 100);
+        try {
+            assertEquals(text(1), cache.get(key(1)));
+            assertNull(cache.get(key(2)));
+            segment = new RandomAccessFile(
+                    new File(directory, DiskExtractionCache.SEGMENT_FILE), "rw");
+            try {
+                segment.setLength(end + 4);
+            } finally {
+                segment.close();
+            }
+            assertNull(cache.get(key(2)));
+            assertEquals(text(1), cache.get(key(1)));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void corruptSegmentReadsAsMisses() throws IOException {
+        DiskExtractionCache cache = new DiskExtractionCache(directory, 100);
+        long start;
+        long end;
+        try {
+            cache.put(key(1), text(1));
+            start = cache.getSegmentSize();
+            cache.put(key(2), text(49));
+            end = cache.getSegmentSize();
+            cache.put(key(3), text(3));
+        } finally {
+            cache.close();
+        }
+        RandomAccessFile segment = new RandomAccessFile(
+                new File(directory, DiskExtractionCache.SEGMENT_FILE), "rw");
+        try {
+            // scramble the compressed data of the second record, past its
+            // header
+            for (long p = start + 24; p < end; p++) {
+                segment.seek(p);
+                segment.write(0x5a);
+            }
+        } finally {
+            segment.close();
+        }
+
+        cache = new DiskExtractionCache(directory, 100);
+        try {
+            assertEquals(text(1), cache.get(key(1)));
+            assertNull(cache.get(key(2)));
+            assertEquals(text(3), cache.get(key(3)));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void fullCacheRejectsNewTexts() throws IOException {
+        // the table has 16 slots, but only the 10 texts asked for are kept
+        DiskExtractionCache cache = new DiskExtractionCache(directory, 10);
+        try {
+            int maxEntries = cache.getMaxEntries();
+            assertEquals(10, maxEntries);
+            for (int i = 0; i < maxEntries; i++) {
+                assertFalse(cache.isFull());
+                cache.put(key(i), text(i));
+            }
+            assertTrue(cache.isFull());
+            assertEquals(0, cache.getRejectedCount());
+
+            cache.put(key(maxEntries), text(maxEntries));
+            assertNull(cache.get(key(maxEntries)));
+            assertEquals(1, cache.getRejectedCount());
+            // a text already stored is not a rejection
+            cache.put(key(0), text(0));
+            assertEquals(1, cache.getRejectedCount());
+            assertEquals(maxEntries, cache.size());
+            for (int i = 0; i < maxEntries; i++) {
+                assertEquals(text(i), cache.get(key(i)));
+            }
+            assertTrue(cache.toString().contains("(full)"));
+        } finally {
+            cache.close();
+        }
+
+        // still full when reopened, whatever capacity is asked for
+        cache = new DiskExtractionCache(directory, 1000);
+        try {
+            assertEquals(10, cache.getMaxEntries());
+            assertTrue(cache.isFull());
+            cache.put(key(11), text(11));
+            assertNull(cache.get(key(11)));
+        } finally {
+            cache.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.trick2live.parser.rtf.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link MemoryExtractionCache} evicts the least recently used
+ * texts of a stripe once the stripe's share of the size bound is used up,
+ * and leaves the other stripes alone.
+ */
+public class MemoryExtractionCacheTest {
+
+    // with the 96 bytes an entry is estimated to take besides its
+    // characters, a text of this length takes 200 bytes
+    private static final int TEXT_LENGTH = 52;
+    private static final int ENTRY_BYTES = 200;
+
+    private static String text(char c) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < TEXT_LENGTH; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+
+    /** a key in the given stripe: stripes are picked by the high bits */
+    private static ContentHash key(int stripe, long low) {
+        return new ContentHash((long) stripe << 32, low);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        MemoryExtractionCache cache = new MemoryExtractionCache(3 * ENTRY_BYTES, 1);
+        cache.put(key(0, 1), text('a'));
+        cache.put(key(0, 2), text('b'));
+        cache.put(key(0, 3), text('c'));
+        assertEquals(3 * ENTRY_BYTES, cache.getSizeInBytes());
+        // a is now used more recently than b
+        assertEquals(text('a'), cache.get(key(0, 1)));
+        cache.put(key(0, 4), text('d'));
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(key(0, 2)));
+        assertEquals(text('a'), cache.get(key(0, 1)));
+        assertEquals(text('c'), cache.get(key(0, 3)));
+        assertEquals(text('d'), cache.get(key(0, 4)));
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void evictionIsPerStripe() {
+        // four stripes with room for one text each
+        MemoryExtractionCache cache = new MemoryExtractionCache(4 * ENTRY_BYTES, 4);
+        for (int stripe = 0; stripe < 4; stripe++) {
+            cache.put(key(stripe, 1), text((char) ('a' + stripe)));
+        }
+        assertEquals(4, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        cache.put(key(2, 2), text('z'));
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(key(2, 1)));
+        assertEquals(text('z'), cache.get(key(2, 2)));
+        for (int stripe : new int[] {0, 1, 3}) {
+            assertEquals(text((char) ('a' + stripe)), cache.get(key(stripe, 1)));
+        }
+    }
+
+    @Test
+    public void stripesAreRoundedUpToAPowerOfTwo() {
+        // three stripes become four, with a quarter of the bound each
+        MemoryExtractionCache cache = new MemoryExtractionCache(4 * ENTRY_BYTES, 3);
+        cache.put(key(3, 1), text('a'));
+        cache.put(key(3, 2), text('b'));
+        assertEquals(1, cache.size());
+        cache.put(key(7, 1), text('c'));
+        // stripe 7 is stripe 3 of four
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void replacingATextKeepsTheSizeRight() {
+        MemoryExtractionCache cache = new MemoryExtractionCache(1 << 20, 1);
+        cache.put(key(0, 1), text('a'));
+        cache.put(key(0, 1), "b");
+        assertEquals(1, cache.size());
+        assertEquals(96 + 2, cache.getSizeInBytes());
+        assertEquals("b", cache.get(key(0, 1)));
+    }
+
+    @Test
+    public void textLargerThanAStripeIsNotCached() {
+        MemoryExtractionCache cache = new MemoryExtractionCache(2 * ENTRY_BYTES, 2);
+        cache.put(key(0, 1), text('a'));
+        cache.put(key(1, 1), text('a') + "x");
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        assertNull(cache.get(key(1, 1)));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeInBytes());
+        assertEquals(1, cache.getMissCount());
+    }
+}
@@ -0,0 +1,43 @@
+package com.trick2live.parser.rtf.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link TieredExtractionCache} stores in both caches and
+ * copies a text found only in the second one into the first.
+ */
+public class TieredExtractionCacheTest {
+
+    private static final ContentHash KEY = new ContentHash(1, 2);
+
+    @Test
+    public void putStoresInBoth() {
+        MemoryExtractionCache first = new MemoryExtractionCache(1 << 20);
+        MemoryExtractionCache second = new MemoryExtractionCache(1 << 20);
+        new TieredExtractionCache(first, second).put(KEY, "text");
+        assertEquals("text", first.get(KEY));
+        assertEquals("text", second.get(KEY));
+    }
+
+    @Test
+    public void hitInSecondIsCopiedIntoFirst() {
+        MemoryExtractionCache first = new MemoryExtractionCache(1 << 20);
+        MemoryExtractionCache second = new MemoryExtractionCache(1 << 20);
+        second.put(KEY, "text");
+        TieredExtractionCache cache = new TieredExtractionCache(first, second);
+        assertEquals("text", cache.get(KEY));
+        assertEquals("text", first.get(KEY));
+        assertEquals("text", cache.get(KEY));
+        assertEquals(1, second.getHitCount());
+    }
+
+    @Test
+    public void missInBothIsNull() {
+        TieredExtractionCache cache = new TieredExtractionCache(
+                new MemoryExtractionCache(1 << 20), new MemoryExtractionCache(1 << 20));
+        assertNull(cache.get(KEY));
+    }
+}
@@ -0,0 +1,92 @@
+package com.trick2live.parser.rtf.parser;
+
+import com.trick2live.parser.rtf.cache.MemoryExtractionCache;
+import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
+import com.trick2live.parser.rtf.parser.rtf.CumulativeMetrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link PlainTextExtractor} serves a document it has extracted
+ * before from its cache without parsing it, keeps strict and lenient
+ * results apart, and caches neither failures nor recovered documents.
+ */
+public class PlainTextExtractorCacheTest {
+
+    private static final String RTF = "{\\rtf1\\ansi\\deff0 {\\b bold} \\'e9\\par next}";
+
+    private final MemoryExtractionCache cache = new MemoryExtractionCache(1 << 20);
+    private final CumulativeMetrics metrics = new CumulativeMetrics();
+
+    private PlainTextExtractor extractor(boolean lenient) {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setLenient(lenient);
+        extractor.setCache(cache);
+        extractor.setMetricsListener(metrics);
+        return extractor;
+    }
+
+    @Test
+    public void hitIsNotParsed() throws Exception {
+        String expected = new PlainTextExtractor().extract(RTF, "application/rtf", "ISO-8859-1");
+        assertEquals(expected, extractor(false).extract(RTF, "application/rtf", "ISO-8859-1"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+        assertEquals(1, metrics.getDocumentCount());
+
+        assertEquals(expected, extractor(false).extract(RTF, "application/rtf", "ISO-8859-1"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, metrics.getDocumentCount());
+    }
+
+    @Test
+    public void otherBytesMiss() throws Exception {
+        extractor(false).extract(RTF, "application/rtf", "ISO-8859-1");
+        extractor(false).extract(RTF + " ", "application/rtf", "ISO-8859-1");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.size());
+        assertEquals(2, metrics.getDocumentCount());
+    }
+
+    @Test
+    public void lenientIsPartOfTheKey() throws Exception {
+        extractor(false).extract(RTF, "application/rtf", "ISO-8859-1");
+        extractor(true).extract(RTF, "application/rtf", "ISO-8859-1");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.size());
+
+        extractor(true).extract(RTF, "application/rtf", "ISO-8859-1");
+        extractor(false).extract(RTF, "application/rtf", "ISO-8859-1");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, metrics.getDocumentCount());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        String broken = "{\\rtf1\\ansi a{\\b b";
+        for (int i = 0; i < 2; i++) {
+            try {
+                extractor(false).extract(broken, "application/rtf", "ISO-8859-1");
+                fail("extracted a broken document");
+            } catch (PlainTextExtractorException e) {
+                // not cached, so parsed and failing again
+            }
+        }
+        assertEquals(0, cache.size());
+        assertEquals(2, metrics.getDocumentCount());
+        assertEquals(2, metrics.getFailureCount());
+
+        // recovered from, but still not cached
+        for (int i = 0; i < 2; i++) {
+            PlainTextExtractor extractor = extractor(true);
+            assertEquals("ab", extractor.extract(broken, "application/rtf", "ISO-8859-1"));
+            assertTrue(extractor.getDiagnostics().size() > 0);
+        }
+        assertEquals(0, cache.size());
+        assertEquals(4, metrics.getDocumentCount());
+    }
+}
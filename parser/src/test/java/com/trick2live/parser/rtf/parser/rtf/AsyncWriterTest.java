@@ -0,0 +1,119 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link AsyncWriter} writes every chunk in order, reports a
+ * failing target from <code>close()</code>, and lets go of a blocked
+ * producer on <code>abort()</code>.
+ */
+public class AsyncWriterTest {
+
+    @Test
+    public void writesChunksInOrder() throws IOException {
+        StringWriter target = new StringWriter();
+        StringBuilder expected = new StringBuilder();
+        AsyncWriter writer = new AsyncWriter(target);
+        // several times the ring capacity, so the ring wraps
+        for (int i = 0; i < 10000; i++) {
+            String chunk = Integer.toString(i) + ' ';
+            writer.write(chunk);
+            expected.append(chunk);
+        }
+        writer.close();
+        assertEquals(expected.toString(), target.toString());
+    }
+
+    @Test
+    public void emptyChunksAreDropped() throws IOException {
+        StringWriter target = new StringWriter();
+        AsyncWriter writer = new AsyncWriter(target);
+        writer.write("");
+        writer.write("a");
+        writer.write("");
+        writer.close();
+        assertEquals("a", target.toString());
+    }
+
+    @Test
+    public void closeWithoutTextWritesNothing() throws IOException {
+        StringWriter target = new StringWriter();
+        new AsyncWriter(target).close();
+        assertEquals("", target.toString());
+    }
+
+    @Test
+    public void closeReportsTargetFailure() {
+        final IOException failure = new IOException("disk full");
+        final StringBuilder written = new StringBuilder();
+        AsyncWriter writer = new AsyncWriter(new Writer() {
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                if (written.length() > 0) {
+                    throw failure;
+                }
+                written.append(cbuf, off, len);
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        });
+        writer.write("a");
+        writer.write("b");
+        writer.write("c");
+        try {
+            writer.close();
+            fail("expected the target's IOException");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        // nothing is written after the first failure
+        assertEquals("a", written.toString());
+    }
+
+    @Test
+    public void abortReleasesProducerBlockedOnFullRing() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AsyncWriter writer = new AsyncWriter(new Writer() {
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        });
+        Thread producer = new Thread() {
+            public void run() {
+                // more than the ring holds while the target is stuck
+                for (int i = 0; i < 5000; i++) {
+                    writer.write("x");
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        writer.abort();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        release.countDown();
+    }
+}
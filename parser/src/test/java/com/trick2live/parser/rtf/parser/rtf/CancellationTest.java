@@ -0,0 +1,148 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.exception.ExtractionCancelledException;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a {@link CancellationToken} stops an extraction before and
+ * during parsing, buffered and pipelined, without leaving pipeline threads
+ * behind, and that a {@link ProgressListener} is told increasing positions
+ * on the extracting thread.
+ */
+public class CancellationTest {
+
+    private static byte[] document(int paragraphs) throws Exception {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi\\deff0 ");
+        for (int i = 0; i < paragraphs; i++) {
+            rtf.append("{\\b word ").append(i).append("} \\'e9\\tab x\\par ");
+        }
+        return rtf.append('}').toString().getBytes("ISO-8859-1");
+    }
+
+    private static PlainTextExtractor extractor(boolean pipelined, CancellationToken token,
+                                                ProgressListener progress) {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setPipelined(pipelined);
+        extractor.setCancellationToken(token);
+        extractor.setProgressListener(progress);
+        return extractor;
+    }
+
+    /**
+     * Waits a while for the lexer and writer threads of pipelined
+     * extractions to end.
+     */
+    private static void assertPipelineStopped() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (; ;) {
+            List<String> running = new ArrayList<String>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.isAlive() && (thread.getName().equals("rtf-lexer")
+                        || thread.getName().equals("rtf-writer"))) {
+                    running.add(thread.getName());
+                }
+            }
+            if (running.isEmpty()) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("still running: " + running);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void cancelledBeforeStart() throws Exception {
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            CancellationToken token = new CancellationToken();
+            token.cancel();
+            StringWriter output = new StringWriter();
+            try {
+                // far shorter than the interval between checks
+                extractor(pipelined == 1, token, null).extract(
+                        new ByteArrayInputStream(document(1)), "application/rtf", output, null);
+                fail("pipelined " + pipelined + ": extracted \"" + output + "\"");
+            } catch (ExtractionCancelledException e) {
+                assertEquals("", output.toString());
+            }
+        }
+        assertPipelineStopped();
+    }
+
+    @Test
+    public void cancelledDuringParse() throws Exception {
+        byte[] rtf = document(50000);
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            final CancellationToken token = new CancellationToken();
+            final List<Long> positions = new ArrayList<Long>();
+            ProgressListener cancelling = new ProgressListener() {
+                public void progress(long position) {
+                    positions.add(position);
+                    token.cancel();
+                }
+            };
+            try {
+                extractor(pipelined == 1, token, cancelling).extract(
+                        new ByteArrayInputStream(rtf), "application/rtf", new StringWriter(), null);
+                fail("pipelined " + pipelined + ": not cancelled");
+            } catch (ExtractionCancelledException e) {
+                // stopped at the next check
+                assertEquals(1, positions.size());
+                assertTrue(positions.toString(), positions.get(0) < rtf.length);
+            }
+            assertPipelineStopped();
+        }
+    }
+
+    @Test
+    public void uncancelledTokenChangesNothing() throws Exception {
+        byte[] rtf = document(20000);
+        String expected = new PlainTextExtractor().extract(
+                new ByteArrayInputStream(rtf), "application/rtf", "ISO-8859-1");
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            assertEquals(expected, extractor(pipelined == 1, new CancellationToken(), null)
+                    .extract(new ByteArrayInputStream(rtf), "application/rtf", "ISO-8859-1"));
+        }
+    }
+
+    @Test
+    public void progressIncreasesOnTheExtractingThread() throws Exception {
+        byte[] rtf = document(50000);
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            final List<Long> positions = new ArrayList<Long>();
+            final List<Thread> threads = new ArrayList<Thread>();
+            ProgressListener progress = new ProgressListener() {
+                public void progress(long position) {
+                    positions.add(position);
+                    threads.add(Thread.currentThread());
+                }
+            };
+            extractor(pipelined == 1, null, progress).extract(
+                    new ByteArrayInputStream(rtf), "application/rtf", new StringWriter(), null);
+            // one report per few thousand tokens of the 500,000 or so
+            assertTrue(positions.toString(), positions.size() > 50);
+            for (int i = 1; i < positions.size(); i++) {
+                assertTrue(positions.toString(), positions.get(i) >= positions.get(i - 1));
+            }
+            assertTrue(positions.get(0) > 0);
+            assertTrue(positions.get(positions.size() - 1) <= rtf.length);
+            for (Thread thread : threads) {
+                assertSame(Thread.currentThread(), thread);
+            }
+        }
+        assertPipelineStopped();
+    }
+}
@@ -0,0 +1,86 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that control words the grammar requires a parameter for are
+ * rejected without one, now that the lexer reads parameters along with
+ * their words instead of producing CW_VAL tokens.
+ */
+public class ControlWordParameterTest {
+
+    private static final String[] MISSING = {
+            "{\\rtf\\ansi a}",
+            "{\\rtf1\\ansi\\deff a}",
+            "{\\rtf1\\ansi\\ansicpg a}",
+            "{\\rtf1\\ansi\\uc a}",
+            "{\\rtf1\\ansi{\\fonttbl{\\f\\fcharset Arial;}} a}",
+            "{\\rtf1\\ansi a\\f b}",
+            "{\\rtf1\\ansi a\\cs b}",
+            "{\\rtf1\\ansi a\\u b}",
+            "{\\rtf1\\ansi a\\u-b}",
+            "{\\rtf1\\ansi a{\\u}b}",
+    };
+
+    private static String extract(String rtf, boolean lenient) throws Exception {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setLenient(lenient);
+        return extractor.extract(rtf, "application/rtf", "ISO-8859-1");
+    }
+
+    @Test
+    public void lexerTellsMissingParameterFromZero() {
+        RTFParserTokenManager tokens = new RTFParserTokenManager(
+                new SimpleCharStream(new StringReader("\\par\\par0\\par-\\'41"), 1, 1));
+        Token t = tokens.getNextToken();
+        assertFalse(t.hasValue);
+        t = tokens.getNextToken();
+        assertTrue(t.hasValue);
+        assertEquals(0, t.value);
+        t = tokens.getNextToken();
+        assertFalse(t.hasValue);
+        do {
+            t = tokens.getNextToken();
+        } while (t.kind != RTFParserConstants.HEX_CHAR);
+        assertTrue(t.hasValue);
+        assertEquals(0x41, t.value);
+    }
+
+    @Test
+    public void missingParameterIsSyntaxError() throws Exception {
+        for (String rtf : MISSING) {
+            try {
+                extract(rtf, false);
+                fail("expected a syntax error for " + rtf);
+            } catch (PlainTextExtractorException e) {
+                assertTrue(rtf + ": " + e.getCause(), e.getCause() instanceof ParseException);
+            }
+        }
+    }
+
+    @Test
+    public void lenientModeSkipsWordWithoutParameter() throws Exception {
+        for (String rtf : MISSING) {
+            extract(rtf, true);
+        }
+        assertEquals("a", extract("{\\rtf\\ansi a}", true));
+        assertEquals("a", extract("{\\rtf1\\ansi\\deff a}", true));
+        assertEquals("ab", extract("{\\rtf1\\ansi a{\\u}b}", true));
+    }
+
+    @Test
+    public void parametersAreRead() throws Exception {
+        assertEquals("a\u0410\uf0b7b", extract(
+                "{\\rtf1\\ansi\\ansicpg1252\\deff0\\uc1 a\\u1040?\\u-3913?b}", false));
+    }
+}
@@ -0,0 +1,163 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.exception.PlainTextExtractorException;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that lenient extraction gets past unclosed groups, stray braces,
+ * bad hex escapes and broken headers with a diagnostic for each, that
+ * input with no document in it fails with a real
+ * {@link ParseException}, and that diagnostics are capped.
+ */
+public class ErrorRecoveryTest {
+
+    private static PlainTextExtractor extractor(boolean pipelined) {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setLenient(true);
+        extractor.setPipelined(pipelined);
+        return extractor;
+    }
+
+    /**
+     * Extracts <code>rtf</code> buffered and pipelined, checks both give
+     * <code>expected</code> and the same diagnostics, and returns those.
+     */
+    private static List<ParseDiagnostic> assertRecovered(String expected, String rtf)
+            throws Exception {
+        List<ParseDiagnostic> diagnostics = null;
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            PlainTextExtractor extractor = extractor(pipelined == 1);
+            assertEquals(rtf, expected, extractor.extract(rtf, "application/rtf", "ISO-8859-1"));
+            if (diagnostics == null) {
+                diagnostics = extractor.getDiagnostics();
+            } else {
+                assertEquals(rtf, diagnostics.toString(), extractor.getDiagnostics().toString());
+            }
+        }
+        return diagnostics;
+    }
+
+    private static void assertNoDocument(String rtf) throws Exception {
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            try {
+                extractor(pipelined == 1).extract(rtf, "application/rtf", "ISO-8859-1");
+                fail("extracted \"" + rtf + "\"");
+            } catch (PlainTextExtractorException e) {
+                Throwable cause = e.getCause();
+                assertTrue(rtf + ": " + cause, cause instanceof ParseException);
+                // a real exception, not the shared one used to resynchronize
+                assertTrue(rtf + ": " + cause, cause.getStackTrace().length > 0);
+                assertTrue(rtf + ": " + cause, cause.getMessage().startsWith("Encountered"));
+            }
+        }
+    }
+
+    @Test
+    public void unclosedGroupsAreClosedAtTheEnd() throws Exception {
+        List<ParseDiagnostic> diagnostics = assertRecovered("ab", "{\\rtf1\\ansi a{\\b b");
+        assertEquals(2, diagnostics.size());
+        for (ParseDiagnostic diagnostic : diagnostics) {
+            assertEquals(ParseDiagnostic.UNCLOSED_GROUP, diagnostic.getType());
+            assertEquals(RTFParserConstants.EOF, diagnostic.getKind());
+        }
+    }
+
+    @Test
+    public void strayBraceBeforeTheDocumentIsSkipped() throws Exception {
+        List<ParseDiagnostic> diagnostics = assertRecovered("x", "}{\\rtf1\\ansi x}");
+        assertEquals(1, diagnostics.size());
+        assertEquals(ParseDiagnostic.UNEXPECTED_TOKEN, diagnostics.get(0).getType());
+        assertEquals(RTFParserConstants.RBRACE, diagnostics.get(0).getKind());
+        assertEquals(0, diagnostics.get(0).getOffset());
+    }
+
+    @Test
+    public void strayBraceInTheDocumentIsReported() throws Exception {
+        // the brace closes the document; the rest is lost, but reported
+        List<ParseDiagnostic> diagnostics = assertRecovered("a", "{\\rtf1\\ansi a} b}");
+        assertEquals(1, diagnostics.size());
+        assertEquals(ParseDiagnostic.UNEXPECTED_TOKEN, diagnostics.get(0).getType());
+        assertEquals(14, diagnostics.get(0).getOffset());
+        assertEquals(0, assertRecovered("a", "{\\rtf1\\ansi a}\r\n").size());
+    }
+
+    @Test
+    public void badHexEscapeIsKeptAsText() throws Exception {
+        // the lenient lexer passes what it cannot lex on as text
+        assertRecovered("a\\'zz b", "{\\rtf1\\ansi a\\'zz b}");
+        assertRecovered("a\u00e9\\'zz", "{\\rtf1\\ansi a\\'e9\\'zz}");
+    }
+
+    @Test
+    public void misplacedControlWordIsSkipped() throws Exception {
+        List<ParseDiagnostic> diagnostics = assertRecovered("a", "{\\rtf1\\ansi a\\fonttbl b}");
+        assertEquals(1, diagnostics.size());
+        assertEquals(ParseDiagnostic.UNEXPECTED_TOKEN, diagnostics.get(0).getType());
+        assertEquals(RTFParserConstants.FONTTBL, diagnostics.get(0).getKind());
+    }
+
+    @Test
+    public void missingRtfWordIsABadHeader() throws Exception {
+        List<ParseDiagnostic> diagnostics = assertRecovered("x", "{\\ansi x}");
+        assertEquals(1, diagnostics.size());
+        assertEquals(ParseDiagnostic.BAD_HEADER, diagnostics.get(0).getType());
+        assertEquals(RTFParserConstants.ANSI, diagnostics.get(0).getKind());
+
+        diagnostics = assertRecovered("x", "{x}");
+        assertEquals(1, diagnostics.size());
+        assertEquals(ParseDiagnostic.BAD_HEADER, diagnostics.get(0).getType());
+    }
+
+    @Test
+    public void inputWithoutADocumentFails() throws Exception {
+        assertNoDocument("");
+        assertNoDocument("plain text");
+        assertNoDocument("}}");
+        assertNoDocument("\\par text");
+    }
+
+    @Test
+    public void failuresAreDistinctExceptions() throws Exception {
+        Throwable first = null;
+        for (String rtf : new String[] {"plain text", ""}) {
+            try {
+                extractor(false).extract(rtf, "application/rtf", "ISO-8859-1");
+                fail();
+            } catch (PlainTextExtractorException e) {
+                if (first != null) {
+                    assertNotSame(first, e.getCause());
+                }
+                first = e.getCause();
+            }
+        }
+    }
+
+    @Test
+    public void diagnosticsAreCapped() throws Exception {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi ");
+        int errors = RTFParser.MAX_DIAGNOSTICS + 50;
+        for (int i = 0; i < errors; i++) {
+            // each before a group: recovery skips to the next brace
+            rtf.append("a\\fonttbl b{c}");
+        }
+        rtf.append('}');
+        RTFParser parser = new RTFParser(new ByteArrayInputStream(rtf.toString().getBytes("US-ASCII")));
+        parser.setErrorRecovery(true);
+        // an extractor with nowhere to write, so the text goes nowhere
+        parser.setDelegate(new RTFPlainTextExtractor());
+        parser.parse();
+        assertEquals(RTFParser.MAX_DIAGNOSTICS, parser.getDiagnostics().size());
+        assertEquals(errors, parser.getDiagnosticCount());
+        assertEquals(RTFParserConstants.FONTTBL, parser.getDiagnostics().get(0).getKind());
+    }
+}
@@ -0,0 +1,150 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the bytes {@link RTFPlainTextExtractor#extract} allocates per
+ * input byte against a budget for each kind of input, so that garbage
+ * reintroduced per token or per text run fails the build rather than
+ * showing up as GC pressure later.
+ *
+ * <p>The budgets leave about 10% of headroom over the measured figures:
+ * enough for JVM differences, too little for an object per token. When a
+ * change lowers allocation, lower the budget with it.</p>
+ */
+public class ExtractionAllocationTest {
+
+    private static final int DOCUMENT_SIZE = 256 * 1024;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 3;
+
+    private static final String HEADER = "{\\rtf1\\ansi\\ansicpg1252\\deff0"
+            + "{\\fonttbl{\\f0\\froman\\fcharset0 Times New Roman;}}"
+            + "{\\colortbl;\\red0\\green0\\blue0;}\\pard\\plain ";
+
+    private static Object threads;
+    private static Method allocatedBytes;
+
+    @BeforeClass
+    public static void setUpThreadBean() {
+        // com.sun.management is not part of every JVM, so it is looked up
+        // reflectively; without it the tests are skipped
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (type.isInstance(bean)) {
+                Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+                if ((Long) method.invoke(bean, Thread.currentThread().getId()) >= 0) {
+                    threads = bean;
+                    allocatedBytes = method;
+                }
+            }
+        } catch (Exception e) {
+            threads = null;
+        }
+    }
+
+    @Test
+    public void prose() throws Exception {
+        StringBuilder doc = new StringBuilder(HEADER);
+        while (doc.length() < DOCUMENT_SIZE) {
+            doc.append("The quick brown fox jumps over the lazy dog, ")
+                    .append("{\\b and then} {\\i runs away}.\\par\n");
+        }
+        assertBudget("prose", doc, 52);
+    }
+
+    @Test
+    public void unicode() throws Exception {
+        StringBuilder doc = new StringBuilder(HEADER).append("\\uc1 ");
+        int c = 0x0410;
+        while (doc.length() < DOCUMENT_SIZE) {
+            for (int i = 0; i < 8; i++) {
+                doc.append("\\u").append(c + i).append('?');
+            }
+            doc.append(" \\'e9t\\'e9 caf\\'e9\\par\n");
+            c = c == 0x0430 ? 0x0410 : c + 1;
+        }
+        assertBudget("unicode", doc, 44);
+    }
+
+    @Test
+    public void tables() throws Exception {
+        StringBuilder doc = new StringBuilder(HEADER);
+        int row = 0;
+        while (doc.length() < DOCUMENT_SIZE) {
+            doc.append("\\trowd\\trgaph108\\cellx2000\\cellx4000\\cellx6000\n");
+            for (int cell = 0; cell < 3; cell++) {
+                doc.append("\\pard\\intbl R").append(row).append('C').append(cell)
+                        .append("\\cell ");
+            }
+            doc.append("\\row\n");
+            row++;
+        }
+        assertBudget("tables", doc, 28);
+    }
+
+    @Test
+    public void pictures() throws Exception {
+        StringBuilder doc = new StringBuilder(HEADER);
+        while (doc.length() < DOCUMENT_SIZE) {
+            doc.append("Figure:{\\pict\\pngblip\\picw64\\pich64\n");
+            for (int line = 0; line < 32; line++) {
+                doc.append("89504e470d0a1a0a0000000d49484452000000400000004008060000\n");
+            }
+            doc.append("}\\par\n");
+        }
+        assertBudget("pictures", doc, 13.5);
+    }
+
+    private static void assertBudget(String scenario, CharSequence document,
+                                     double budget) throws Exception {
+        assumeTrue("thread allocation counters are unavailable", threads != null);
+        byte[] input = (document + "}").getBytes("ISO-8859-1");
+        for (int i = 0; i < WARMUP; i++) {
+            extract(input);
+        }
+        // the least of a few runs, in case something else ran on this thread
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long before = allocated();
+            extract(input);
+            allocated = Math.min(allocated, allocated() - before);
+        }
+        double perByte = (double) allocated / input.length;
+        assertTrue(String.format("%s allocated %.2f bytes per input byte, budget %.2f",
+                scenario, perByte, budget), perByte <= budget);
+    }
+
+    private static void extract(byte[] input) throws Exception {
+        new RTFPlainTextExtractor().extract(new ByteArrayInputStream(input), NULL, null);
+    }
+
+    private static long allocated() throws Exception {
+        return (Long) allocatedBytes.invoke(threads, Thread.currentThread().getId());
+    }
+
+    private static final Writer NULL = new Writer() {
+        public void write(char[] buf, int off, int len) {
+        }
+
+        public void write(String str) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    };
+}
@@ -0,0 +1,183 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.cache.MemoryExtractionCache;
+import com.trick2live.parser.rtf.exception.ExtractionLimitException;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that each of the {@link ExtractionLimits} stops an extraction,
+ * buffered and pipelined, with an {@link ExtractionLimitException} naming
+ * that limit, and that a document just within the limits is extracted.
+ */
+public class ExtractionLimitsTest {
+
+    private static byte[] document(int paragraphs) throws Exception {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi\\deff0 ");
+        for (int i = 0; i < paragraphs; i++) {
+            rtf.append("{\\b word ").append(i).append("} \\'e9\\tab x\\par ");
+        }
+        return rtf.append('}').toString().getBytes("ISO-8859-1");
+    }
+
+    // groups nested depth deep, the document group included
+    private static byte[] nested(int depth) throws Exception {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi ");
+        for (int i = 1; i < depth; i++) {
+            rtf.append('{');
+        }
+        rtf.append('x');
+        for (int i = 1; i < depth; i++) {
+            rtf.append('}');
+        }
+        return rtf.append('}').toString().getBytes("ISO-8859-1");
+    }
+
+    private static PlainTextExtractor extractor(boolean pipelined, ExtractionLimits limits) {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setPipelined(pipelined);
+        extractor.setLimits(limits);
+        return extractor;
+    }
+
+    private static String extract(PlainTextExtractor extractor, byte[] rtf) throws Exception {
+        StringWriter output = new StringWriter();
+        extractor.extract(new ByteArrayInputStream(rtf), "application/rtf", output, "ISO-8859-1");
+        return output.toString();
+    }
+
+    /**
+     * Extracts <code>rtf</code> buffered and pipelined, checks both fail
+     * on <code>limit</code>, and returns the buffered failure.
+     */
+    private static ExtractionLimitException assertExceeds(int limit, ExtractionLimits limits,
+                                                          byte[] rtf) throws Exception {
+        ExtractionLimitException buffered = null;
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            try {
+                extract(extractor(pipelined == 1, limits), rtf);
+                fail("pipelined " + pipelined + ": " + ExtractionLimits.getLimitName(limit)
+                        + " not enforced");
+            } catch (ExtractionLimitException e) {
+                assertEquals(e.getMessage(), limit, e.getLimit());
+                assertTrue(e.getMessage(), e.getMessage().startsWith(ExtractionLimits.getLimitName(limit)));
+                if (buffered == null) {
+                    buffered = e;
+                }
+            }
+        }
+        return buffered;
+    }
+
+    private static void assertWithin(ExtractionLimits limits, byte[] rtf) throws Exception {
+        String expected = extract(new PlainTextExtractor(), rtf);
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            assertEquals(expected, extract(extractor(pipelined == 1, limits), rtf));
+        }
+    }
+
+    @Test
+    public void maxInputBytes() throws Exception {
+        byte[] rtf = document(2000);
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxInputBytes(rtf.length - 1);
+        ExtractionLimitException e = assertExceeds(ExtractionLimits.MAX_INPUT_BYTES, limits, rtf);
+        assertTrue(e.getBytesRead() + " bytes", e.getBytesRead() > rtf.length - 1);
+
+        limits.setMaxInputBytes(rtf.length);
+        assertWithin(limits, rtf);
+    }
+
+    @Test
+    public void maxInputBytesOfACachedExtraction() throws Exception {
+        byte[] rtf = document(10);
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxInputBytes(rtf.length - 1);
+        PlainTextExtractor extractor = extractor(false, limits);
+        extractor.setCache(new MemoryExtractionCache(1 << 20));
+        try {
+            extract(extractor, rtf);
+            fail("maximum input size not enforced");
+        } catch (ExtractionLimitException e) {
+            assertEquals(ExtractionLimits.MAX_INPUT_BYTES, e.getLimit());
+        }
+    }
+
+    @Test
+    public void maxGroupDepth() throws Exception {
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxGroupDepth(20);
+        ExtractionLimitException e = assertExceeds(ExtractionLimits.MAX_GROUP_DEPTH, limits, nested(21));
+        // stopped where the group opened, not at the end of input
+        assertEquals(21 + 2, e.getTokens());
+        assertEquals(0, e.getCharsExtracted());
+
+        assertWithin(limits, nested(20));
+    }
+
+    @Test
+    public void maxTokens() throws Exception {
+        byte[] rtf = document(2000);
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxTokens(1000);
+        ExtractionLimitException e = assertExceeds(ExtractionLimits.MAX_TOKENS, limits, rtf);
+        assertEquals(1001, e.getTokens());
+
+        limits.setMaxTokens(100000);
+        assertWithin(limits, rtf);
+    }
+
+    @Test
+    public void maxTime() throws Exception {
+        byte[] rtf = document(20000);
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxTimeMillis(20);
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            PlainTextExtractor extractor = extractor(pipelined == 1, limits);
+            // slows the parse down at every check of the clock
+            extractor.setProgressListener(new ProgressListener() {
+                public void progress(long position) {
+                    try {
+                        Thread.sleep(30);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            try {
+                extract(extractor, rtf);
+                fail("pipelined " + pipelined + ": maximum extraction time not enforced");
+            } catch (ExtractionLimitException e) {
+                assertEquals(ExtractionLimits.MAX_TIME, e.getLimit());
+                assertTrue(e.getElapsedMillis() + " ms", e.getElapsedMillis() >= 20);
+                // at the first check after the time was up
+                assertEquals(2 * ExtractionLimits.TIME_CHECK_INTERVAL, e.getTokens());
+            }
+        }
+
+        limits.setMaxTimeMillis(60000);
+        assertWithin(limits, rtf);
+    }
+
+    @Test
+    public void maxLengthIsNotALimit() throws Exception {
+        // a preview stops early too, but keeps its text instead of failing
+        byte[] rtf = document(2000);
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxInputBytes(rtf.length);
+        limits.setMaxTokens(100000);
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            PlainTextExtractor extractor = extractor(pipelined == 1, limits);
+            extractor.setMaxLength(50);
+            assertEquals(50, extract(extractor, rtf).length());
+        }
+    }
+}
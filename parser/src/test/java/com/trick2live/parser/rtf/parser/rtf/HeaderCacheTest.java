@@ -0,0 +1,175 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a table restored from a {@link HeaderCache} leaves the parser
+ * as parsing it would, and that tables the cache cannot vouch for are
+ * parsed as usual: ones with errors in them, ones declared under another
+ * code page, oversized ones, and any in pipelined mode.
+ */
+public class HeaderCacheTest {
+
+    private static final String TABLES =
+            "{\\fonttbl{\\f0\\fswiss\\fcharset0 Arial;}{\\f1\\froman\\fcharset204 Times;}}"
+            + "{\\colortbl;\\red255\\green0\\blue0;}"
+            + "{\\stylesheet{\\s0 Normal;}{\\s1 Heading 1;}}";
+
+    private static String document(int codepage, String tables) {
+        return "{\\rtf1\\ansi\\ansicpg" + codepage + "\\deff0" + tables
+                + "\\pard\\f1 \\'c0\\'c1{\\s1 \\'c2}\\par\\f0 \\'e9}";
+    }
+
+    /**
+     * What a parse told its delegate, and the font encodings it ended with.
+     */
+    private static final class Result implements RTFParserDelegate {
+        final StringBuilder text = new StringBuilder();
+        final List<Object> styleLists = new ArrayList<Object>();
+        int fontForEncoding;
+        List<ParseDiagnostic> diagnostics;
+
+        public void text(String text, String style, int context) {
+            if (context == IN_DOCUMENT) {
+                this.text.append(text).append('|').append(style).append('|');
+            }
+        }
+
+        public void controlSymbol(String controlSymbol, int context) {
+        }
+
+        public void controlWord(String controlWord, int value, int context) {
+        }
+
+        public void openGroup(int depth) {
+        }
+
+        public void closeGroup(int depth) {
+        }
+
+        public void styleList(List styles) {
+            styleLists.add(new ArrayList<Object>(styles));
+        }
+
+        public void startDocument() {
+        }
+
+        public void endDocument() {
+        }
+    }
+
+    private static Result parse(String rtf, HeaderCache cache, boolean lenient)
+            throws Exception {
+        RTFParserTokenManager lexer = new RTFParserTokenManager(
+                new SimpleCharStream(new StringReader(rtf), 1, 1));
+        lexer.setLenient(lenient);
+        RTFParser parser = new RTFParser(lexer);
+        parser.setErrorRecovery(lenient);
+        parser.setHeaderCache(cache);
+        Result result = new Result();
+        parser.setDelegate(result);
+        parser.parse();
+        result.fontForEncoding = parser.getFontForEncoding(RTFParser.getJavaEncoding(1251));
+        result.diagnostics = parser.getDiagnostics();
+        return result;
+    }
+
+    private static void assertSameParse(Result expected, Result actual) {
+        assertEquals(expected.text.toString(), actual.text.toString());
+        assertEquals(expected.styleLists, actual.styleLists);
+        assertEquals(expected.fontForEncoding, actual.fontForEncoding);
+        assertEquals(expected.diagnostics.toString(), actual.diagnostics.toString());
+    }
+
+    @Test
+    public void warmHitMatchesColdParse() throws Exception {
+        String rtf = document(1251, TABLES);
+        Result uncached = parse(rtf, null, false);
+        assertTrue(uncached.text.toString(), uncached.text.indexOf("\u0410\u0411") >= 0);
+        assertEquals(1, uncached.styleLists.size());
+
+        HeaderCache cache = new HeaderCache();
+        Result cold = parse(rtf, cache, false);
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertSameParse(uncached, cold);
+
+        Result warm = parse(rtf, cache, false);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertSameParse(uncached, warm);
+    }
+
+    @Test
+    public void tableWithDiagnosticsIsNotCached() throws Exception {
+        // \rtf is out of place in a font table: recovery skips it
+        String rtf = document(1251, "{\\fonttbl{\\f1\\fcharset204 Times;}\\rtf1}");
+        HeaderCache cache = new HeaderCache();
+        Result first = parse(rtf, cache, true);
+        assertEquals(1, first.diagnostics.size());
+        assertEquals(0, cache.size());
+
+        // parsed again, so the diagnostic is reported again
+        Result second = parse(rtf, cache, true);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertSameParse(first, second);
+    }
+
+    @Test
+    public void otherCodePageMisses() throws Exception {
+        HeaderCache cache = new HeaderCache();
+        parse(document(1251, TABLES), cache, false);
+        // the same table bytes, but their fonts now map to another encoding
+        String rtf = document(1252, TABLES);
+        Result warm = parse(rtf, cache, false);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(6, cache.getMissCount());
+        assertEquals(6, cache.size());
+        assertSameParse(parse(rtf, null, false), warm);
+        assertTrue(warm.text.toString(), warm.text.indexOf("\u00c0\u00c1") >= 0);
+    }
+
+    @Test
+    public void oversizedTableIsParsed() throws Exception {
+        String rtf = document(1251, TABLES);
+        // room for the color table only
+        HeaderCache cache = new HeaderCache(16, 25);
+        Result first = parse(rtf, cache, false);
+        Result second = parse(rtf, cache, false);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        Result uncached = parse(rtf, null, false);
+        assertSameParse(uncached, first);
+        assertSameParse(uncached, second);
+    }
+
+    @Test
+    public void pipelinedExtractionIgnoresTheCache() throws Exception {
+        String rtf = document(1251, TABLES);
+        PlainTextExtractor plain = new PlainTextExtractor();
+        String expected = plain.extract(rtf, "application/rtf", "ISO-8859-1");
+
+        HeaderCache cache = new HeaderCache();
+        for (int i = 0; i < 2; i++) {
+            PlainTextExtractor extractor = new PlainTextExtractor();
+            extractor.setPipelined(true);
+            extractor.setHeaderCache(cache);
+            assertEquals(expected, extractor.extract(rtf, "application/rtf", "ISO-8859-1"));
+        }
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+}
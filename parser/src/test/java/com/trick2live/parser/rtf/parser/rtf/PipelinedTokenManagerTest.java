@@ -0,0 +1,124 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link PipelinedTokenManager} hands out the tokens of the
+ * plain lexer, in order, over many batches.
+ */
+public class PipelinedTokenManagerTest {
+
+    private static String document(int paragraphs) {
+        StringBuilder doc = new StringBuilder("{\\rtf1\\ansi\\deff0");
+        for (int i = 0; i < paragraphs; i++) {
+            doc.append("{\\b word ").append(i).append("}\\'e9\\u1040?\\par\n");
+        }
+        return doc.append('}').toString();
+    }
+
+    private static SimpleCharStream stream(String text) {
+        return new SimpleCharStream(new StringReader(text), 1, 1);
+    }
+
+    @Test
+    public void matchesPlainLexer() {
+        // enough tokens to fill the ring several times over
+        String doc = document(PipelinedTokenManager.BATCH_SIZE
+                * PipelinedTokenManager.RING_CAPACITY);
+        RTFParserTokenManager plain = new RTFParserTokenManager(stream(doc));
+        PipelinedTokenManager pipelined = new PipelinedTokenManager(stream(doc));
+        pipelined.start();
+        try {
+            int count = 0;
+            Token expected;
+            do {
+                expected = plain.getNextToken();
+                Token actual = pipelined.getNextToken();
+                assertEquals("kind of token " + count, expected.kind, actual.kind);
+                assertEquals("image of token " + count, expected.image, actual.image);
+                assertEquals("value of token " + count, expected.value, actual.value);
+                count++;
+            } while (expected.kind != RTFParserConstants.EOF);
+        } finally {
+            pipelined.close();
+        }
+    }
+
+    @Test
+    public void repeatsEndOfInput() {
+        PipelinedTokenManager tokens = new PipelinedTokenManager(stream("{\\rtf1 a}"));
+        tokens.start();
+        Token t;
+        do {
+            t = tokens.getNextToken();
+        } while (t.kind != RTFParserConstants.EOF);
+        assertSame(t, tokens.getNextToken());
+        assertSame(t, tokens.getNextToken());
+        tokens.close();
+    }
+
+    @Test
+    public void rethrowsLexicalErrorOnParserThread() {
+        PipelinedTokenManager tokens = new PipelinedTokenManager(stream("{\\rtf1 a\\'zz}"));
+        tokens.start();
+        try {
+            while (tokens.getNextToken().kind != RTFParserConstants.EOF) {
+                // drain
+            }
+            fail("expected a lexical error");
+        } catch (TokenMgrError e) {
+            // thrown by the lexer thread, after the tokens before it
+        } finally {
+            tokens.close();
+        }
+    }
+
+    @Test
+    public void closeBeforeReadingStopsPipeline() {
+        PipelinedTokenManager tokens = new PipelinedTokenManager(
+                stream(document(PipelinedTokenManager.BATCH_SIZE * 64)));
+        tokens.start();
+        tokens.close();
+        try {
+            // whatever was queued is handed out, then the pipeline ends
+            while (tokens.getNextToken().kind != RTFParserConstants.EOF) {
+                // drain
+            }
+            fail("expected the closed pipeline to end early");
+        } catch (IllegalStateException e) {
+            // closed before the end of input
+        }
+    }
+
+    @Test
+    public void readingBeforeStartFails() {
+        PipelinedTokenManager tokens = new PipelinedTokenManager(stream("{\\rtf1 a}"));
+        try {
+            tokens.getNextToken();
+            fail("expected the unstarted pipeline to refuse");
+        } catch (IllegalStateException e) {
+            // no lexer thread yet
+        }
+        assertEquals(0, tokens.getInputPosition());
+    }
+
+    @Test
+    public void startsOnlyOnce() {
+        PipelinedTokenManager tokens = new PipelinedTokenManager(stream("{\\rtf1 a}"));
+        tokens.start();
+        try {
+            tokens.start();
+            fail("expected a second start to fail");
+        } catch (IllegalStateException e) {
+            // one lexer thread per pipeline
+        } finally {
+            tokens.close();
+        }
+    }
+}
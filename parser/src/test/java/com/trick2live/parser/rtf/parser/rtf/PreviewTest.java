@@ -0,0 +1,141 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.cache.MemoryExtractionCache;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a preview (see {@link PlainTextExtractor#setMaxLength(int)})
+ * is exactly the start of the full text, buffered, pipelined and from the
+ * cache, that it never ends in half a surrogate pair, and that reaching
+ * the length stops parsing instead of reading the whole document.
+ */
+public class PreviewTest {
+
+    // U+1F600 as a signed 16-bit surrogate pair
+    private static final String RTF_EMOJI = "\\u-10179?\\u-8704?";
+    private static final String EMOJI = "\ud83d\ude00";
+
+    /**
+     * Counts the bytes handed out, to tell how much of the input was read.
+     */
+    private static final class CountingInput extends ByteArrayInputStream {
+        int read;
+
+        CountingInput(byte[] bytes) {
+            super(bytes);
+        }
+
+        public synchronized int read() {
+            int c = super.read();
+            if (c >= 0) {
+                read++;
+            }
+            return c;
+        }
+
+        public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                read += n;
+            }
+            return n;
+        }
+    }
+
+    private static String document(int paragraphs) {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi\\deff0 ");
+        for (int i = 0; i < paragraphs; i++) {
+            rtf.append("{\\b word ").append(i).append("} \\'e9\\tab x\\par ");
+        }
+        return rtf.append('}').toString();
+    }
+
+    private static PlainTextExtractor extractor(boolean pipelined, int maxLength) {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setPipelined(pipelined);
+        extractor.setMaxLength(maxLength);
+        return extractor;
+    }
+
+    @Test
+    public void previewIsTheStartOfTheText() throws Exception {
+        String rtf = document(20);
+        String full = extractor(false, -1).extract(rtf, "application/rtf", "ISO-8859-1");
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            for (int length = 0; length <= full.length() + 1; length++) {
+                assertEquals("pipelined " + pipelined + ", length " + length,
+                        full.substring(0, Math.min(length, full.length())),
+                        extractor(pipelined == 1, length).extract(rtf, "application/rtf", "ISO-8859-1"));
+            }
+        }
+    }
+
+    @Test
+    public void previewKeepsSurrogatePairsWhole() throws Exception {
+        String rtf = "{\\rtf1\\ansi a" + RTF_EMOJI + "b}";
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            assertEquals("a" + EMOJI + "b",
+                    extractor(pipelined == 1, -1).extract(rtf, "application/rtf", "ISO-8859-1"));
+            assertEquals("a", extractor(pipelined == 1, 2).extract(rtf, "application/rtf", "ISO-8859-1"));
+            assertEquals("a" + EMOJI, extractor(pipelined == 1, 3).extract(rtf, "application/rtf", "ISO-8859-1"));
+        }
+    }
+
+    @Test
+    public void previewFromTheCacheKeepsSurrogatePairsWhole() throws Exception {
+        String rtf = "{\\rtf1\\ansi a" + RTF_EMOJI + "b}";
+        MemoryExtractionCache cache = new MemoryExtractionCache(1 << 20);
+        PlainTextExtractor extractor = extractor(false, -1);
+        extractor.setCache(cache);
+        assertEquals("a" + EMOJI + "b", extractor.extract(rtf, "application/rtf", "ISO-8859-1"));
+        assertEquals(1, cache.size());
+
+        for (int length = 0; length <= 5; length++) {
+            extractor.setMaxLength(length);
+            String expected = extractor(false, length).extract(rtf, "application/rtf", "ISO-8859-1");
+            assertEquals("length " + length, expected,
+                    extractor.extract(rtf, "application/rtf", "ISO-8859-1"));
+        }
+        assertEquals(6, cache.getHitCount());
+    }
+
+    @Test
+    public void previewIsNotCached() throws Exception {
+        String rtf = document(5);
+        MemoryExtractionCache cache = new MemoryExtractionCache(1 << 20);
+        PlainTextExtractor extractor = extractor(false, 10);
+        extractor.setCache(cache);
+        String preview = extractor.extract(rtf, "application/rtf", "ISO-8859-1");
+        assertEquals(10, preview.length());
+        assertEquals(0, cache.size());
+
+        extractor.setMaxLength(-1);
+        assertTrue(extractor.extract(rtf, "application/rtf", "ISO-8859-1").startsWith(preview));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void previewStopsParsing() throws Exception {
+        byte[] rtf = document(50000).getBytes("ISO-8859-1");
+        for (int pipelined = 0; pipelined < 2; pipelined++) {
+            CumulativeMetrics metrics = new CumulativeMetrics();
+            PlainTextExtractor extractor = extractor(pipelined == 1, 100);
+            extractor.setMetricsListener(metrics);
+            CountingInput input = new CountingInput(rtf);
+            StringWriter output = new StringWriter();
+            extractor.extract(input, "application/rtf", output, "ISO-8859-1");
+            assertEquals(100, output.toString().length());
+            assertTrue("read " + input.read, input.read < rtf.length / 4);
+            assertEquals(1, metrics.getDocumentCount());
+            assertEquals(0, metrics.getFailureCount());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what {@link RTFMetadataScanner} reads from the header: fields in
+ * the document code page, with escapes and <code>&#92;u</code> characters,
+ * destinations behind <code>\*</code>, dates, fonts, and that it stops
+ * where the body starts.
+ */
+public class RTFMetadataScannerTest {
+
+    /**
+     * Counts the bytes handed out, to tell how much of the input was read.
+     */
+    private static final class CountingInput extends ByteArrayInputStream {
+        int read;
+
+        CountingInput(byte[] bytes) {
+            super(bytes);
+        }
+
+        public synchronized int read() {
+            int c = super.read();
+            if (c >= 0) {
+                read++;
+            }
+            return c;
+        }
+
+        public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                read += n;
+            }
+            return n;
+        }
+    }
+
+    private static RTFMetadata scan(String rtf) throws Exception {
+        return new RTFMetadataScanner().scan(
+                new ByteArrayInputStream(rtf.getBytes("ISO-8859-1")));
+    }
+
+    private static Date date(int year, int month, int day, int hour, int minute) {
+        Calendar c = new GregorianCalendar();
+        c.clear();
+        c.set(year, month, day, hour, minute, 0);
+        return c.getTime();
+    }
+
+    @Test
+    public void fieldsInTheDocumentCodePage() throws Exception {
+        RTFMetadata metadata = scan("{\\rtf1\\ansi\\ansicpg1251\\deff0"
+                + "{\\info{\\title \\'cf\\'f0\\'e8\\'e2\\'e5\\'f2}{\\author A. N. Other}"
+                + "{\\subject one \\{two\\}}{\\keywords a\\tab b}{\\doccomm \\ldblquote x\\rdblquote }}"
+                + "\\pard text}");
+        assertEquals("\u041f\u0440\u0438\u0432\u0435\u0442", metadata.getTitle());
+        assertEquals("A. N. Other", metadata.getAuthor());
+        assertEquals("one {two}", metadata.getSubject());
+        assertEquals("a b", metadata.getKeywords());
+        assertEquals("\u201cx\u201d", metadata.getComment());
+        assertNull(metadata.getCompany());
+        assertEquals(1251, metadata.getCodepage());
+        assertEquals(RTFParser.getJavaEncoding(1251), metadata.getEncoding());
+    }
+
+    @Test
+    public void ignorableCompany() throws Exception {
+        RTFMetadata metadata = scan("{\\rtf1\\ansi{\\info{\\*\\company Acme}{\\*\\unknown x}}\\pard}");
+        assertEquals("Acme", metadata.getCompany());
+        assertNull(metadata.getTitle());
+        assertEquals(-1, metadata.getCodepage());
+        assertEquals("Cp1252", metadata.getEncoding());
+    }
+
+    @Test
+    public void unicodeInTheTitle() throws Exception {
+        assertEquals("caf\u00e9s", scan("{\\rtf1\\ansi{\\info{\\title caf\\u233?s}}}").getTitle());
+        assertEquals("caf\u00e9s", scan("{\\rtf1\\ansi{\\info{\\title \\uc2 caf\\u233\\'e9?s}}}").getTitle());
+        assertEquals("\u0410\u0411", scan("{\\rtf1\\ansi{\\info{\\title \\u1040 ?\\u1041 ?}}}").getTitle());
+    }
+
+    @Test
+    public void dates() throws Exception {
+        RTFMetadata metadata = scan("{\\rtf1\\ansi{\\info"
+                + "{\\creatim\\yr2020\\mo3\\dy15\\hr10\\min30}"
+                + "{\\revtim\\yr2021\\mo12\\dy31\\hr23\\min59}}}");
+        assertEquals(date(2020, Calendar.MARCH, 15, 10, 30), metadata.getCreationTime());
+        assertEquals(date(2021, Calendar.DECEMBER, 31, 23, 59), metadata.getRevisionTime());
+    }
+
+    @Test
+    public void missingDatePartsAreTheFirst() throws Exception {
+        RTFMetadata metadata = scan("{\\rtf1\\ansi{\\info{\\creatim\\yr2020}{\\revtim\\yr2020\\mo6}}}");
+        assertEquals(date(2020, Calendar.JANUARY, 1, 0, 0), metadata.getCreationTime());
+        assertEquals(date(2020, Calendar.JUNE, 1, 0, 0), metadata.getRevisionTime());
+
+        metadata = scan("{\\rtf1\\ansi{\\info{\\creatim\\mo6\\dy2}}}");
+        assertNull(metadata.getCreationTime());
+        assertNull(metadata.getRevisionTime());
+    }
+
+    @Test
+    public void fonts() throws Exception {
+        List<RTFMetadata.Font> fonts = scan("{\\rtf1\\ansi{\\fonttbl"
+                + "{\\f0\\fswiss\\fcharset0 Arial;}{\\f1\\froman\\fcharset204{\\*\\panose 0}Times New Roman;}"
+                + "{\\f2 Symbol;}}\\pard}").getFonts();
+        assertEquals(3, fonts.size());
+        assertEquals(0, fonts.get(0).getNumber());
+        assertEquals(0, fonts.get(0).getCharset());
+        assertEquals("Arial", fonts.get(0).getName());
+        assertEquals(204, fonts.get(1).getCharset());
+        assertEquals("Times New Roman", fonts.get(1).getName());
+        assertEquals(2, fonts.get(2).getNumber());
+        assertEquals(-1, fonts.get(2).getCharset());
+    }
+
+    @Test
+    public void stopsAtTheBody() throws Exception {
+        // an \info after the body starts is not looked for
+        assertNull(scan("{\\rtf1\\ansi\\pard{\\info{\\title late}}}").getTitle());
+        assertNull(scan("{\\rtf1\\ansi\\sectd{\\info{\\title late}}}").getTitle());
+        assertNull(scan("{\\rtf1\\ansi hello{\\info{\\title late}}}").getTitle());
+        assertEquals("early", scan("{\\rtf1\\ansi {\\info{\\title early}} {\\colortbl;}\\pard x}").getTitle());
+    }
+
+    @Test
+    public void readsOnlyTheHeader() throws Exception {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi{\\info{\\title t}}\\pard ");
+        while (rtf.length() < 1 << 20) {
+            rtf.append("{\\b word}\\par ");
+        }
+        rtf.append('}');
+        CountingInput input = new CountingInput(rtf.toString().getBytes("ISO-8859-1"));
+        assertEquals("t", new RTFMetadataScanner().scan(input).getTitle());
+        assertTrue("read " + input.read, input.read < 64 * 1024);
+    }
+}
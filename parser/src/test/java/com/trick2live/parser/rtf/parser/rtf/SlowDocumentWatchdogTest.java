@@ -0,0 +1,110 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that untimed metrics count tokens without reading the clock, and
+ * that {@link SlowDocumentWatchdog} reports the token histogram with only
+ * counting unless the extractor already has a metrics listener.
+ */
+public class SlowDocumentWatchdogTest {
+
+    private static final byte[] DOCUMENT =
+            "{\\rtf1\\ansi{\\fonttbl{\\f0 Arial;}}\\f0 Hello\\par world}".getBytes();
+
+    /**
+     * Keeps what it was told, since metrics are not valid after the call.
+     */
+    private static final class Recorder implements MetricsListener {
+        boolean timed;
+        long lexingNanos = -1;
+        long decodingNanos = -1;
+        long writingNanos = -1;
+        long groups;
+        int calls;
+
+        public void documentParsed(ParseMetrics metrics) {
+            timed = metrics.isTimed();
+            lexingNanos = metrics.getLexingNanos();
+            decodingNanos = metrics.getDecodingNanos();
+            writingNanos = metrics.getWritingNanos();
+            groups = metrics.getTokenCount(RTFParserConstants.LBRACE);
+            calls++;
+        }
+    }
+
+    @Test
+    public void metricsAreTimedByDefault() throws Exception {
+        RTFPlainTextExtractor extractor = new RTFPlainTextExtractor();
+        Recorder recorder = new Recorder();
+        extractor.setMetricsListener(recorder);
+        extractor.extract(new ByteArrayInputStream(DOCUMENT), new StringWriter(), null);
+        assertTrue(recorder.timed);
+        assertEquals(3, recorder.groups);
+    }
+
+    @Test
+    public void untimedMetricsOnlyCount() throws Exception {
+        RTFPlainTextExtractor extractor = new RTFPlainTextExtractor();
+        Recorder recorder = new Recorder();
+        extractor.setMetricsListener(recorder);
+        extractor.setMetricsTimed(false);
+        StringWriter text = new StringWriter();
+        extractor.extract(new ByteArrayInputStream(DOCUMENT), text, null);
+        assertTrue(text.toString().contains("world"));
+        assertFalse(recorder.timed);
+        assertEquals(3, recorder.groups);
+        assertEquals(0, recorder.lexingNanos);
+        assertEquals(0, recorder.decodingNanos);
+        assertEquals(0, recorder.writingNanos);
+    }
+
+    @Test
+    public void reportsHistogramAndRestoresExtractor() throws Exception {
+        final List<SlowDocument> slow = new ArrayList<SlowDocument>();
+        SlowDocumentWatchdog watchdog = new SlowDocumentWatchdog();
+        watchdog.setMaxMillis(0);
+        watchdog.setListener(new SlowDocumentListener() {
+            public void slowDocument(SlowDocument document) {
+                slow.add(document);
+            }
+        });
+        RTFPlainTextExtractor extractor = new RTFPlainTextExtractor();
+        watchdog.extract(extractor, DOCUMENT, DOCUMENT.length, new StringWriter());
+
+        // a document is never parsed in under a nanosecond, so it is slow
+        assertEquals(1, slow.size());
+        assertEquals(3, slow.get(0).getTokenCount(RTFParserConstants.LBRACE));
+        assertEquals(DOCUMENT.length, slow.get(0).getSize());
+        assertNull(extractor.getMetricsListener());
+        assertTrue(extractor.isMetricsTimed());
+    }
+
+    @Test
+    public void keepsTimingForTheExtractorsListener() throws Exception {
+        SlowDocumentWatchdog watchdog = new SlowDocumentWatchdog();
+        RTFPlainTextExtractor extractor = new RTFPlainTextExtractor();
+        Recorder recorder = new Recorder();
+        extractor.setMetricsListener(recorder);
+        watchdog.extract(extractor, DOCUMENT, DOCUMENT.length, new StringWriter());
+        assertEquals(1, recorder.calls);
+        assertTrue(recorder.timed);
+        assertEquals(1, watchdog.getDocumentCount());
+        assertEquals(0, watchdog.getSlowDocumentCount());
+
+        extractor.setMetricsTimed(false);
+        watchdog.extract(extractor, DOCUMENT, DOCUMENT.length, new StringWriter());
+        assertFalse(recorder.timed);
+        assertFalse(extractor.isMetricsTimed());
+    }
+}
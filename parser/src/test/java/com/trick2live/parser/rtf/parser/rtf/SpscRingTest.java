@@ -0,0 +1,123 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link SpscRing} on one thread, where every wait is avoidable, and
+ * across a producer and a consumer thread.
+ */
+public class SpscRingTest {
+
+    private static final int ELEMENTS = 1000000;
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        SpscRing<Integer> ring = new SpscRing<Integer>(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(8));
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(8));
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        SpscRing<Integer> ring = new SpscRing<Integer>(4);
+        int next = 0;
+        int expected = 0;
+        // uneven batches, so that reads and writes wrap at different slots
+        for (int round = 0; round < 100; round++) {
+            while (ring.offer(next)) {
+                next++;
+            }
+            for (int i = 0; i < 1 + round % 4; i++) {
+                assertEquals(Integer.valueOf(expected++), ring.poll());
+            }
+        }
+        Integer e;
+        while ((e = ring.poll()) != null) {
+            assertEquals(Integer.valueOf(expected++), e);
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void pollOnEmptyRingReturnsNull() {
+        SpscRing<String> ring = new SpscRing<String>(2);
+        assertNull(ring.poll());
+        ring.offer("a");
+        ring.poll();
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void producerAndConsumerThreadsKeepOrder() throws Exception {
+        final SpscRing<Integer> ring = new SpscRing<Integer>(16);
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < ELEMENTS; i++) {
+                    ring.put(i);
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertEquals(Integer.valueOf(i), ring.take());
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void takeDrainsBeforeReportingClose() {
+        SpscRing<String> ring = new SpscRing<String>(4);
+        ring.put("a");
+        ring.put("b");
+        ring.close();
+        assertEquals("a", ring.take());
+        assertEquals("b", ring.take());
+        assertNull(ring.take());
+    }
+
+    @Test
+    public void closeWakesWaitingConsumer() throws Exception {
+        final SpscRing<String> ring = new SpscRing<String>(4);
+        final String[] taken = {"not returned"};
+        Thread consumer = new Thread() {
+            public void run() {
+                taken[0] = ring.take();
+            }
+        };
+        consumer.start();
+        Thread.sleep(50);
+        ring.close();
+        consumer.join(10000);
+        assertFalse(consumer.isAlive());
+        assertNull(taken[0]);
+    }
+
+    @Test
+    public void closeWakesWaitingProducer() throws Exception {
+        final SpscRing<String> ring = new SpscRing<String>(2);
+        final boolean[] added = {true};
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 3 && added[0]; i++) {
+                    added[0] = ring.put("x");
+                }
+            }
+        };
+        producer.start();
+        Thread.sleep(50);
+        ring.close();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertFalse(added[0]);
+    }
+}
@@ -0,0 +1,66 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link RTFParserTokenManager#fillTape} records the same
+ * kinds, images and values as {@link RTFParserTokenManager#getNextToken}.
+ */
+public class TokenTapeTest {
+
+    private static final String DOCUMENT = "{\\rtf1\\ansi\\ansicpg1251\\deff0"
+            + "{\\fonttbl{\\f0\\fcharset204 Arial;}}"
+            + "{\\info{\\title Report}{\\creatim\\yr2020\\mo3\\dy4}}"
+            + "\\pard\\plain\\fs24 Hello, \\'e9\\u1040?\\u-3913?{\\*\\bkmkstart x}"
+            + "\\tab\\~\\-\\{\\}\\\\ world\\par}";
+
+    private static SimpleCharStream stream() {
+        return new SimpleCharStream(new StringReader(DOCUMENT), 1, 1);
+    }
+
+    @Test
+    public void matchesTokens() {
+        // a tape smaller than the document, so it is refilled
+        TokenTape tape = new TokenTape(7);
+        RTFParserTokenManager tapeLexer = new RTFParserTokenManager(stream());
+        RTFParserTokenManager tokenLexer = new RTFParserTokenManager(stream());
+        int count = 0;
+        boolean end = false;
+        while (!end) {
+            tape.clear();
+            int added = tapeLexer.fillTape(tape);
+            assertEquals(tape.size(), added);
+            for (int i = 0; i < tape.size(); i++, count++) {
+                Token t = tokenLexer.getNextToken();
+                assertEquals("kind of token " + count, t.kind, tape.kind(i));
+                end = t.kind == RTFParserConstants.EOF;
+                if (end) {
+                    // the EOF Token repeats the image before it; the tape
+                    // leaves it empty
+                    assertEquals("", tape.image(i));
+                    break;
+                }
+                assertEquals("image of token " + count, t.image, tape.image(i));
+                assertEquals("value of token " + count, t.value, tape.value(i));
+                assertTrue(tape.imageEquals(i, t.image));
+            }
+        }
+        assertTrue(count > 7);
+    }
+
+    @Test
+    public void imageEqualsComparesWholeImage() {
+        TokenTape tape = new TokenTape();
+        new RTFParserTokenManager(new SimpleCharStream(
+                new StringReader("\\pard\\par"), 1, 1)).fillTape(tape);
+        assertTrue(tape.imageEquals(0, "\\pard"));
+        assertTrue(!tape.imageEquals(0, "\\par"));
+        assertTrue(tape.imageEquals(1, "\\par"));
+        assertTrue(!tape.imageEquals(1, "\\pard"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.trick2live.parser.rtf.parser.rtf;
+
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the fallback characters after a <code>&#92;u</code> are
+ * skipped, as many as <code>&#92;uc</code> says, whether they follow the
+ * number directly or after a space, and that a brace or a control word
+ * ends the fallback early.
+ */
+public class UnicodeFallbackTest {
+
+    private static final String HEADER = "{\\rtf1\\ansi\\ansicpg1252\\deff0 ";
+
+    private static void assertText(String expected, String body) throws Exception {
+        for (int lenient = 0; lenient < 2; lenient++) {
+            PlainTextExtractor extractor = new PlainTextExtractor();
+            extractor.setLenient(lenient == 1);
+            assertEquals(body, expected,
+                    extractor.extract(HEADER + body + "}", "application/rtf", "ISO-8859-1"));
+        }
+    }
+
+    @Test
+    public void fallbackFollowingNumber() throws Exception {
+        assertText("a\u0410bcd", "a\\u1040?bcd");
+        assertText("a\u0410\u0411b", "a\\u1040?\\u1041?b");
+        assertText("a\uf0b7b", "a\\u-3913?b");
+    }
+
+    @Test
+    public void fallbackAfterSpace() throws Exception {
+        assertText("a\u0410bcd", "a\\u1040 ?bcd");
+        assertText("a\u0410 bcd", "a\\u1040 ? bcd");
+    }
+
+    @Test
+    public void fallbackCounts() throws Exception {
+        assertText("a\u0410b", "\\uc0 a\\u1040 b");
+        assertText("a\u0410b", "\\uc2 a\\u1040??b");
+        assertText("a\u0410b", "\\uc2 a\\u1040\\'3f\\'3fb");
+        assertText("a\u0410b", "\\uc2 a\\u1040?\\'3fb");
+        assertText("a\u0410b", "\\uc3 a\\u1040?\\'3f?b");
+    }
+
+    @Test
+    public void braceEndsFallback() throws Exception {
+        assertText("a\u20ac b\nc", "a{\\u8364?} b\\par c");
+        assertText("a\u20ac b", "a{\\u8364} b");
+        assertText("a\u0410b", "{\\uc2 a\\u1040?}b");
+    }
+
+    @Test
+    public void controlWordEndsFallback() throws Exception {
+        assertText("a\u0410\nb", "a\\u1040?\\par b");
+        assertText("a\u0410\nb", "a\\u1040\\par b");
+        assertText("a\u0410\nb", "\\uc2 a\\u1040?\\par b");
+        assertText("a\u0410\u0411b", "a\\u1040\\u1041?b");
+    }
+}
@@ -0,0 +1,254 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+import com.trick2live.parser.rtf.parser.rtf.HeaderCache;
+import com.trick2live.parser.rtf.parser.rtf.SlowDocumentWatchdog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extracts the text of a directory tree of RTF files into another, in one
+ * JVM and in parallel, reporting throughput and latency as it goes.
+ *
+ * <pre>
+ * BatchExtractor [-threads n] [-glob pattern] [-lenient]
+ *                [-slow millis] [-quarantine directory] input output
+ * </pre>
+ *
+ * <p>Each input file is written to the same relative path under the output
+ * directory, with its extension replaced by <code>.txt</code>, in UTF-8.
+ * Outputs are written to a temporary file beside the target and moved into
+ * place, so that an interrupted run never leaves a truncated text behind
+ * and a rerun can tell finished files from unfinished ones.</p>
+ *
+ * <p>Every worker thread keeps its own {@link PlainTextExtractor}, and all
+ * of them share one {@link HeaderCache}, so documents made from the same
+ * templates skip their font and style tables. With <code>-slow</code>,
+ * documents that take longer are reported, and copied into the quarantine
+ * directory if one is given.</p>
+ *
+ * <p>Progress goes to standard error once a second, the summary to
+ * standard output. The exit status is 1 if any file failed.</p>
+ */
+public class BatchExtractor {
+
+    private static final String EXTENSION = ".txt";
+
+    private final Path input;
+    private final Path output;
+    private final HeaderCache headerCache = new HeaderCache();
+    private boolean lenient;
+    private SlowDocumentWatchdog watchdog;
+    private final ThreadLocal<PlainTextExtractor> extractors =
+            ThreadLocal.withInitial(this::createExtractor);
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long startNanos;
+
+    BatchExtractor(Path input, Path output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    private PlainTextExtractor createExtractor() {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setLenient(lenient);
+        extractor.setHeaderCache(headerCache);
+        extractor.setWatchdog(watchdog);
+        return extractor;
+    }
+
+    /**
+     * @return the path the text of <code>file</code> is written to
+     */
+    Path target(Path file) {
+        String name = input.relativize(file).toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > name.lastIndexOf(File.separatorChar)) {
+            name = name.substring(0, dot);
+        }
+        return output.resolve(name + EXTENSION);
+    }
+
+    /**
+     * Extracts one file. Failures, errors included, are counted and
+     * reported, not thrown.
+     */
+    void extract(Path file) {
+        long start = System.nanoTime();
+        Path target = target(file);
+        Path temporary = null;
+        try {
+            Files.createDirectories(target.getParent());
+            temporary = Files.createTempFile(target.getParent(),
+                    "." + target.getFileName(), ".tmp");
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                         Files.newOutputStream(temporary), StandardCharsets.UTF_8))) {
+                extractors.get().extract(in, "application/rtf", out, null);
+            }
+            move(temporary, target);
+            temporary = null;
+        } catch (Throwable e) {
+            // a lexical error or a stack overflow from deep nesting fails
+            // this file, not the run
+            failures.incrementAndGet();
+            // parse errors list every expected token; the first line will do
+            String message = e.toString();
+            int newline = message.indexOf('\n');
+            System.err.println(file + ": "
+                    + (newline < 0 ? message : message.substring(0, newline)));
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // only a stray temporary file is left
+                }
+            }
+        }
+        try {
+            bytes.addAndGet(Files.size(file));
+        } catch (IOException ignored) {
+            // already counted as a failure
+        }
+        latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        documents.incrementAndGet();
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Extracts <code>files</code> on <code>threads</code> threads, printing
+     * progress to <code>progress</code> every second.
+     *
+     * @return whether every file was extracted
+     */
+    boolean run(List<Path> files, int threads, PrintStream progress) throws Exception {
+        startNanos = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> progress.println(report(files.size())),
+                1, 1, TimeUnit.SECONDS);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(pool.submit(() -> extract(file)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+            reporter.shutdownNow();
+        }
+        return failures.get() == 0;
+    }
+
+    String report(int total) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long done = documents.get();
+        return String.format(Locale.ROOT,
+                "%d/%d docs, %d failed, %.1f docs/s, %.2f MB/s, "
+                        + "p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                done, total, failures.get(), done / seconds,
+                bytes.get() / (1024.0 * 1024.0) / seconds,
+                latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3,
+                latencies.percentile(1) / 1e3);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String glob = "**.rtf";
+        boolean lenient = false;
+        long slowMillis = SlowDocumentWatchdog.NO_THRESHOLD;
+        Path quarantine = null;
+        List<Path> directories = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-glob") && i + 1 < args.length) {
+                glob = args[++i];
+            } else if (args[i].equals("-lenient")) {
+                lenient = true;
+            } else if (args[i].equals("-slow") && i + 1 < args.length) {
+                slowMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-quarantine") && i + 1 < args.length) {
+                quarantine = Paths.get(args[++i]);
+            } else {
+                directories.add(Paths.get(args[i]));
+            }
+        }
+        if (directories.size() != 2) {
+            System.err.println("usage: BatchExtractor [-threads n] [-glob pattern] [-lenient] "
+                    + "[-slow millis] [-quarantine directory] input output");
+            System.exit(2);
+        }
+
+        Path root = directories.get(0);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(root)) {
+            files = paths.filter(p -> Files.isRegularFile(p)
+                    && matcher.matches(root.relativize(p))).collect(Collectors.toList());
+        }
+
+        BatchExtractor batch = new BatchExtractor(root, directories.get(1));
+        batch.lenient = lenient;
+        if (slowMillis != SlowDocumentWatchdog.NO_THRESHOLD) {
+            SlowDocumentWatchdog watchdog = new SlowDocumentWatchdog();
+            watchdog.setMaxMillis(slowMillis);
+            if (quarantine != null) {
+                Files.createDirectories(quarantine);
+                watchdog.setQuarantineDirectory(quarantine.toFile());
+            }
+            watchdog.setListener(document -> System.err.println("slow: " + document));
+            batch.watchdog = watchdog;
+        }
+        boolean ok = batch.run(files, threads, System.err);
+        System.out.println(batch.report(files.size()));
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
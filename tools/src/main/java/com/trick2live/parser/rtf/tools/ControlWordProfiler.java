@@ -0,0 +1,298 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.trick2live.parser.rtf.parser.rtf.RTFParserConstants;
+import com.trick2live.parser.rtf.parser.rtf.RTFParserTokenManager;
+import com.trick2live.parser.rtf.parser.rtf.SimpleCharStream;
+import com.trick2live.parser.rtf.parser.rtf.Token;
+import com.trick2live.parser.rtf.parser.rtf.TokenMgrError;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Lexes a directory tree of RTF files in parallel and reports how often
+ * each control word occurs, which destinations occur and how many bytes
+ * they take, which codepages and charsets are declared and how deep groups
+ * nest. Meant for deciding which control words deserve a fast path and
+ * which destinations are worth skipping in the lexer.
+ *
+ * <pre>
+ * ControlWordProfiler [-threads n] [-top n] [-glob pattern] directory
+ * </pre>
+ *
+ * <p>Only the lexer runs, leniently, so malformed files are profiled as
+ * far as they can be lexed. The glob defaults to <code>**.rtf</code>.</p>
+ */
+public class ControlWordProfiler {
+
+    /**
+     * Control words that start a destination when they open a group. Any
+     * group opened with <code>\*</code> is a destination too.
+     */
+    static final Set<String> DESTINATIONS = new HashSet<>(Arrays.asList(
+            "\\author", "\\bkmkend", "\\bkmkstart", "\\buptim", "\\category",
+            "\\colortbl", "\\comment", "\\company", "\\creatim", "\\doccomm",
+            "\\docvar", "\\field", "\\fldinst", "\\fldrslt", "\\fonttbl",
+            "\\footer", "\\footerf", "\\footerl", "\\footerr", "\\footnote",
+            "\\header", "\\headerf", "\\headerl", "\\headerr", "\\info",
+            "\\keywords", "\\listtable", "\\listoverridetable", "\\manager",
+            "\\nonshppict", "\\object", "\\objdata", "\\operator", "\\pict",
+            "\\pntext", "\\pntxta", "\\pntxtb", "\\printim", "\\result",
+            "\\revtbl", "\\revtim", "\\rsidtbl", "\\shp", "\\shpinst",
+            "\\shprslt", "\\shptxt", "\\sn", "\\sp", "\\stylesheet",
+            "\\subject", "\\sv", "\\title", "\\txe", "\\xe"));
+
+    /**
+     * The histograms of one file, or of many merged.
+     */
+    static final class Profile {
+        long files;
+        long failures;
+        long bytes;
+        long tokens;
+        final Map<String, long[]> controlWords = new HashMap<>();
+        final Map<String, long[]> destinations = new HashMap<>();
+        final Map<String, long[]> destinationBytes = new HashMap<>();
+        final Map<String, long[]> codepages = new HashMap<>();
+        final Map<String, long[]> groupDepths = new HashMap<>();
+        final Map<String, long[]> maxDepths = new HashMap<>();
+
+        static void add(Map<String, long[]> histogram, String key, long n) {
+            long[] count = histogram.get(key);
+            if (count == null) {
+                histogram.put(key, new long[] {n});
+            } else {
+                count[0] += n;
+            }
+        }
+
+        static void addAll(Map<String, long[]> into, Map<String, long[]> from) {
+            for (Map.Entry<String, long[]> entry : from.entrySet()) {
+                add(into, entry.getKey(), entry.getValue()[0]);
+            }
+        }
+
+        synchronized void merge(Profile other) {
+            files += other.files;
+            failures += other.failures;
+            bytes += other.bytes;
+            tokens += other.tokens;
+            addAll(controlWords, other.controlWords);
+            addAll(destinations, other.destinations);
+            addAll(destinationBytes, other.destinationBytes);
+            addAll(codepages, other.codepages);
+            addAll(groupDepths, other.groupDepths);
+            addAll(maxDepths, other.maxDepths);
+        }
+    }
+
+    /**
+     * Lexes one document into a profile.
+     */
+    static Profile profile(InputStream input) {
+        Profile profile = new Profile();
+        profile.files = 1;
+        RTFParserTokenManager lexer =
+                new RTFParserTokenManager(new SimpleCharStream(input, 1, 1));
+        lexer.setLenient(true);
+        // the offset each open group starts at, and its destination
+        long[] starts = new long[64];
+        String[] names = new String[64];
+        int depth = 0;
+        int maxDepth = 0;
+        // whether the group just opened may still turn out a destination
+        boolean groupStart = false;
+        boolean ignorable = false;
+        try {
+            for (Token t = lexer.getNextToken(); t.kind != RTFParserConstants.EOF;
+                 t = lexer.getNextToken()) {
+                profile.tokens++;
+                if (t.kind == RTFParserConstants.LBRACE) {
+                    if (depth == starts.length) {
+                        starts = Arrays.copyOf(starts, depth * 2);
+                        names = Arrays.copyOf(names, depth * 2);
+                    }
+                    starts[depth] = t.beginOffset;
+                    names[depth] = null;
+                    depth++;
+                    maxDepth = Math.max(maxDepth, depth);
+                    Profile.add(profile.groupDepths, bucket(depth), 1);
+                    groupStart = true;
+                    ignorable = false;
+                    continue;
+                } else if (t.kind == RTFParserConstants.RBRACE) {
+                    if (depth > 0) {
+                        depth--;
+                        if (names[depth] != null) {
+                            Profile.add(profile.destinationBytes, names[depth],
+                                    t.beginOffset + 1 - starts[depth]);
+                        }
+                    }
+                } else if (t.kind == RTFParserConstants.HEX_CHAR) {
+                    Profile.add(profile.controlWords, "\\'", 1);
+                } else if (t.image.startsWith("\\")) {
+                    Profile.add(profile.controlWords, printable(t.image), 1);
+                    if (groupStart && t.image.equals("\\*")) {
+                        ignorable = true;
+                        continue;
+                    }
+                    if (groupStart && (ignorable || DESTINATIONS.contains(t.image))) {
+                        names[depth - 1] = ignorable ? "\\*" + t.image : t.image;
+                        Profile.add(profile.destinations, names[depth - 1], 1);
+                    }
+                    if (t.image.equals("\\ansicpg") || t.image.equals("\\fcharset")
+                            || t.image.equals("\\cpg")) {
+                        Profile.add(profile.codepages, t.image + t.value, 1);
+                    } else if (t.image.equals("\\ansi") || t.image.equals("\\mac")
+                            || t.image.equals("\\pc") || t.image.equals("\\pca")) {
+                        Profile.add(profile.codepages, t.image, 1);
+                    }
+                }
+                groupStart = false;
+            }
+        } catch (TokenMgrError e) {
+            profile.failures = 1;
+        } catch (RuntimeException e) {
+            // an I/O error, wrapped by the lexer
+            profile.failures = 1;
+        }
+        profile.bytes = lexer.getInputPosition();
+        Profile.add(profile.maxDepths, bucket(maxDepth), 1);
+        return profile;
+    }
+
+    /**
+     * @return the control symbol with line breaks spelled out
+     */
+    private static String printable(String image) {
+        if (image.length() == 2 && image.charAt(1) < ' ') {
+            return image.charAt(1) == '\n' ? "\\n" : image.charAt(1) == '\r' ? "\\r" : "\\?";
+        }
+        return image;
+    }
+
+    /**
+     * @return the depth, or the power of two range it falls in past 16
+     */
+    private static String bucket(int depth) {
+        if (depth <= 16) {
+            return String.format(Locale.ROOT, "%5d", depth);
+        }
+        int high = Integer.highestOneBit(depth - 1) * 2;
+        return String.format(Locale.ROOT, "%5d-%d", high / 2 + 1, high);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 40;
+        String glob = "**.rtf";
+        Path root = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-top") && i + 1 < args.length) {
+                top = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-glob") && i + 1 < args.length) {
+                glob = args[++i];
+            } else {
+                root = Paths.get(args[i]);
+            }
+        }
+        if (root == null) {
+            System.err.println("usage: ControlWordProfiler [-threads n] [-top n] "
+                    + "[-glob pattern] directory");
+            System.exit(2);
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        Path base = root;
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(root)) {
+            files = paths.filter(p -> Files.isRegularFile(p)
+                    && matcher.matches(base.relativize(p))).collect(Collectors.toList());
+        }
+
+        Profile total = new Profile();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Path file : files) {
+                tasks.add(pool.submit(() -> {
+                    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                        total.merge(profile(in));
+                    } catch (IOException e) {
+                        Profile failed = new Profile();
+                        failed.files = 1;
+                        failed.failures = 1;
+                        total.merge(failed);
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        print(System.out, total, top, seconds);
+    }
+
+    static void print(PrintStream out, Profile profile, int top, double seconds) {
+        out.println(String.format(Locale.ROOT,
+                "%d files (%d failed), %d bytes, %d tokens in %.1f s",
+                profile.files, profile.failures, profile.bytes, profile.tokens, seconds));
+        print(out, "control words", profile.controlWords, top, false);
+        print(out, "destinations", profile.destinations, top, false);
+        print(out, "destination bytes, nested destinations included",
+                profile.destinationBytes, top, false);
+        print(out, "codepages and charsets", profile.codepages, top, false);
+        print(out, "groups by depth", profile.groupDepths, Integer.MAX_VALUE, true);
+        print(out, "files by maximum depth", profile.maxDepths, Integer.MAX_VALUE, true);
+    }
+
+    private static void print(PrintStream out, String title, Map<String, long[]> histogram,
+                              int top, boolean byKey) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(histogram.entrySet());
+        if (byKey) {
+            entries.sort((a, b) -> a.getKey().compareTo(b.getKey()));
+        } else {
+            entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        }
+        long sum = 0;
+        for (Map.Entry<String, long[]> entry : entries) {
+            sum += entry.getValue()[0];
+        }
+        out.println();
+        out.println(title + ":");
+        for (int i = 0; i < entries.size() && i < top; i++) {
+            long n = entries.get(i).getValue()[0];
+            out.println(String.format(Locale.ROOT, "  %-24s %14d %6.2f%%",
+                    entries.get(i).getKey(), n, 100.0 * n / sum));
+        }
+        if (entries.size() > top) {
+            out.println("  ... " + (entries.size() - top) + " more");
+        }
+    }
+}
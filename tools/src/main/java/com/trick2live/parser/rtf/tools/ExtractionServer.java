@@ -0,0 +1,246 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+import com.trick2live.parser.rtf.parser.rtf.ExtractionLimits;
+import com.trick2live.parser.rtf.parser.rtf.HeaderCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts documents framed on standard input and writes their texts,
+ * framed, to standard output, for as long as the input stays open. Meant to
+ * be run as a pool of long-lived worker processes by services written in
+ * other languages, so that they pay for JVM startup and compilation once
+ * rather than per document.
+ *
+ * <pre>
+ * ExtractionServer [-threads n] [-lenient] [-max-bytes n] [-max-depth n]
+ * </pre>
+ *
+ * <p>A request is a 4 byte big-endian length followed by that many bytes of
+ * RTF. A response is a status byte, a 4 byte big-endian length, and that
+ * many bytes of UTF-8:</p>
+ *
+ * <ul>
+ * <li>{@link #OK}: the text of the document;</li>
+ * <li>{@link #FAILED}: why the document could not be extracted, including
+ * when its groups nest deeper than <code>-max-depth</code> (1000 by
+ * default), which would otherwise overflow the stack;</li>
+ * <li>{@link #TOO_LARGE}: the document was longer than
+ * <code>-max-bytes</code> (64 MB by default) and was skipped unread.</li>
+ * </ul>
+ *
+ * <p>Requests are extracted concurrently, on a thread per core by default,
+ * but answered in the order they came in, so a client needs no request
+ * ids. Responses are flushed whenever none is ready behind them. Closing
+ * standard input ends the server once every response is written. A
+ * document that fails, however it fails, gets a <code>FAILED</code>
+ * response; if a response still cannot be made, the server exits with
+ * status 1 rather than leave the client waiting.</p>
+ *
+ * <p>Anything the library or the JVM prints to standard output goes to
+ * standard error instead, so that it cannot corrupt the framing.</p>
+ */
+public class ExtractionServer {
+
+    /** the response holds the text of the document */
+    public static final int OK = 0;
+    /** the response holds the reason the document could not be extracted */
+    public static final int FAILED = 1;
+    /** the document was too long and was not extracted */
+    public static final int TOO_LARGE = 2;
+
+    private static final int DEFAULT_MAX_BYTES = 64 << 20;
+    private static final int DEFAULT_MAX_DEPTH = 1000;
+
+    /**
+     * A response ready to be written.
+     */
+    static final class Response {
+        final int status;
+        final byte[] body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // marks the end of the input in the queue of responses
+    private static final Future<Response> END = new FutureTask<>(() -> null);
+
+    private final HeaderCache headerCache = new HeaderCache();
+    private boolean lenient;
+    private int maxBytes = DEFAULT_MAX_BYTES;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private final ThreadLocal<PlainTextExtractor> extractors =
+            ThreadLocal.withInitial(this::createExtractor);
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private PlainTextExtractor createExtractor() {
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setLenient(lenient);
+        extractor.setHeaderCache(headerCache);
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxInputBytes(maxBytes);
+        limits.setMaxGroupDepth(maxDepth);
+        extractor.setLimits(limits);
+        return extractor;
+    }
+
+    Response extract(byte[] document) {
+        documents.incrementAndGet();
+        try {
+            StringWriter text = new StringWriter(document.length / 4);
+            extractors.get().extract(new ByteArrayInputStream(document),
+                    "application/rtf", text, null);
+            return new Response(OK, text.toString());
+        } catch (Throwable e) {
+            // lexical errors are Errors, and must not reach the writer
+            failures.incrementAndGet();
+            return new Response(FAILED, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Serves requests from <code>input</code> until it ends.
+     *
+     * @throws IOException if either stream fails, or the input ends in the
+     * middle of a request
+     */
+    void serve(InputStream input, OutputStream output, int threads)
+            throws IOException, InterruptedException {
+        // bounded, so that a client writing faster than the pool extracts
+        // is held back instead of filling the heap with documents
+        BlockingQueue<Future<Response>> pending = new ArrayBlockingQueue<>(threads * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Thread writer = new Thread(() -> write(pending, output), "responses");
+        writer.start();
+        try {
+            DataInputStream in = new DataInputStream(input);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0) {
+                    throw new IOException("negative request length " + length);
+                }
+                if (length > maxBytes) {
+                    skipFully(in, length);
+                    pending.put(done(new Response(TOO_LARGE,
+                            length + " bytes is over the limit of " + maxBytes)));
+                    continue;
+                }
+                byte[] document = new byte[length];
+                in.readFully(document);
+                pending.put(pool.submit(() -> extract(document)));
+            }
+        } finally {
+            pending.put(END);
+            writer.join();
+            pool.shutdown();
+        }
+    }
+
+    private static void write(BlockingQueue<Future<Response>> pending, OutputStream output) {
+        DataOutputStream out = new DataOutputStream(output);
+        try {
+            for (Future<Response> next = pending.take(); next != END; next = pending.take()) {
+                Response response = next.get();
+                out.writeByte(response.status);
+                out.writeInt(response.body.length);
+                out.write(response.body);
+                if (pending.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away; nobody is left to answer
+            System.err.println("cannot write responses: " + e);
+            System.exit(1);
+        } catch (InterruptedException | ExecutionException e) {
+            // a request without an answer would leave the client waiting,
+            // or misread every later response
+            System.err.println("cannot answer a request:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static Future<Response> done(Response response) {
+        FutureTask<Response> task = new FutureTask<>(() -> response);
+        task.run();
+        return task;
+    }
+
+    // reads rather than skips: standard input is usually a pipe, and
+    // FileInputStream.skip fails on pipes
+    private static void skipFully(InputStream in, long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 1 << 16)];
+        while (n > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(n, buffer.length));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            n -= read;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExtractionServer server = new ExtractionServer();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-lenient")) {
+                server.lenient = true;
+            } else if (args[i].equals("-max-bytes") && i + 1 < args.length) {
+                server.maxBytes = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-max-depth") && i + 1 < args.length) {
+                server.maxDepth = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("usage: ExtractionServer [-threads n] [-lenient] "
+                        + "[-max-bytes n] [-max-depth n]");
+                System.exit(2);
+            }
+        }
+
+        OutputStream output = new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16);
+        System.setOut(System.err);
+        try {
+            server.serve(new BufferedInputStream(System.in, 1 << 16), output, threads);
+        } catch (IOException e) {
+            System.err.println("cannot read requests: " + e);
+            System.exit(1);
+        }
+        System.err.println(server.documents.get() + " documents, "
+                + server.failures.get() + " failed");
+    }
+}
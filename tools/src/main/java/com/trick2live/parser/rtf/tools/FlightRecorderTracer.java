@@ -0,0 +1,111 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.trick2live.parser.rtf.parser.rtf.ExtractionTracer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Records the phases of RTF extractions as JDK Flight Recorder events, so
+ * that they show up in a recording as RTF work rather than as anonymous
+ * CPU time. Needs a JVM with JFR (8u262 or later).
+ *
+ * <p>Each phase is its own event type, and like any event type it can be
+ * enabled and given a duration threshold in the recording settings, for
+ * example <code>rtf.Table#threshold=5 ms</code>. A disabled phase costs the
+ * parser nothing but a null check. By default, extractions and documents
+ * are recorded from 10 ms, tables and destinations from 1 ms.</p>
+ *
+ * <pre>
+ * extractor.setTracer(new FlightRecorderTracer());
+ * </pre>
+ */
+public class FlightRecorderTracer implements ExtractionTracer {
+
+    @Category("RTF")
+    @StackTrace(false)
+    abstract static class PhaseEvent extends Event {
+        @Label("Input Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Tokens")
+        long tokens;
+    }
+
+    @Name("rtf.Extraction")
+    @Label("RTF Extraction")
+    @Description("A document extracted to plain text, writing included")
+    @Threshold("10 ms")
+    static class ExtractionEvent extends PhaseEvent {
+    }
+
+    @Name("rtf.Document")
+    @Label("RTF Document")
+    @Description("A document parsed")
+    @Threshold("10 ms")
+    static class DocumentEvent extends PhaseEvent {
+    }
+
+    @Name("rtf.Table")
+    @Label("RTF Header Table")
+    @Description("A font table, stylesheet, color table or other header table parsed")
+    @Threshold("1 ms")
+    static class TableEvent extends PhaseEvent {
+        @Label("Table")
+        String table;
+    }
+
+    @Name("rtf.Destination")
+    @Label("RTF Skipped Destination")
+    @Description("A picture, object or ignorable destination skipped")
+    @Threshold("1 ms")
+    static class DestinationEvent extends PhaseEvent {
+        @Label("Destination")
+        String destination;
+    }
+
+    public Object begin(int phase, String name) {
+        PhaseEvent event;
+        switch (phase) {
+            case EXTRACTION:
+                event = new ExtractionEvent();
+                break;
+            case DOCUMENT:
+                event = new DocumentEvent();
+                break;
+            case TABLE:
+                TableEvent table = new TableEvent();
+                table.table = name;
+                event = table;
+                break;
+            case DESTINATION:
+                DestinationEvent destination = new DestinationEvent();
+                destination.destination = name;
+                event = destination;
+                break;
+            default:
+                return null;
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public void end(Object span, long bytes, long tokens) {
+        PhaseEvent event = (PhaseEvent) span;
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.tokens = tokens;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.trick2live.parser.rtf.exception.ExtractionLimitException;
+import com.trick2live.parser.rtf.parser.PlainTextExtractor;
+import com.trick2live.parser.rtf.parser.rtf.ExtractionLimits;
+import com.trick2live.parser.rtf.parser.rtf.HeaderCache;
+import com.trick2live.parser.rtf.parser.rtf.RTFWarmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves {@link PlainTextExtractor} over HTTP with the JDK's built-in
+ * server, for running locally or behind a load balancer.
+ *
+ * <pre>
+ * HttpExtractionService [-port n] [-max-concurrent n] [-retry-after seconds]
+ *                       [-stream-threshold bytes] [-max-bytes n] [-max-depth n]
+ *                       [-warmup seconds] [-lenient]
+ * </pre>
+ *
+ * <p><code>POST /extract</code> with an RTF body answers with its text as
+ * <code>text/plain; charset=UTF-8</code>. The body is parsed as it arrives.
+ * The text of documents over <code>-stream-threshold</code> bytes (1 MB by
+ * default) or of unknown size is sent, chunked, as it is extracted, so
+ * that it is never held in memory whole. A document that fails before any
+ * text is sent gets a 422 with the reason, whatever the failure; one that
+ * fails later has its connection closed before the last chunk, which
+ * clients see as a truncated response.</p>
+ *
+ * <p>Bodies over <code>-max-bytes</code> (64 MB by default) get a 413,
+ * at once if their <code>Content-Length</code> says so, else as soon as
+ * the limit is read past. Documents whose groups nest deeper than
+ * <code>-max-depth</code> (1000 by default) fail rather than overflow
+ * the stack.</p>
+ *
+ * <p>At most <code>-max-concurrent</code> documents, by default one per
+ * core, are extracted at a time. Requests beyond that are turned away at
+ * once with a 503 and a <code>Retry-After</code> header rather than
+ * queued, so that a saturated service sheds load instead of building up
+ * latency. Handlers run on virtual threads where the JVM has them (Java 21
+ * and later), and on a cached thread pool otherwise.</p>
+ *
+ * <p>With <code>-warmup</code>, the port is opened only after
+ * {@link RTFWarmup} has run for at most that many seconds, so that a
+ * load balancer probing it sends no traffic to a cold JVM.</p>
+ */
+public class HttpExtractionService implements HttpHandler {
+
+    /** the default size of the smallest document whose text is streamed */
+    public static final long DEFAULT_STREAM_THRESHOLD = 1 << 20;
+    /** the default size of the largest body extracted */
+    public static final long DEFAULT_MAX_BYTES = 64 << 20;
+    /** the default depth groups may nest to */
+    public static final int DEFAULT_MAX_DEPTH = 1000;
+
+    private static final String CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    private final HeaderCache headerCache = new HeaderCache();
+    private final Semaphore permits;
+    private final int retryAfterSeconds;
+    private boolean lenient;
+    private long streamThreshold = DEFAULT_STREAM_THRESHOLD;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    /**
+     * @param maxConcurrent the most documents extracted at a time
+     * @param retryAfterSeconds the <code>Retry-After</code> sent with 503s
+     */
+    public HttpExtractionService(int maxConcurrent, int retryAfterSeconds) {
+        this.permits = new Semaphore(maxConcurrent);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * Sets the size of the smallest document whose text is sent as it is
+     * extracted, by the pipelined extractor. Smaller documents are parsed
+     * whole before their text is sent, which is cheaper and lets a failure
+     * still get a 422; so are larger ones, if this is
+     * <code>Long.MAX_VALUE</code>. Chunked uploads, whose size is unknown,
+     * are always streamed.
+     *
+     * @param streamThreshold the size in bytes
+     */
+    public void setStreamThreshold(long streamThreshold) {
+        this.streamThreshold = streamThreshold;
+    }
+
+    /**
+     * @param maxBytes the size in bytes of the largest body extracted, or
+     * <code>ExtractionLimits.NO_LIMIT</code>
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param maxDepth how deep groups may nest, or
+     * <code>ExtractionLimits.NO_LIMIT</code>
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        boolean truncated = false;
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "only POST is supported");
+            } else if (!permits.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After",
+                        Integer.toString(retryAfterSeconds));
+                send(exchange, 503, "too many documents in progress");
+            } else {
+                try {
+                    extract(exchange);
+                } finally {
+                    permits.release();
+                }
+            }
+        } catch (TruncatedResponseException e) {
+            truncated = true;
+            throw e;
+        } finally {
+            // closing would end a chunked response as though it were
+            // complete; a truncated one is thrown on instead, and the
+            // server drops the connection
+            if (!truncated) {
+                exchange.close();
+            }
+        }
+    }
+
+    private void extract(HttpExchange exchange) throws IOException {
+        if (maxBytes >= 0 && length(exchange) > maxBytes) {
+            send(exchange, 413, "the document is over the limit of " + maxBytes + " bytes");
+            return;
+        }
+        // an extractor per request rather than per thread: virtual threads
+        // are not reused, so a thread local would never be hit twice
+        PlainTextExtractor extractor = new PlainTextExtractor();
+        extractor.setLenient(lenient);
+        extractor.setHeaderCache(headerCache);
+        extractor.setPipelined(streamed(exchange));
+        ExtractionLimits limits = new ExtractionLimits();
+        limits.setMaxInputBytes(maxBytes);
+        limits.setMaxGroupDepth(maxDepth);
+        extractor.setLimits(limits);
+        ResponseStream body = new ResponseStream(exchange);
+        Writer text = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+        try (InputStream in = new BufferedInputStream(exchange.getRequestBody())) {
+            extractor.extract(in, "application/rtf", text, null);
+            text.flush();
+        } catch (Throwable e) {
+            // lexical errors and stack overflows are Errors; left to the
+            // server, they would leave the exchange open and the client
+            // waiting
+            if (body.seal()) {
+                // too late for a status
+                throw new TruncatedResponseException(e);
+            }
+            send(exchange, status(e), String.valueOf(e.getMessage()));
+            return;
+        }
+        if (!body.seal()) {
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    /**
+     * @return the status for a document that failed before any of its
+     * text was sent
+     */
+    private static int status(Throwable failure) {
+        if (failure instanceof ExtractionLimitException && ((ExtractionLimitException)
+                failure).getLimit() == ExtractionLimits.MAX_INPUT_BYTES) {
+            return 413;
+        }
+        return 422;
+    }
+
+    /**
+     * @return whether the text of the request should be sent as it is
+     * extracted, rather than once the whole document is parsed
+     */
+    private boolean streamed(HttpExchange exchange) {
+        long length = length(exchange);
+        return length < 0 || length > streamThreshold;
+    }
+
+    /**
+     * @return the <code>Content-Length</code> of the request, or -1 if it
+     * is unknown
+     */
+    private static long length(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            return length == null ? -1 : Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String message)
+            throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Thrown when a document fails after its 200 status was sent.
+     */
+    private static final class TruncatedResponseException extends IOException {
+        TruncatedResponseException(Throwable cause) {
+            super("extraction failed after the response began", cause);
+        }
+    }
+
+    /**
+     * The response body, whose 200 status is sent with its first byte, so
+     * that a document failing before then can still get an error status.
+     * The pipelined extractor writes from its own thread, and may still be
+     * writing when it fails; sealing the stream settles whether the status
+     * was sent, and fails any write after that.
+     */
+    private static final class ResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private OutputStream out;
+        private boolean sealed;
+
+        ResponseStream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        private OutputStream out() throws IOException {
+            if (sealed) {
+                throw new IOException("the response is already settled");
+            }
+            if (out == null) {
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        /**
+         * @return whether the status has been sent
+         */
+        synchronized boolean seal() {
+            sealed = true;
+            return out != null;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                out().write(b, off, len);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (out != null && !sealed) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * @return a virtual thread per task executor if the JVM has one, else a
+     * cached thread pool
+     */
+    static ExecutorService handlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        int maxConcurrent = Runtime.getRuntime().availableProcessors();
+        int retryAfter = 1;
+        long streamThreshold = DEFAULT_STREAM_THRESHOLD;
+        long maxBytes = DEFAULT_MAX_BYTES;
+        int maxDepth = DEFAULT_MAX_DEPTH;
+        long warmupSeconds = 0;
+        boolean lenient = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-max-concurrent") && i + 1 < args.length) {
+                maxConcurrent = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-retry-after") && i + 1 < args.length) {
+                retryAfter = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-stream-threshold") && i + 1 < args.length) {
+                streamThreshold = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-max-bytes") && i + 1 < args.length) {
+                maxBytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-max-depth") && i + 1 < args.length) {
+                maxDepth = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-warmup") && i + 1 < args.length) {
+                warmupSeconds = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-lenient")) {
+                lenient = true;
+            } else {
+                System.err.println("usage: HttpExtractionService [-port n] "
+                        + "[-max-concurrent n] [-retry-after seconds] "
+                        + "[-stream-threshold bytes] [-max-bytes n] [-max-depth n] "
+                        + "[-warmup seconds] [-lenient]");
+                System.exit(2);
+            }
+        }
+
+        if (warmupSeconds > 0) {
+            System.err.println("warm-up: " + RTFWarmup.run(warmupSeconds, TimeUnit.SECONDS));
+        }
+        HttpExtractionService service = new HttpExtractionService(maxConcurrent, retryAfter);
+        service.setStreamThreshold(streamThreshold);
+        service.setMaxBytes(maxBytes);
+        service.setMaxDepth(maxDepth);
+        service.setLenient(lenient);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/extract", service);
+        server.setExecutor(handlerExecutor());
+        server.start();
+        System.err.println("extracting on http://localhost:"
+                + server.getAddress().getPort() + "/extract");
+    }
+}
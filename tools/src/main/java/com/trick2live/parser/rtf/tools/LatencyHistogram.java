@@ -0,0 +1,64 @@
+package com.trick2live.parser.rtf.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets about 3% wide, so that percentiles can be
+ * read at any time, by any thread, in constant memory. Values are in
+ * microseconds.
+ */
+final class LatencyHistogram {
+
+    // sub-buckets per power of two; values below twice this are exact
+    private static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 5;
+
+    private final AtomicLongArray counts =
+            new AtomicLongArray(2 * SUB_BUCKETS + (64 - SUB_BITS - 1) * SUB_BUCKETS);
+
+    void record(long micros) {
+        counts.incrementAndGet(index(Math.max(0, micros)));
+    }
+
+    /**
+     * @param fraction the percentile, between 0 and 1
+     * @return the lower bound of the bucket that percentile falls in, or
+     * <code>0</code> if nothing was recorded
+     */
+    long percentile(double fraction) {
+        // a snapshot, so that values recorded meanwhile can't skew the rank
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return value(i);
+            }
+        }
+        return 0;
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return 2 * SUB_BUCKETS + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long value(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+}
@@ -0,0 +1,137 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.trick2live.parser.rtf.parser.rtf.CumulativeMetrics;
+import com.trick2live.parser.rtf.parser.rtf.ParseMetrics;
+import com.trick2live.parser.rtf.parser.rtf.RTFParserConstants;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes {@link CumulativeMetrics} as an MXBean, so that a monitoring
+ * agent or JConsole can tell whether documents are slow to lex, to decode
+ * or to write.
+ *
+ * <pre>
+ * CumulativeMetrics metrics = new CumulativeMetrics();
+ * Metrics.register(metrics);
+ * extractor.setMetricsListener(metrics);
+ * </pre>
+ */
+public class Metrics implements MetricsMXBean {
+
+    /** the name the metrics are registered under by default */
+    public static final String DEFAULT_NAME = "com.trick2live.parser.rtf:type=Metrics";
+
+    private final CumulativeMetrics metrics;
+
+    public Metrics(CumulativeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers metrics with the platform MBean server under
+     * <code>DEFAULT_NAME</code>.
+     *
+     * @param metrics the metrics to expose
+     * @return the name they were registered under
+     * @throws JMException if the name is taken
+     */
+    public static ObjectName register(CumulativeMetrics metrics) throws JMException {
+        return register(metrics, new ObjectName(DEFAULT_NAME));
+    }
+
+    /**
+     * Registers metrics with the platform MBean server.
+     *
+     * @param metrics the metrics to expose
+     * @param name the name to register them under
+     * @return the name they were registered under
+     * @throws JMException if the name is taken
+     */
+    public static ObjectName register(CumulativeMetrics metrics, ObjectName name)
+            throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        return server.registerMBean(new Metrics(metrics), name).getObjectName();
+    }
+
+    public long getDocumentCount() {
+        return metrics.getDocumentCount();
+    }
+
+    public long getFailureCount() {
+        return metrics.getFailureCount();
+    }
+
+    public long getBytesRead() {
+        return metrics.getBytesRead();
+    }
+
+    public long getTokenCount() {
+        return metrics.getTokenCount();
+    }
+
+    public Map<String, Long> getTokenCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int kind = 0; kind < ParseMetrics.TOKEN_KINDS; kind++) {
+            long count = metrics.getTokenCount(kind);
+            if (count > 0) {
+                counts.put(tokenName(kind), count);
+            }
+        }
+        return counts;
+    }
+
+    public long getGroupCount() {
+        return metrics.getGroupCount();
+    }
+
+    public int getMaxDepth() {
+        return metrics.getMaxDepth();
+    }
+
+    public long getTextLength() {
+        return metrics.getTextLength();
+    }
+
+    public long getSkippedBytes() {
+        return metrics.getSkippedBytes();
+    }
+
+    public long getLexingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(metrics.getLexingNanos());
+    }
+
+    public long getDecodingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(metrics.getDecodingNanos());
+    }
+
+    public long getWritingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(metrics.getWritingNanos());
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(metrics.getTotalNanos());
+    }
+
+    public void reset() {
+        metrics.reset();
+    }
+
+    /**
+     * @return the token's image without the quotes, like <code>par</code>
+     * for a literal or <code>&lt;TEXT&gt;</code> for a pattern
+     */
+    static String tokenName(int kind) {
+        String image = RTFParserConstants.tokenImage[kind];
+        if (image.length() > 1 && image.charAt(0) == '"') {
+            return image.substring(1, image.length() - 1);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,43 @@
+package com.trick2live.parser.rtf.tools;
+
+import java.util.Map;
+
+/**
+ * The cumulative parse metrics of a process, as seen over JMX. Times are
+ * in milliseconds.
+ *
+ * @see Metrics
+ */
+public interface MetricsMXBean {
+
+    long getDocumentCount();
+
+    long getFailureCount();
+
+    long getBytesRead();
+
+    long getTokenCount();
+
+    /**
+     * @return the number of tokens parsed, by token, for the tokens seen
+     */
+    Map<String, Long> getTokenCounts();
+
+    long getGroupCount();
+
+    int getMaxDepth();
+
+    long getTextLength();
+
+    long getSkippedBytes();
+
+    long getLexingMillis();
+
+    long getDecodingMillis();
+
+    long getWritingMillis();
+
+    long getTotalMillis();
+
+    void reset();
+}
@@ -0,0 +1,71 @@
+package com.trick2live.parser.rtf.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link BatchExtractor} counts a file the lexer rejects as a
+ * failure and goes on with the rest.
+ */
+public class BatchExtractorTest {
+
+    private Path root;
+
+    @Before
+    public void createDirectories() throws IOException {
+        root = Files.createTempDirectory("batch");
+        Files.createDirectories(root.resolve("in/sub"));
+    }
+
+    @After
+    public void deleteDirectories() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void write(String name, String rtf) throws IOException {
+        Files.write(root.resolve("in").resolve(name), rtf.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void lexicalErrorFailsOnlyItsFile() throws Exception {
+        write("good.rtf", "{\\rtf1\\ansi Hello}");
+        // not a hex escape: the lexer throws an Error, not an exception
+        write("bad.rtf", "{\\rtf1\\ansi \\'zz}");
+        write("sub/other.rtf", "{\\rtf1\\ansi World}");
+        BatchExtractor batch = new BatchExtractor(root.resolve("in"), root.resolve("out"));
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+
+        boolean ok = batch.run(Arrays.asList(root.resolve("in/good.rtf"),
+                root.resolve("in/bad.rtf"), root.resolve("in/sub/other.rtf")),
+                2, new PrintStream(progress, true));
+
+        assertFalse(ok);
+        assertTrue(batch.report(3).startsWith("3/3 docs, 1 failed"));
+        assertEquals("Hello", new String(Files.readAllBytes(root.resolve("out/good.txt")),
+                StandardCharsets.UTF_8).trim());
+        assertEquals("World", new String(Files.readAllBytes(root.resolve("out/sub/other.txt")),
+                StandardCharsets.UTF_8).trim());
+        assertFalse(Files.exists(root.resolve("out/bad.txt")));
+        // no temporary file is left behind
+        try (Stream<Path> out = Files.list(root.resolve("out"))) {
+            assertEquals(2, out.count());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.trick2live.parser.rtf.tools;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the histograms {@link ControlWordProfiler#profile} builds from a
+ * document: destinations named by a control word or opened with
+ * <code>\*</code>, the bytes each kind of destination spans, groups by
+ * depth, and the code page declarations.
+ */
+public class ControlWordProfilerTest {
+
+    private static ControlWordProfiler.Profile profile(String rtf) {
+        return ControlWordProfiler.profile(
+                new ByteArrayInputStream(rtf.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static long count(Map<String, long[]> histogram, String key) {
+        long[] count = histogram.get(key);
+        return count == null ? 0 : count[0];
+    }
+
+    @Test
+    public void destinations() {
+        ControlWordProfiler.Profile profile = profile("{\\rtf1\\ansi{\\fonttbl{\\f0 Arial;}}"
+                + "{\\*\\generator Word;}{\\*\\fonttbl x}{\\b bold}{\\pict abc}{\\*\\unknown y}}");
+        assertEquals(1, count(profile.destinations, "\\fonttbl"));
+        assertEquals(1, count(profile.destinations, "\\*\\generator"));
+        assertEquals(1, count(profile.destinations, "\\*\\fonttbl"));
+        assertEquals(1, count(profile.destinations, "\\*\\unknown"));
+        assertEquals(1, count(profile.destinations, "\\pict"));
+        // neither is a destination, nor is a word later in the group
+        assertEquals(0, count(profile.destinations, "\\b"));
+        assertEquals(0, count(profile.destinations, "\\f"));
+        assertEquals(5, profile.destinations.size());
+
+        assertEquals(3, count(profile.controlWords, "\\*"));
+        assertEquals(2, count(profile.controlWords, "\\fonttbl"));
+        assertEquals(1, count(profile.controlWords, "\\b"));
+    }
+
+    @Test
+    public void destinationBytes() {
+        String fonts = "{\\fonttbl{\\f0 Arial;}{\\f1 Times;}}";
+        String title = "{\\title A {\\b bold} title}";
+        String generator = "{\\*\\generator Word;}";
+        ControlWordProfiler.Profile profile = profile("{\\rtf1\\ansi" + fonts
+                + "{\\info" + title + title + "}" + generator + "text}");
+        assertEquals(fonts.length(), count(profile.destinationBytes, "\\fonttbl"));
+        // destinations of one kind add up, nested ones count in both
+        assertEquals(2 * title.length(), count(profile.destinationBytes, "\\title"));
+        assertEquals(2 * title.length() + "{\\info}".length(),
+                count(profile.destinationBytes, "\\info"));
+        assertEquals(generator.length(), count(profile.destinationBytes, "\\*\\generator"));
+        assertEquals(0, count(profile.destinationBytes, "\\b"));
+    }
+
+    @Test
+    public void depthBuckets() {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi ");
+        for (int i = 1; i < 40; i++) {
+            rtf.append('{');
+        }
+        for (int i = 1; i < 40; i++) {
+            rtf.append('}');
+        }
+        ControlWordProfiler.Profile profile = profile(rtf.append('}').toString());
+        // one group at each depth from 1 to 40
+        for (int depth = 1; depth <= 16; depth++) {
+            assertEquals("depth " + depth, 1,
+                    count(profile.groupDepths, String.format(Locale.ROOT, "%5d", depth)));
+        }
+        assertEquals(16, count(profile.groupDepths, "   17-32"));
+        assertEquals(8, count(profile.groupDepths, "   33-64"));
+        assertEquals(16 + 2, profile.groupDepths.size());
+        assertEquals(1, count(profile.maxDepths, "   33-64"));
+        assertEquals(1, profile.maxDepths.size());
+    }
+
+    @Test
+    public void codepages() {
+        ControlWordProfiler.Profile profile = profile("{\\rtf1\\ansi\\ansicpg1251\\deff0"
+                + "{\\fonttbl{\\f0\\fcharset204 A;}{\\f1\\fcharset0 B;}{\\f2\\fcharset204 C;}}"
+                + "\\pard \\'c0\\'c1}");
+        assertEquals(1, count(profile.codepages, "\\ansi"));
+        assertEquals(1, count(profile.codepages, "\\ansicpg1251"));
+        assertEquals(2, count(profile.codepages, "\\fcharset204"));
+        assertEquals(1, count(profile.codepages, "\\fcharset0"));
+        assertEquals(4, profile.codepages.size());
+        assertEquals(2, count(profile.controlWords, "\\'"));
+    }
+
+    @Test
+    public void totalsAndMerge() {
+        String rtf = "{\\rtf1\\ansi {\\b x}\\par}";
+        ControlWordProfiler.Profile profile = profile(rtf);
+        assertEquals(1, profile.files);
+        assertEquals(0, profile.failures);
+        assertEquals(rtf.length(), profile.bytes);
+
+        ControlWordProfiler.Profile total = new ControlWordProfiler.Profile();
+        total.merge(profile);
+        total.merge(profile(rtf));
+        assertEquals(2, total.files);
+        assertEquals(2 * rtf.length(), total.bytes);
+        assertEquals(2 * profile.tokens, total.tokens);
+        assertEquals(2, count(total.controlWords, "\\b"));
+        assertEquals(2, count(total.maxDepths, "    2"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.trick2live.parser.rtf.tools;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ExtractionServer} answers every request in order,
+ * including ones the lexer rejects or that nest too deep, and keeps
+ * serving the requests after them.
+ */
+public class ExtractionServerTest {
+
+    private static byte[] frames(byte[]... documents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (byte[] document : documents) {
+            out.writeInt(document.length);
+            out.write(document);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<ExtractionServer.Response> serve(ExtractionServer server,
+                                                         byte[] requests) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream(requests), output, 2);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        List<ExtractionServer.Response> responses = new ArrayList<>();
+        while (in.available() > 0) {
+            int status = in.readUnsignedByte();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            responses.add(new ExtractionServer.Response(status,
+                    new String(body, StandardCharsets.UTF_8)));
+        }
+        return responses;
+    }
+
+    private static String text(ExtractionServer.Response response) {
+        return new String(response.body, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] rtf(String rtf) {
+        return rtf.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test(timeout = 30000)
+    public void malformedFrameIsAnsweredAndServingGoesOn() throws Exception {
+        StringBuilder deep = new StringBuilder("{\\rtf1\\ansi ");
+        for (int i = 0; i < 100000; i++) {
+            deep.append('{');
+        }
+        List<ExtractionServer.Response> responses = serve(new ExtractionServer(), frames(
+                // not a hex escape: the lexer throws an Error
+                rtf("{\\rtf1\\ansi \\'zz}"),
+                // deep enough to overflow the stack without a depth limit
+                rtf(deep.toString()),
+                rtf("{\\rtf1\\ansi Hello}")));
+
+        assertEquals(3, responses.size());
+        assertEquals(ExtractionServer.FAILED, responses.get(0).status);
+        assertTrue(text(responses.get(0)).startsWith("Lexical error"));
+        assertEquals(ExtractionServer.FAILED, responses.get(1).status);
+        assertTrue(text(responses.get(1)).contains("maximum group depth"));
+        assertEquals(ExtractionServer.OK, responses.get(2).status);
+        assertEquals("Hello", text(responses.get(2)).trim());
+    }
+
+    @Test(timeout = 30000)
+    public void manyRequestsAreAnsweredInOrder() throws Exception {
+        byte[][] documents = new byte[50][];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = rtf(i % 7 == 3 ? "{\\rtf1\\ansi \\'zz}" : "{\\rtf1\\ansi doc" + i + "}");
+        }
+        List<ExtractionServer.Response> responses = serve(new ExtractionServer(), frames(documents));
+
+        assertEquals(documents.length, responses.size());
+        for (int i = 0; i < documents.length; i++) {
+            if (i % 7 == 3) {
+                assertEquals(ExtractionServer.FAILED, responses.get(i).status);
+            } else {
+                assertEquals(ExtractionServer.OK, responses.get(i).status);
+                assertEquals("doc" + i, text(responses.get(i)).trim());
+            }
+        }
+    }
+}
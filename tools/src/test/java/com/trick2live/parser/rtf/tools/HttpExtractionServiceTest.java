@@ -0,0 +1,138 @@
+package com.trick2live.parser.rtf.tools;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link HttpExtractionService} answers every request, with a
+ * 422 for documents the lexer rejects or that nest too deep, a 413 for
+ * ones over the size limit, and a dropped connection for ones that fail
+ * after their text began.
+ */
+public class HttpExtractionServiceTest {
+
+    private HttpExtractionService service;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @Before
+    public void start() throws IOException {
+        service = new HttpExtractionService(4, 1);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/extract", service);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the status and the body of the response, separated by a space
+     */
+    private String post(String rtf, boolean chunked) throws IOException {
+        URL url = new URL("http", "localhost", server.getAddress().getPort(), "/extract");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(10000);
+        connection.setDoOutput(true);
+        if (chunked) {
+            connection.setChunkedStreamingMode(1024);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(rtf.getBytes(StandardCharsets.US_ASCII));
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return status + " " + new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    @Test(timeout = 30000)
+    public void lexicalErrorGets422() throws IOException {
+        // not a hex escape: the lexer throws an Error
+        String response = post("{\\rtf1\\ansi \\'zz}", false);
+        assertTrue(response, response.startsWith("422 Lexical error"));
+        assertEquals("200 Hello", post("{\\rtf1\\ansi Hello}", false));
+    }
+
+    @Test(timeout = 30000)
+    public void lexicalErrorInStreamedDocumentGets422() throws IOException {
+        String response = post("{\\rtf1\\ansi \\'zz}", true);
+        assertTrue(response, response.startsWith("422 Lexical error"));
+        assertEquals("200 Hello", post("{\\rtf1\\ansi Hello}", true));
+    }
+
+    @Test(timeout = 30000)
+    public void deepNestingGets422() throws IOException {
+        StringBuilder deep = new StringBuilder("{\\rtf1\\ansi ");
+        for (int i = 0; i < 100000; i++) {
+            deep.append('{');
+        }
+        String response = post(deep.toString(), false);
+        assertTrue(response, response.startsWith("422 ")
+                && response.contains("maximum group depth"));
+    }
+
+    @Test(timeout = 30000)
+    public void oversizedBodyGets413() throws IOException {
+        service.setMaxBytes(100);
+        StringBuilder large = new StringBuilder("{\\rtf1\\ansi ");
+        while (large.length() < 200) {
+            large.append("text ");
+        }
+        large.append('}');
+        assertTrue(post(large.toString(), false).startsWith("413 "));
+        assertTrue(post(large.toString(), true).startsWith("413 "));
+        assertEquals("200 Hello", post("{\\rtf1\\ansi Hello}", false));
+    }
+
+    @Test(timeout = 30000)
+    public void failureAfterTextBeganDropsTheConnection() throws IOException {
+        StringBuilder document = new StringBuilder("{\\rtf1\\ansi ");
+        // text is passed on as each group ends, so the response begins
+        // long before the error at the end
+        for (int i = 0; i < 100000; i++) {
+            document.append("{text ").append(i).append("}\\par ");
+        }
+        document.append("\\'zz}");
+        try {
+            String response = post(document.toString(), true);
+            fail("a failed document read as complete: "
+                    + response.substring(0, Math.min(100, response.length())));
+        } catch (IOException expected) {
+            // the response was cut short
+        }
+        assertEquals("200 Hello", post("{\\rtf1\\ansi Hello}", true));
+    }
+}